@@ -0,0 +1,180 @@
+package ir.ramtung.tinyme.audit;
+
+import ir.ramtung.tinyme.messaging.RingBuffer;
+import ir.ramtung.tinyme.messaging.codec.BinaryCodec;
+import ir.ramtung.tinyme.messaging.event.*;
+import ir.ramtung.tinyme.messaging.request.ChangeMatchingStateRq;
+import ir.ramtung.tinyme.messaging.request.DeleteOrderRq;
+import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records every request received and every event published, in place of logging them as text.
+ * <p>
+ * The thread that receives or publishes a message only encodes its fields with {@link BinaryCodec}
+ * into a pre-allocated {@link RingBuffer} slot of {@code audit.recordBytes}. A writer thread drains
+ * the ring into {@code audit.file}, appending to it across restarts, and {@link AuditLogReader}
+ * turns the file back into text. When the writer falls {@code audit.ringCapacity} messages behind,
+ * the threads recording messages wait for it, so nothing is dropped.
+ * <p>
+ * The file starts with a magic number and version, followed by records of
+ * {@code [int bodyLength][long epochMillis][byte direction][byte type][body]}. A message that does
+ * not fit in a slot is recorded with an empty body.
+ */
+@Component
+@ConditionalOnProperty(name = "audit.enabled", havingValue = "true")
+public class AuditLog {
+    static final int MAGIC = 0x544D4155;
+    static final int VERSION = 1;
+    static final int SLOT_HEADER_BYTES = Long.BYTES + Byte.BYTES + Byte.BYTES;
+    static final byte RECEIVED = 1;
+    static final byte PUBLISHED = 2;
+    static final List<Class<?>> TYPES = List.of(
+            EnterOrderRq.class, DeleteOrderRq.class, ChangeMatchingStateRq.class,
+            OrderAcceptedEvent.class, OrderActivatedEvent.class, OrderDeletedEvent.class, OrderUpdatedEvent.class,
+            OrderExecutedEvent.class, OrderRejectedEvent.class, OpeningPriceEvent.class,
+            SecurityStateChangedEvent.class, TradeEvent.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private final Logger log = Logger.getLogger(this.getClass().getName());
+    private final Path file;
+    private final RingBuffer<ByteBuffer> ring;
+    private final ByteBuffer out;
+    private FileChannel channel;
+    private Thread writer;
+    private volatile boolean running;
+
+    @Autowired
+    public AuditLog(@Value("${audit.file:audit/tinyme.audit}") String file,
+                    @Value("${audit.ringCapacity:65536}") int ringCapacity,
+                    @Value("${audit.recordBytes:512}") int recordBytes) {
+        this(Path.of(file), ringCapacity, recordBytes);
+    }
+
+    public AuditLog(Path file, int ringCapacity, int recordBytes) {
+        if (recordBytes <= SLOT_HEADER_BYTES)
+            throw new IllegalArgumentException("Audit records must be larger than their header");
+        this.file = file;
+        ring = new RingBuffer<>(ringCapacity, () -> ByteBuffer.allocate(recordBytes).order(ByteOrder.LITTLE_ENDIAN));
+        out = ByteBuffer.allocateDirect(Math.max(WRITE_BUFFER_BYTES, Integer.BYTES + recordBytes)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @PostConstruct
+    public void open() {
+        try {
+            if (file.getParent() != null)
+                Files.createDirectories(file.getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (channel.size() == 0) {
+                out.putInt(MAGIC).putInt(VERSION);
+                drain();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        running = true;
+        writer = new Thread(this::writeRecords, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void received(Object request) {
+        record(RECEIVED, request);
+    }
+
+    public void published(Event event) {
+        record(PUBLISHED, event);
+    }
+
+    private void record(byte direction, Object message) {
+        if (!running)
+            return;
+        int type = TYPES.indexOf(message.getClass());
+        if (type < 0)
+            throw new IllegalArgumentException("Cannot audit " + message.getClass().getName());
+        long sequence = ring.claim();
+        ByteBuffer slot = ring.get(sequence);
+        slot.clear();
+        slot.putLong(System.currentTimeMillis()).put(direction).put((byte) (type + 1));
+        try {
+            BinaryCodec.encode(message, slot);
+        } catch (BufferOverflowException ex) {
+            slot.position(SLOT_HEADER_BYTES);
+        }
+        slot.flip();
+        ring.publish(sequence);
+    }
+
+    private void writeRecords() {
+        long next = 0;
+        try {
+            while (running || next <= ring.lastClaimed()) {
+                long available = ring.highestPublished(next);
+                if (available < next) {
+                    drain();
+                    if (ring.highestPublished(next) < next)
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                for (long sequence = next; sequence <= available; sequence++) {
+                    ByteBuffer slot = ring.get(sequence);
+                    if (out.remaining() < Integer.BYTES + slot.remaining())
+                        drain();
+                    out.putInt(slot.remaining() - SLOT_HEADER_BYTES).put(slot);
+                }
+                ring.release(available);
+                next = available + 1;
+            }
+            drain();
+        } catch (IOException ex) {
+            log.log(Level.SEVERE, "Could not write the audit log; auditing stops", ex);
+            running = false;
+        } finally {
+            // a thread that saw the log running just before it stopped must not wait for a full ring
+            ring.release(Long.MAX_VALUE / 2);
+        }
+    }
+
+    private void drain() throws IOException {
+        out.flip();
+        while (out.hasRemaining())
+            channel.write(out);
+        out.clear();
+    }
+
+    /**
+     * Writes out what has been recorded so far and closes the file. Messages recorded afterwards
+     * are ignored.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException, IOException {
+        running = false;
+        if (writer != null)
+            writer.join(TimeUnit.MINUTES.toMillis(1));
+        if (channel != null) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+}
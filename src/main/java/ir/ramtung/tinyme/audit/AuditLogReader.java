@@ -0,0 +1,77 @@
+package ir.ramtung.tinyme.audit;
+
+import ir.ramtung.tinyme.messaging.codec.BinaryCodec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Reads an {@link AuditLog} file back. Run it with the file as its argument to print one line
+ * per record:
+ * <pre>
+ * java -cp tinyme.jar ir.ramtung.tinyme.audit.AuditLogReader audit/tinyme.audit
+ * </pre>
+ * A record torn by a crash ends the file.
+ */
+public final class AuditLogReader {
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES + AuditLog.SLOT_HEADER_BYTES;
+
+    /**
+     * @param message the decoded message, or null if it was too large to record
+     */
+    public record Entry(Instant time, boolean received, Class<?> type, Object message) {
+        @Override
+        public String toString() {
+            return time + (received ? " received " : " published ")
+                    + (message != null ? message : type.getSimpleName() + " (too large to record)");
+        }
+    }
+
+    private AuditLogReader() {
+    }
+
+    public static void read(Path file, Consumer<Entry> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] header = new byte[RECORD_HEADER_BYTES];
+            if (in.readNBytes(header, 0, 8) < 8)
+                return;
+            ByteBuffer fileHeader = ByteBuffer.wrap(header, 0, 8).order(ByteOrder.LITTLE_ENDIAN);
+            if (fileHeader.getInt() != AuditLog.MAGIC)
+                throw new IOException(file + " is not an audit log");
+            int version = fileHeader.getInt();
+            if (version != AuditLog.VERSION)
+                throw new IOException("Unsupported audit log version " + version);
+
+            while (in.readNBytes(header, 0, RECORD_HEADER_BYTES) == RECORD_HEADER_BYTES) {
+                ByteBuffer recordHeader = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                int bodyLength = recordHeader.getInt();
+                Instant time = Instant.ofEpochMilli(recordHeader.getLong());
+                boolean received = recordHeader.get() == AuditLog.RECEIVED;
+                int type = recordHeader.get() - 1;
+                if (bodyLength < 0 || type < 0 || type >= AuditLog.TYPES.size())
+                    throw new IOException("Corrupt audit record");
+                byte[] body = in.readNBytes(bodyLength);
+                if (body.length < bodyLength)
+                    return;
+                Class<?> messageType = AuditLog.TYPES.get(type);
+                Object message = bodyLength == 0 ? null : BinaryCodec.decode(messageType, ByteBuffer.wrap(body));
+                consumer.accept(new Entry(time, received, messageType, message));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: AuditLogReader <audit file>");
+            System.exit(2);
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false);
+        read(Path.of(args[0]), out::println);
+        out.flush();
+    }
+}
@@ -0,0 +1,199 @@
+package ir.ramtung.tinyme.domain.entity;
+
+import ir.ramtung.tinyme.domain.entity.order.Order;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cumulative buy and sell depth of an order book, kept in a sparse segment tree over prices so that
+ * adding or removing an order costs O(log P) and the opening state is found with a few tree
+ * descents instead of a scan over every price and every order.
+ * <p>
+ * For a price p, B(p) is the buy quantity priced at or above p and S(p) the sell quantity priced
+ * at or below p. The tradable quantity min(B, S) grows with S up to the first price c where
+ * S(c) >= B(c) and shrinks with B after it, so its maximum is either S(c - 1) or B(c), and the
+ * prices reaching it form one interval. To find c with a single descent, buy quantities are also
+ * stored one price above their limit: the prefix sum of that weight at p is the buy quantity
+ * priced below p, and S(p) >= B(p) becomes a prefix-sum condition.
+ */
+class AuctionDepth {
+    private static final long PRICE_RANGE = 1L << 32;
+
+    private static final class Node {
+        long sell;
+        long buy;
+        long shiftedBuy;
+        Node left;
+        Node right;
+    }
+
+    private record Contribution(int price, int quantity) {
+    }
+
+    private final Node root = new Node();
+    private final Map<Long, Contribution> buyContributions = new HashMap<>();
+    private final Map<Long, Contribution> sellContributions = new HashMap<>();
+    private OpeningState cachedState = null;
+    private Integer cachedLastTransactionPrice = null;
+
+    void add(Order order) {
+        var contributions = contributionsOf(order.getSide());
+        var previous = contributions.put(order.getOrderId(), new Contribution(order.getPrice(), order.getTotalQuantity()));
+        if (previous != null)
+            update(order.getSide(), previous.price(), -previous.quantity());
+        update(order.getSide(), order.getPrice(), order.getTotalQuantity());
+    }
+
+    void remove(Side side, long orderId) {
+        var contribution = contributionsOf(side).remove(orderId);
+        if (contribution != null)
+            update(side, contribution.price(), -contribution.quantity());
+    }
+
+    private Map<Long, Contribution> contributionsOf(Side side) {
+        return side == Side.BUY ? buyContributions : sellContributions;
+    }
+
+    private void update(Side side, int price, long quantity) {
+        if (side == Side.BUY) {
+            update(price, 0, quantity, 0);
+            update(price + 1L, 0, 0, quantity);
+        } else {
+            update(price, quantity, 0, 0);
+        }
+        cachedState = null;
+    }
+
+    private void update(long index, long sellDelta, long buyDelta, long shiftedBuyDelta) {
+        Node node = root;
+        long low = 0;
+        long high = PRICE_RANGE;
+        while (true) {
+            node.sell += sellDelta;
+            node.buy += buyDelta;
+            node.shiftedBuy += shiftedBuyDelta;
+            if (high - low == 1)
+                return;
+            long mid = (low + high) >>> 1;
+            boolean goLeft = index < mid;
+            Node child = goLeft ? node.left : node.right;
+            if (child == null) {
+                child = new Node();
+            } else if (child.sell + sellDelta == 0 && child.buy + buyDelta == 0 && child.shiftedBuy + shiftedBuyDelta == 0) {
+                child = null;
+            }
+            if (goLeft) {
+                node.left = child;
+                high = mid;
+            } else {
+                node.right = child;
+                low = mid;
+            }
+            if (child == null)
+                return;
+            node = child;
+        }
+    }
+
+    /**
+     * @return the smallest price whose prefix sum of {@code weight} reaches {@code target}, or -1 if none does
+     */
+    private long firstReaching(ToLongFunction<Node> weight, long target) {
+        assert target > 0;
+        if (weight.applyAsLong(root) < target)
+            return -1;
+        Node node = root;
+        long low = 0;
+        long high = PRICE_RANGE;
+        long accumulated = 0;
+        while (high - low > 1) {
+            long mid = (low + high) >>> 1;
+            long leftWeight = node.left == null ? 0 : weight.applyAsLong(node.left);
+            if (accumulated + leftWeight >= target) {
+                node = node.left;
+                high = mid;
+            } else {
+                accumulated += leftWeight;
+                node = node.right;
+                low = mid;
+            }
+        }
+        return low;
+    }
+
+    private long prefix(ToLongFunction<Node> weight, long index) {
+        Node node = root;
+        long low = 0;
+        long high = PRICE_RANGE;
+        long accumulated = 0;
+        while (node != null && high - low > 1) {
+            long mid = (low + high) >>> 1;
+            if (index < mid) {
+                node = node.left;
+                high = mid;
+            } else {
+                if (node.left != null)
+                    accumulated += weight.applyAsLong(node.left);
+                node = node.right;
+                low = mid;
+            }
+        }
+        if (node != null)
+            accumulated += weight.applyAsLong(node);
+        return accumulated;
+    }
+
+    private long sellQuantityAtOrBelow(long price) {
+        return prefix(n -> n.sell, price);
+    }
+
+    private long buyQuantityAtOrAbove(long price) {
+        return root.buy - prefix(n -> n.shiftedBuy, price);
+    }
+
+    OpeningState openingState(Integer lastTransactionPrice) {
+        if (cachedState == null || !Objects.equals(cachedLastTransactionPrice, lastTransactionPrice)) {
+            cachedState = calculateOpeningState(lastTransactionPrice);
+            cachedLastTransactionPrice = lastTransactionPrice;
+        }
+        return cachedState;
+    }
+
+    private OpeningState calculateOpeningState(Integer lastTransactionPrice) {
+        long totalBuy = root.buy;
+        long totalSell = root.sell;
+        if (totalBuy == 0 || totalSell == 0)
+            return new OpeningState(0, null);
+
+        long minPrice = firstReaching(n -> n.sell + n.buy, 1);
+        long maxPrice = firstReaching(n -> n.sell + n.buy, totalSell + totalBuy);
+        long crossing = firstReaching(n -> n.sell + n.shiftedBuy, totalBuy);
+
+        long belowCrossing = crossing > minPrice ? sellQuantityAtOrBelow(crossing - 1) : -1;
+        long atCrossing = crossing <= maxPrice ? buyQuantityAtOrAbove(crossing) : -1;
+        long maxTradableQuantity = Math.max(belowCrossing, atCrossing);
+
+        long lowestPrice;
+        if (belowCrossing != maxTradableQuantity)
+            lowestPrice = crossing;
+        else if (maxTradableQuantity == 0)
+            lowestPrice = minPrice;
+        else
+            lowestPrice = Math.max(minPrice, firstReaching(n -> n.sell, maxTradableQuantity));
+
+        long highestPrice;
+        if (atCrossing != maxTradableQuantity)
+            highestPrice = crossing - 1;
+        else if (maxTradableQuantity == 0)
+            highestPrice = maxPrice;
+        else
+            highestPrice = Math.min(maxPrice, firstReaching(n -> n.shiftedBuy, totalBuy - maxTradableQuantity + 1) - 1);
+
+        long price = lastTransactionPrice == null ? lowestPrice
+                : Math.max(lowestPrice, Math.min(highestPrice, lastTransactionPrice));
+        return new OpeningState((int) maxTradableQuantity, (int) price);
+    }
+}
@@ -0,0 +1,88 @@
+package ir.ramtung.tinyme.domain.entity;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * The best bid and offer of an order book: the best price of each side, the quantity shown there
+ * and the number of orders resting there. It is written by the thread that matches the security
+ * and may be read from any thread.
+ * <p>
+ * The fields are guarded by a sequence lock. The writer makes the version odd, writes the fields
+ * and makes it even again; a reader copies the fields between two reads of the version and keeps
+ * the copy only if the version was even and did not move. Readers never block the writer and
+ * never write anything the writer reads, so polling costs the matching thread nothing.
+ */
+public class BestBidOffer {
+    private static final VarHandle VERSION;
+
+    static {
+        try {
+            VERSION = MethodHandles.lookup().findVarHandle(BestBidOffer.class, "version", long.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    /**
+     * A consistent copy of the best bid and offer. A side without orders has a price of zero.
+     *
+     * @param version grows with every change, so an unchanged version means an unchanged quote
+     */
+    public record Quote(long version, int bidPrice, long bidQuantity, int bidOrders,
+                        int askPrice, long askQuantity, int askOrders) {
+        public boolean hasBid() {
+            return bidOrders > 0;
+        }
+
+        public boolean hasAsk() {
+            return askOrders > 0;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private volatile long version;
+    private int bidPrice;
+    private long bidQuantity;
+    private int bidOrders;
+    private int askPrice;
+    private long askQuantity;
+    private int askOrders;
+
+    /**
+     * Must only be called by the thread that matches the security.
+     */
+    void update(Side side, int price, long quantity, int orders) {
+        boolean unchanged = side == Side.BUY
+                ? bidPrice == price && bidQuantity == quantity && bidOrders == orders
+                : askPrice == price && askQuantity == quantity && askOrders == orders;
+        if (unchanged)
+            return;
+        long current = (long) VERSION.getOpaque(this);
+        VERSION.setOpaque(this, current + 1);
+        VarHandle.storeStoreFence();
+        if (side == Side.BUY) {
+            bidPrice = price;
+            bidQuantity = quantity;
+            bidOrders = orders;
+        } else {
+            askPrice = price;
+            askQuantity = quantity;
+            askOrders = orders;
+        }
+        VERSION.setRelease(this, current + 2);
+    }
+
+    public Quote read() {
+        while (true) {
+            long before = (long) VERSION.getAcquire(this);
+            if ((before & 1) == 0) {
+                Quote quote = new Quote(before >>> 1, bidPrice, bidQuantity, bidOrders, askPrice, askQuantity, askOrders);
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getOpaque(this) == before)
+                    return quote;
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
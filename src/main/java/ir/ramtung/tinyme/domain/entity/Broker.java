@@ -5,29 +5,79 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A broker trades in many securities, so its credit is shared by all the shards that match them.
+ * The credit is a single atomic counter. Buying is admitted by {@link #reserveCredit(long)}, which
+ * checks and debits in one compare-and-set, so two shards can never spend the same credit, and
+ * {@link #releaseCredit(long)} gives a reservation back when a trade or an order is rolled back.
+ * <p>
+ * While {@link CreditDecisions} are recorded on the calling thread, every answer is added to them;
+ * while they are replayed, the recorded answer is given instead of checking the credit, so a
+ * replay can briefly leave the credit below zero where the original run had spent it in another
+ * order.
+ */
 @ToString
 @EqualsAndHashCode(onlyExplicitlyIncluded = true)
-@Builder
 public class Broker {
     @Getter
     @EqualsAndHashCode.Include
-    private long brokerId;
-    @Getter
-    private String name;
+    private final long brokerId;
     @Getter
-    private long credit;
+    private final String name;
+    private final AtomicLong credit;
 
-    public void increaseCreditBy(long amount) {
+    @Builder
+    private Broker(long brokerId, String name, long credit) {
+        this.brokerId = brokerId;
+        this.name = name;
+        this.credit = new AtomicLong(credit);
+    }
+
+    public long getCredit() {
+        return credit.get();
+    }
+
+    /**
+     * @return false, leaving the credit untouched, if the broker does not have {@code amount} credit
+     */
+    public boolean reserveCredit(long amount) {
         assert amount >= 0;
-        credit += amount;
+        CreditDecisions decisions = CreditDecisions.current();
+        if (decisions != null && decisions.isReplaying() && decisions.hasNext()) {
+            boolean granted = decisions.next();
+            if (granted)
+                credit.addAndGet(-amount);
+            return granted;
+        }
+        boolean granted = tryReserve(amount);
+        if (decisions != null && !decisions.isReplaying())
+            decisions.add(granted);
+        return granted;
     }
 
-    public void decreaseCreditBy(long amount) {
+    private boolean tryReserve(long amount) {
+        long current;
+        do {
+            current = credit.get();
+            if (current < amount)
+                return false;
+        } while (!credit.compareAndSet(current, current - amount));
+        return true;
+    }
+
+    public void releaseCredit(long amount) {
+        increaseCreditBy(amount);
+    }
+
+    public void increaseCreditBy(long amount) {
         assert amount >= 0;
-        credit -= amount;
+        credit.addAndGet(amount);
     }
 
-    public boolean hasEnoughCredit(long amount) {
-        return credit >= amount;
+    public void decreaseCreditBy(long amount) {
+        assert amount >= 0;
+        credit.addAndGet(-amount);
     }
 }
@@ -0,0 +1,87 @@
+package ir.ramtung.tinyme.domain.entity;
+
+import java.util.BitSet;
+
+/**
+ * The answers {@link Broker#reserveCredit(long)} gave while one request was handled, in the order
+ * they were asked for. Brokers are shared by the shards, so whether a reservation is granted
+ * depends on what the other shards spent first; recording the answers and handing them back when
+ * the request is replayed makes the replay reach the same outcome whatever order it runs in.
+ * <p>
+ * The decisions are kept for the current thread between {@link #record()} or {@link #replay} and
+ * {@link #stop()}.
+ */
+public final class CreditDecisions {
+    private static final ThreadLocal<CreditDecisions> CURRENT = new ThreadLocal<>();
+
+    private final BitSet granted;
+    private final boolean replaying;
+    private int count;
+    private int next;
+
+    private CreditDecisions(BitSet granted, int count, boolean replaying) {
+        this.granted = granted;
+        this.count = count;
+        this.replaying = replaying;
+    }
+
+    public static CreditDecisions of(int count, long[] granted) {
+        return new CreditDecisions(BitSet.valueOf(granted), count, true);
+    }
+
+    /**
+     * Starts recording the reservations made on the current thread.
+     */
+    public static CreditDecisions record() {
+        CreditDecisions decisions = new CreditDecisions(new BitSet(), 0, false);
+        CURRENT.set(decisions);
+        return decisions;
+    }
+
+    /**
+     * Makes the reservations on the current thread follow the given decisions, for as many
+     * reservations as they cover.
+     */
+    public static void replay(CreditDecisions decisions) {
+        if (!decisions.replaying)
+            throw new IllegalArgumentException("Only decisions read back can be replayed");
+        decisions.next = 0;
+        CURRENT.set(decisions);
+    }
+
+    public static void stop() {
+        CURRENT.remove();
+    }
+
+    static CreditDecisions current() {
+        return CURRENT.get();
+    }
+
+    boolean isReplaying() {
+        return replaying;
+    }
+
+    boolean hasNext() {
+        return next < count;
+    }
+
+    boolean next() {
+        return granted.get(next++);
+    }
+
+    void add(boolean wasGranted) {
+        granted.set(count++, wasGranted);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public long[] toLongArray() {
+        return granted.toLongArray();
+    }
+}
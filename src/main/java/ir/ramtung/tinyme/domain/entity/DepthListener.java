@@ -0,0 +1,10 @@
+package ir.ramtung.tinyme.domain.entity;
+
+/**
+ * Told about every change of the quantity shown at a price of the book; see
+ * {@link ir.ramtung.tinyme.domain.entity.queues.LevelListener}.
+ */
+@FunctionalInterface
+public interface DepthListener {
+    void levelChanged(Side side, int price, long previousQuantity, long quantity);
+}
@@ -0,0 +1,113 @@
+package ir.ramtung.tinyme.domain.entity;
+
+import ir.ramtung.tinyme.domain.entity.order.Order;
+
+import java.util.Arrays;
+
+/**
+ * The fills of one match, kept in growable primitive arrays so a matching thread can reuse a
+ * single instance for every order it handles. Resting orders are referenced, not copied; the total
+ * quantity each one had before its fill is recorded so a rollback can restore it in place.
+ * <p>
+ * The contents are only valid until the instance is reset for the next match.
+ */
+public final class Fills {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Order incoming;
+    private int size;
+    private long[] buyOrderIds = new long[INITIAL_CAPACITY];
+    private long[] sellOrderIds = new long[INITIAL_CAPACITY];
+    private int[] prices = new int[INITIAL_CAPACITY];
+    private int[] quantities = new int[INITIAL_CAPACITY];
+    private int[] restingQuantitiesBefore = new int[INITIAL_CAPACITY];
+    private Order[] restingOrders = new Order[INITIAL_CAPACITY];
+
+    public void reset(Order incoming) {
+        Arrays.fill(restingOrders, 0, size, null);
+        this.incoming = incoming;
+        size = 0;
+    }
+
+    public void add(Order resting, int price, int quantity) {
+        if (size == prices.length)
+            grow();
+        boolean incomingBuys = incoming.getSide() == Side.BUY;
+        buyOrderIds[size] = incomingBuys ? incoming.getOrderId() : resting.getOrderId();
+        sellOrderIds[size] = incomingBuys ? resting.getOrderId() : incoming.getOrderId();
+        prices[size] = price;
+        quantities[size] = quantity;
+        restingQuantitiesBefore[size] = resting.getTotalQuantity();
+        restingOrders[size] = resting;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = prices.length * 2;
+        buyOrderIds = Arrays.copyOf(buyOrderIds, capacity);
+        sellOrderIds = Arrays.copyOf(sellOrderIds, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+        restingQuantitiesBefore = Arrays.copyOf(restingQuantitiesBefore, capacity);
+        restingOrders = Arrays.copyOf(restingOrders, capacity);
+    }
+
+    public Order incoming() {
+        return incoming;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long buyOrderId(int i) {
+        return buyOrderIds[i];
+    }
+
+    public long sellOrderId(int i) {
+        return sellOrderIds[i];
+    }
+
+    public int price(int i) {
+        return prices[i];
+    }
+
+    public int quantity(int i) {
+        return quantities[i];
+    }
+
+    public long tradedValue(int i) {
+        return (long) prices[i] * quantities[i];
+    }
+
+    public long totalTradedValue() {
+        long total = 0;
+        for (int i = 0; i < size; i++)
+            total += tradedValue(i);
+        return total;
+    }
+
+    public int lastPrice() {
+        return prices[size - 1];
+    }
+
+    public Order restingOrder(int i) {
+        return restingOrders[i];
+    }
+
+    public int restingQuantityBefore(int i) {
+        return restingQuantitiesBefore[i];
+    }
+
+    public Order buyOrder(int i) {
+        return incoming.getSide() == Side.BUY ? incoming : restingOrders[i];
+    }
+
+    public Order sellOrder(int i) {
+        return incoming.getSide() == Side.SELL ? incoming : restingOrders[i];
+    }
+}
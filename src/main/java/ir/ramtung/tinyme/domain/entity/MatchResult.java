@@ -15,6 +15,7 @@ import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
 import lombok.Builder;
 import lombok.Singular;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -28,6 +29,7 @@ public final class MatchResult {
     private final List<Trade> trades = new LinkedList<>();
     @Singular
     private final List<Order> activatedOrders = new LinkedList<>();
+    private final Fills fills;
 
     public static MatchResult auctionExecuted(List<Trade> trades) {
         return new MatchResult(null, trades);
@@ -37,6 +39,14 @@ public final class MatchResult {
         return new MatchResult(remainder, trades);
     }
 
+    /**
+     * The result refers to the fills rather than copying them, so it must be consumed before the
+     * fills are reused for another match.
+     */
+    public static MatchResult executed(Order remainder, Fills fills) {
+        return new MatchResult(MatchingOutcome.EXECUTED, remainder, fills);
+    }
+
     public static MatchResult notEnoughCredit() {
         return new MatchResult(MatchingOutcome.NOT_ENOUGH_CREDIT, null);
     }
@@ -58,8 +68,13 @@ public final class MatchResult {
     }
 
     private MatchResult(MatchingOutcome outcome, Order remainder) {
+        this(outcome, remainder, null);
+    }
+
+    private MatchResult(MatchingOutcome outcome, Order remainder, Fills fills) {
         this.outcome = outcome;
         this.remainder = remainder;
+        this.fills = fills;
     }
 
     public MatchingOutcome outcome() {
@@ -73,6 +88,21 @@ public final class MatchResult {
         return (LinkedList<Trade>) trades;
     }
 
+    /**
+     * @return the fills of an allocation-free match, or null if the trades were recorded instead
+     */
+    public Fills fills() {
+        return fills;
+    }
+
+    public boolean hasTrades() {
+        return fills != null ? !fills.isEmpty() : !trades.isEmpty();
+    }
+
+    public int lastTradePrice() {
+        return fills != null ? fills.lastPrice() : trades().getLast().getPrice();
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) return true;
@@ -119,11 +149,21 @@ public final class MatchResult {
     }
 
     public void publishExecutionEventIfAny(EventPublisher eventPublisher, EnterOrderRq enterOrderRq) {
-        if (!trades.isEmpty()) {
-            eventPublisher.publish(new OrderExecutedEvent(enterOrderRq.getRequestId(), enterOrderRq.getOrderId(), trades().stream().map(TradeDTO::new).collect(Collectors.toList())));
+        if (hasTrades()) {
+            eventPublisher.publish(new OrderExecutedEvent(enterOrderRq.getRequestId(), enterOrderRq.getOrderId(), tradeDTOs()));
         }
     }
 
+    private List<TradeDTO> tradeDTOs() {
+        if (fills == null)
+            return trades().stream().map(TradeDTO::new).collect(Collectors.toList());
+        String isin = fills.incoming().getSecurity().getIsin();
+        List<TradeDTO> tradeDTOs = new ArrayList<>(fills.size());
+        for (int i = 0; i < fills.size(); i++)
+            tradeDTOs.add(new TradeDTO(isin, fills.price(i), fills.quantity(i), fills.buyOrderId(i), fills.sellOrderId(i)));
+        return tradeDTOs;
+    }
+
     public void publishAuctionExecutionOutcome(EventPublisher eventPublisher) {
         if (trades.isEmpty()) {
             eventPublisher.publish(new OrderRejectedEvent());
@@ -0,0 +1,91 @@
+package ir.ramtung.tinyme.domain.entity;
+
+import ir.ramtung.tinyme.domain.entity.order.Order;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Batch solver for the auction opening state of a book that does not track its {@link AuctionDepth}.
+ * <p>
+ * The tradable quantity only changes at order limits, so the price axis splits into the distinct
+ * limit prices and the open gaps between consecutive ones. Both sides are sorted once and swept
+ * together with two pointers, which costs O(n log n) no matter how wide the price range is. Gaps
+ * still matter: ties go to the price closest to the last transaction price, which may fall between
+ * two limits. Limits and trade prices are multiples of the tick size, so the chosen price is too.
+ */
+final class OpeningPriceSolver {
+    private OpeningPriceSolver() {
+    }
+
+    static OpeningState solve(Collection<Order> buyOrders, Collection<Order> sellOrders, Integer lastTransactionPrice) {
+        if (buyOrders.isEmpty() || sellOrders.isEmpty())
+            return new OpeningState(0, null);
+
+        long[] buys = sortedByPrice(buyOrders);
+        long[] sells = sortedByPrice(sellOrders);
+        long totalBuy = 0;
+        for (long buy : buys)
+            totalBuy += quantityOf(buy);
+
+        long maxTradableQuantity = -1;
+        long lowestPrice = 0;
+        long highestPrice = 0;
+        long buyBelow = 0;
+        long sellAtOrBelow = 0;
+        int buyIndex = 0;
+        int sellIndex = 0;
+        while (buyIndex < buys.length || sellIndex < sells.length) {
+            long price = Math.min(
+                    buyIndex < buys.length ? priceOf(buys[buyIndex]) : Long.MAX_VALUE,
+                    sellIndex < sells.length ? priceOf(sells[sellIndex]) : Long.MAX_VALUE);
+            while (sellIndex < sells.length && priceOf(sells[sellIndex]) == price)
+                sellAtOrBelow += quantityOf(sells[sellIndex++]);
+
+            long tradable = Math.min(totalBuy - buyBelow, sellAtOrBelow);
+            if (tradable > maxTradableQuantity) {
+                maxTradableQuantity = tradable;
+                lowestPrice = price;
+            }
+            if (tradable == maxTradableQuantity)
+                highestPrice = price;
+
+            while (buyIndex < buys.length && priceOf(buys[buyIndex]) == price)
+                buyBelow += quantityOf(buys[buyIndex++]);
+
+            long nextPrice = Math.min(
+                    buyIndex < buys.length ? priceOf(buys[buyIndex]) : Long.MAX_VALUE,
+                    sellIndex < sells.length ? priceOf(sells[sellIndex]) : Long.MAX_VALUE);
+            if (nextPrice != Long.MAX_VALUE && nextPrice - price > 1) {
+                long gapTradable = Math.min(totalBuy - buyBelow, sellAtOrBelow);
+                if (gapTradable > maxTradableQuantity) {
+                    maxTradableQuantity = gapTradable;
+                    lowestPrice = price + 1;
+                }
+                if (gapTradable == maxTradableQuantity)
+                    highestPrice = nextPrice - 1;
+            }
+        }
+
+        long openingPrice = lastTransactionPrice == null ? lowestPrice
+                : Math.max(lowestPrice, Math.min(highestPrice, lastTransactionPrice));
+        return new OpeningState((int) maxTradableQuantity, (int) openingPrice);
+    }
+
+    private static long[] sortedByPrice(Collection<Order> orders) {
+        long[] packed = new long[orders.size()];
+        int i = 0;
+        for (Order order : orders)
+            packed[i++] = ((long) order.getPrice() << 32) | (order.getTotalQuantity() & 0xFFFFFFFFL);
+        Arrays.sort(packed);
+        return packed;
+    }
+
+    private static long priceOf(long packed) {
+        return packed >>> 32;
+    }
+
+    private static long quantityOf(long packed) {
+        return packed & 0xFFFFFFFFL;
+    }
+}
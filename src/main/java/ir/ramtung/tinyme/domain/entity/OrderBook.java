@@ -2,65 +2,136 @@ package ir.ramtung.tinyme.domain.entity;
 
 import ir.ramtung.tinyme.domain.entity.order.Order;
 import ir.ramtung.tinyme.domain.entity.queues.Queue;
-import ir.ramtung.tinyme.domain.entity.queues.SelectiveQueue;
+import ir.ramtung.tinyme.domain.entity.queues.PriceLevelQueue;
+import ir.ramtung.tinyme.domain.entity.queues.StopOrderQueue;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
+/**
+ * Besides the queues, the book keeps the total quantity each shareholder has committed to resting
+ * sell orders, active or not. Every order enters and leaves the queues through the book, which
+ * adjusts the total; a quantity changed while the order stays queued is reported through
+ * {@link #queuedQuantityChanged}. With the {@value PriceLevelQueue#CONSISTENCY_CHECK_PROPERTY}
+ * system property set, each lookup is checked against a scan of the sell queues.
+ * <p>
+ * The buy and sell queues also sum the quantity shown at each price. Every change of a sum
+ * brings the {@link BestBidOffer} up to date, which costs constant time since the queues keep
+ * their best level, and can be reported to a {@link DepthListener}, which is how market data
+ * follows the book.
+ */
 @Getter
 @Setter
 public class OrderBook {
-    private final Queue buyQueue;
-    private final Queue sellQueue;
+    private static final boolean CONSISTENCY_CHECK = Boolean.getBoolean(PriceLevelQueue.CONSISTENCY_CHECK_PROPERTY);
+
+    private final PriceLevelQueue buyQueue;
+    private final PriceLevelQueue sellQueue;
+    private final Queue buyStopQueue;
+    private final Queue sellStopQueue;
     private Integer lastTransactionPrice = null;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private AuctionDepth auctionDepth = null;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ShareholderQuantities committedSellQuantities = new ShareholderQuantities();
+    private final BestBidOffer bestBidOffer = new BestBidOffer();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private DepthListener depthListener = null;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final AtomicLong depthVersion = new AtomicLong();
 
     public OrderBook() {
-        buyQueue = new SelectiveQueue();
-        sellQueue = new SelectiveQueue();
+        buyQueue = new PriceLevelQueue(Side.BUY);
+        sellQueue = new PriceLevelQueue(Side.SELL);
+        buyStopQueue = new StopOrderQueue(Side.BUY);
+        sellStopQueue = new StopOrderQueue(Side.SELL);
+        buyQueue.setLevelListener((price, previousQuantity, quantity) -> levelChanged(Side.BUY, price, previousQuantity, quantity));
+        sellQueue.setLevelListener((price, previousQuantity, quantity) -> levelChanged(Side.SELL, price, previousQuantity, quantity));
     }
 
     public void enqueue(Order order) {
-        List<Order> queue = getQueue(order.getSide());
-        ListIterator<Order> it = queue.listIterator();
-        while (it.hasNext()) {
-            if (order.queuesBefore(it.next())) {
-                it.previous();
-                break;
-            }
-        }
         order.queue();
-        it.add(order);
+        commit(order, order.getTotalQuantity());
+        if (order.isActive()) {
+            getQueue(order.getSide()).enqueue(order);
+            if (auctionDepth != null)
+                auctionDepth.add(order);
+        } else
+            getStopQueue(order.getSide()).enqueue(order);
+    }
+
+    /**
+     * Has the same effect as enqueueing the orders one by one in list order, with each queue
+     * built in one pass; used for loading large books.
+     */
+    public void enqueueAll(List<? extends Order> orders) {
+        List<Order> buys = new ArrayList<>();
+        List<Order> sells = new ArrayList<>();
+        List<Order> buyStops = new ArrayList<>();
+        List<Order> sellStops = new ArrayList<>();
+        for (Order order : orders) {
+            order.queue();
+            commit(order, order.getTotalQuantity());
+            if (order.isActive())
+                (order.getSide() == Side.BUY ? buys : sells).add(order);
+            else
+                (order.getSide() == Side.BUY ? buyStops : sellStops).add(order);
+        }
+        buyQueue.enqueueAll(buys);
+        sellQueue.enqueueAll(sells);
+        buyStopQueue.enqueueAll(buyStops);
+        sellStopQueue.enqueueAll(sellStops);
+        if (auctionDepth != null) {
+            buys.forEach(auctionDepth::add);
+            sells.forEach(auctionDepth::add);
+        }
     }
 
-    private Queue getQueue(Side side) {
+    private PriceLevelQueue getQueue(Side side) {
         return side == Side.BUY ? buyQueue : sellQueue;
     }
 
+    public Queue getStopQueue(Side side) {
+        return side == Side.BUY ? buyStopQueue : sellStopQueue;
+    }
+
     public Order findByOrderId(Side side, long orderId) {
-        var queue = getQueue(side);
-        for (Order order : queue) {
-            if (order.getOrderId() == orderId)
-                return order;
-        }
-        return null;
+        Order order = getQueue(side).findByOrderId(orderId);
+        return order != null ? order : getStopQueue(side).findByOrderId(orderId);
     }
 
     public void removeByOrderId(Side side, long orderId) {
-        var queue = getQueue(side);
-        var it = queue.listIterator();
-        while (it.hasNext()) {
-            if (it.next().getOrderId() == orderId) {
-                it.remove();
+        if (side == Side.SELL) {
+            Order order = findByOrderId(side, orderId);
+            if (order == null)
                 return;
-            }
+            commit(order, -order.getTotalQuantity());
+        }
+        if (getQueue(side).removeByOrderId(orderId)) {
+            if (auctionDepth != null)
+                auctionDepth.remove(side, orderId);
+        } else {
+            getStopQueue(side).removeByOrderId(orderId);
         }
     }
 
+    public void requeue(Order order) {
+        removeByOrderId(order.getSide(), order.getOrderId());
+        enqueue(order);
+    }
+
     public Order matchWithFirst(Order newOrder) {
         var queue = getQueue(newOrder.getSide().opposite());
         if (newOrder.matches(queue.getFirst()))
@@ -72,7 +143,24 @@ public class OrderBook {
     public void putBack(Order order) {
         Queue queue = getQueue(order.getSide());
         order.queue();
+        commit(order, order.getTotalQuantity());
         queue.addFirst(order);
+        if (auctionDepth != null)
+            auctionDepth.add(order);
+    }
+
+    /**
+     * Adds an order read back from a snapshot behind the orders of its queue. Unlike
+     * {@link #enqueue}, the order is not requeued, so an iceberg keeps its displayed quantity.
+     */
+    public void load(Order order) {
+        commit(order, order.getTotalQuantity());
+        if (order.isActive()) {
+            getQueue(order.getSide()).enqueue(order);
+            if (auctionDepth != null)
+                auctionDepth.add(order);
+        } else
+            getStopQueue(order.getSide()).enqueue(order);
     }
 
     public void restoreOrder(Order order) {
@@ -84,68 +172,106 @@ public class OrderBook {
         return !getQueue(side).isEmpty();
     }
 
-    public void removeFirst(Side side) {
-        getQueue(side).removeFirst();
+    public Order removeFirst(Side side) {
+        Order order = getQueue(side).removeFirst();
+        commit(order, -order.getTotalQuantity());
+        if (auctionDepth != null)
+            auctionDepth.remove(side, order.getOrderId());
+        return order;
+    }
+
+    public Order removeFirstStopOrder(Side side) {
+        Order order = getStopQueue(side).removeFirst();
+        commit(order, -order.getTotalQuantity());
+        return order;
+    }
+
+    /**
+     * Must be called after the total quantity of an order that stays in the book is changed in place.
+     */
+    public void queuedQuantityChanged(Order order, int previousTotalQuantity) {
+        commit(order, order.getTotalQuantity() - previousTotalQuantity);
+        if (order.isActive())
+            getQueue(order.getSide()).quantityChanged(order);
+    }
+
+    /**
+     * Reports the levels already in the book to the listener as added, and then every change of
+     * the quantity shown at a price. A null listener stops the reporting.
+     */
+    public void setDepthListener(DepthListener listener) {
+        depthListener = listener;
+        if (listener == null)
+            return;
+        buyQueue.reportLevels((price, previousQuantity, quantity) -> listener.levelChanged(Side.BUY, price, previousQuantity, quantity));
+        sellQueue.reportLevels((price, previousQuantity, quantity) -> listener.levelChanged(Side.SELL, price, previousQuantity, quantity));
+    }
+
+    /**
+     * @return a number that grows with every change of the buy or sell depth; may be read from any thread
+     */
+    public long getDepthVersion() {
+        return depthVersion.get();
+    }
+
+    private void levelChanged(Side side, int price, long previousQuantity, long quantity) {
+        depthVersion.lazySet(depthVersion.get() + 1);
+        PriceLevelQueue queue = getQueue(side);
+        bestBidOffer.update(side, queue.isEmpty() ? 0 : queue.bestLevelKey(), queue.bestLevelQuantity(), queue.bestLevelOrderCount());
+        if (depthListener != null)
+            depthListener.levelChanged(side, price, previousQuantity, quantity);
+    }
+
+    /**
+     * @return the quantity shown at the price on the given side, icebergs counting only their displayed part
+     */
+    public long quantityAt(Side side, int price) {
+        return getQueue(side).quantityAt(price);
+    }
+
+    private void commit(Order order, int quantity) {
+        if (order.getSide() == Side.SELL)
+            committedSellQuantities.add(order.getShareholder().getShareholderId(), quantity);
     }
 
     public int totalSellQuantityByShareholder(Shareholder shareholder) {
-        return sellQueue.stream()
-                .filter(order -> order.getShareholder().equals(shareholder))
-                .mapToInt(Order::getTotalQuantity)
-                .sum();
+        int total = committedSellQuantities.get(shareholder.getShareholderId());
+        if (CONSISTENCY_CHECK)
+            verifyCommittedSellQuantities();
+        return total;
     }
 
-    @NonNull
-    public OpeningState calculateOpeningState() {
-        var activatedBuyOrders = buyQueue.stream().filter(Order::isActive).toList();
-        var activatedSellOrders = sellQueue.stream().filter(Order::isActive).toList();
+    public void verifyCommittedSellQuantities() {
+        Map<Long, Integer> scanned = new HashMap<>();
+        Stream.concat(sellQueue.stream(), sellStopQueue.stream())
+                .forEach(order -> scanned.merge(order.getShareholder().getShareholderId(), order.getTotalQuantity(), Integer::sum));
+        scanned.values().removeIf(quantity -> quantity == 0);
+        Map<Long, Integer> committed = committedSellQuantities.nonZero();
+        if (!committed.equals(scanned))
+            throw new IllegalStateException("Committed sell quantities " + committed + " do not match the sell queues " + scanned);
+    }
 
-        if (activatedBuyOrders.isEmpty() || activatedSellOrders.isEmpty()) {
-            return new OpeningState(0, null);
+    public void trackAuctionDepth() {
+        if (auctionDepth == null) {
+            auctionDepth = buildAuctionDepth();
         }
+    }
 
-        int minBuyPrice = activatedBuyOrders.stream().min(Comparator.comparingInt(Order::getPrice)).map(Order::getPrice).get();
-        int minSellPrice = activatedSellOrders.stream().min(Comparator.comparingInt(Order::getPrice)).map(Order::getPrice).get();
-        int maxBuyPrice = activatedBuyOrders.stream().max(Comparator.comparingInt(Order::getPrice)).map(Order::getPrice).get();
-        int maxSellPrice = activatedSellOrders.stream().max(Comparator.comparingInt(Order::getPrice)).map(Order::getPrice).get();
-        int minPrice = Math.min(minBuyPrice, minSellPrice);
-        int maxPrice = Math.max(maxBuyPrice, maxSellPrice);
-
-        List<Integer> candidateList = new ArrayList<>();
-        int maxTradableQuantity = 0;
-        for(int price = minPrice; price <= maxPrice; price++) {
-            int candidatePrice = price;
-            int buyQuantity = (int) activatedBuyOrders.stream()
-                    .filter(order -> order.getPrice() >= candidatePrice)
-                    .mapToLong(Order::getTotalQuantity)
-                    .sum();
-
-            int sellQuantity = (int) activatedSellOrders.stream()
-                    .filter(order -> order.getPrice() <= candidatePrice)
-                    .mapToLong(Order::getTotalQuantity)
-                    .sum();
-
-            int tradedQuantity = Math.min(buyQuantity, sellQuantity);
-
-
-            if (tradedQuantity > maxTradableQuantity) {
-                maxTradableQuantity = tradedQuantity;
-                candidateList.clear();
-                candidateList.add(candidatePrice);
-            } else if (tradedQuantity == maxTradableQuantity) {
-                candidateList.add(candidatePrice);
-            }
-        }
+    public void stopTrackingAuctionDepth() {
+        auctionDepth = null;
+    }
 
-        if (candidateList.isEmpty()) {
-            return new OpeningState(0, null);
-        }
-        if (lastTransactionPrice == null) {
-            return new OpeningState(maxTradableQuantity, candidateList.get(0));
-        }
-        var bestPrice = candidateList.stream()
-                .min((o1, o2) -> Math.abs(o1 - lastTransactionPrice) - Math.abs(o2 - lastTransactionPrice))
-                .get();
-        return new OpeningState(maxTradableQuantity, bestPrice);
+    private AuctionDepth buildAuctionDepth() {
+        AuctionDepth depth = new AuctionDepth();
+        buyQueue.forEach(depth::add);
+        sellQueue.forEach(depth::add);
+        return depth;
+    }
+
+    @NonNull
+    public OpeningState calculateOpeningState() {
+        if (auctionDepth != null)
+            return auctionDepth.openingState(lastTransactionPrice);
+        return OpeningPriceSolver.solve(buyQueue, sellQueue, lastTransactionPrice);
     }
 }
@@ -0,0 +1,108 @@
+package ir.ramtung.tinyme.domain.entity;
+
+import java.util.Arrays;
+
+/**
+ * The positions every shareholder holds in one security, keyed by the shareholder's dense ledger
+ * index. It is an open-addressing table over an {@code int[]} of indexes and an {@code int[]} of
+ * quantities, so a position costs two ints at a load factor of at most {@value #MAX_LOAD_FACTOR}
+ * and updating it boxes nothing.
+ * <p>
+ * A security's positions only change while its orders are matched, which happens on the single
+ * thread of the shard the security belongs to, so the ledger is not synchronized.
+ */
+public final class PositionLedger {
+    private static final double MAX_LOAD_FACTOR = 0.7;
+    private static final int MIN_CAPACITY = 16;
+    private static final int FREE = -1;
+
+    private int[] holders;
+    private int[] quantities;
+    private int mask;
+    private int size;
+
+    public PositionLedger() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        holders = new int[capacity];
+        Arrays.fill(holders, FREE);
+        quantities = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slotOf(int holder) {
+        int hash = holder * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    public int get(int holder) {
+        for (int slot = slotOf(holder); holders[slot] != FREE; slot = (slot + 1) & mask) {
+            if (holders[slot] == holder)
+                return quantities[slot];
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if this is the first time the holder has a position here
+     */
+    public boolean add(int holder, int amount) {
+        int slot = slotOf(holder);
+        for (; holders[slot] != FREE; slot = (slot + 1) & mask) {
+            if (holders[slot] == holder) {
+                quantities[slot] += amount;
+                return false;
+            }
+        }
+        holders[slot] = holder;
+        quantities[slot] = amount;
+        if (++size > holders.length * MAX_LOAD_FACTOR)
+            rehash(holders.length << 1);
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldHolders = holders;
+        int[] oldQuantities = quantities;
+        allocate(capacity);
+        for (int i = 0; i < oldHolders.length; i++) {
+            if (oldHolders[i] == FREE)
+                continue;
+            int slot = slotOf(oldHolders[i]);
+            while (holders[slot] != FREE)
+                slot = (slot + 1) & mask;
+            holders[slot] = oldHolders[i];
+            quantities[slot] = oldQuantities[i];
+        }
+    }
+
+    public int holderCount() {
+        return size;
+    }
+
+    /**
+     * @return the furthest any holder sits from the slot its hash points to, which bounds the
+     *         number of slots a lookup has to look at
+     */
+    public int longestProbe() {
+        int longest = 0;
+        for (int slot = 0; slot < holders.length; slot++) {
+            if (holders[slot] != FREE)
+                longest = Math.max(longest, (slot - slotOf(holders[slot])) & mask);
+        }
+        return longest;
+    }
+
+    public interface HolderQuantityConsumer {
+        void accept(int holder, int quantity);
+    }
+
+    public void forEach(HolderQuantityConsumer consumer) {
+        for (int slot = 0; slot < holders.length; slot++) {
+            if (holders[slot] != FREE)
+                consumer.accept(holders[slot], quantities[slot]);
+        }
+    }
+}
@@ -7,7 +7,6 @@ import ir.ramtung.tinyme.messaging.event.OpeningPriceEvent;
 import ir.ramtung.tinyme.messaging.request.MatchingState;
 import lombok.Builder;
 import lombok.Getter;
-import lombok.Setter;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -23,11 +22,28 @@ public class Security {
     @Builder.Default
     private OrderBook orderBook = new OrderBook();
     @Builder.Default
-    @Setter
     private MatchingState matchingState = MatchingState.CONTINUOUS;
+    @Builder.Default
+    private PositionLedger positionLedger = new PositionLedger();
+
+    public void setMatchingState(MatchingState matchingState) {
+        this.matchingState = matchingState;
+        if (matchingState == MatchingState.AUCTION)
+            orderBook.trackAuctionDepth();
+        else
+            orderBook.stopTrackingAuctionDepth();
+    }
+
+    /**
+     * The top of the book, which may be read from any thread.
+     */
+    public BestBidOffer getBestBidOffer() {
+        return orderBook.getBestBidOffer();
+    }
 
     public OpeningState openingState() {
         assert matchingState == MatchingState.AUCTION;
+        orderBook.trackAuctionDepth();
         return orderBook.calculateOpeningState();
     }
 
@@ -36,16 +52,21 @@ public class Security {
     }
 
     public List<Order> tryActivateAll() {
-        var orderBook = getOrderBook();
         List<Order> activatedOrders = new LinkedList<>();
-        for (Order order : orderBook.getBuyQueue()) {
-            tryActivate(order, activatedOrders);
-        }
+        activateTriggeredStopOrders(Side.BUY, activatedOrders);
+        activateTriggeredStopOrders(Side.SELL, activatedOrders);
         return activatedOrders;
     }
 
-    private void tryActivate(Order order, List<Order> accumulator) {
-        if (tryActivate(order)) {
+    /**
+     * Stop queues are ordered by how close each order is to its trigger, so only the orders that
+     * actually get activated are visited, plus the first one that is not.
+     */
+    private void activateTriggeredStopOrders(Side side, List<Order> accumulator) {
+        var stopQueue = orderBook.getStopQueue(side);
+        while (!stopQueue.isEmpty() && tryActivate(stopQueue.getFirst())) {
+            Order order = orderBook.removeFirstStopOrder(side);
+            orderBook.enqueue(order);
             accumulator.add(order);
         }
     }
@@ -78,8 +99,8 @@ public class Security {
 
     public void updateLastTransactionPrice(MatchResult result) {
         assert result != null;
-        if (!result.trades().isEmpty()) {
-            setLastTransactionPrice(result.trades().getLast().getPrice());
+        if (result.hasTrades()) {
+            setLastTransactionPrice(result.lastTradePrice());
         }
     }
 
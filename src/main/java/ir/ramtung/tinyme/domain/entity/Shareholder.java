@@ -5,13 +5,22 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Positions are kept in the {@link PositionLedger} of each security under this shareholder's
+ * ledger index; the shareholder itself only remembers which securities it has ever held.
+ */
 @ToString
 @EqualsAndHashCode(onlyExplicitlyIncluded = true)
 @Builder
 public class Shareholder {
+    private static final AtomicInteger NEXT_LEDGER_INDEX = new AtomicInteger();
+    private static final Security[] NO_SECURITIES = new Security[0];
+
     @Getter
     @EqualsAndHashCode.Include
     private long shareholderId;
@@ -19,21 +28,51 @@ public class Shareholder {
     private String name;
     @Getter
     @Builder.Default
-    private Map<Security, Integer> positions = new HashMap<>();
+    private final int ledgerIndex = NEXT_LEDGER_INDEX.getAndIncrement();
+    @ToString.Exclude
+    @Builder.Default
+    private volatile Security[] heldSecurities = NO_SECURITIES;
 
     public void incPosition(Security security, int amount) {
         assert amount >= 0;
-        positions.put(security, positions.getOrDefault(security, 0) + amount);
+        if (security.getPositionLedger().add(ledgerIndex, amount))
+            remember(security);
     }
 
     public void decPosition(Security security, int amount) {
         assert amount >= 0;
-        int currentPositions = positions.getOrDefault(security, 0);
-        if (currentPositions < amount)
+        PositionLedger ledger = security.getPositionLedger();
+        if (ledger.get(ledgerIndex) < amount)
             throw new IllegalArgumentException("Amount to be decreased is greater than shareholder's current position");
-        positions.put(security, currentPositions - amount);
+        if (ledger.add(ledgerIndex, -amount))
+            remember(security);
     }
+
     public boolean hasEnoughPositionsOn(Security security, int position) {
-        return positions.getOrDefault(security, 0) >= position;
+        return getPosition(security) >= position;
+    }
+
+    public int getPosition(Security security) {
+        return security.getPositionLedger().get(ledgerIndex);
+    }
+
+    /**
+     * Securities in different shards can give this shareholder its first position at the same
+     * time, so the rare append is synchronized while readers take the array as it is.
+     */
+    private synchronized void remember(Security security) {
+        Security[] held = Arrays.copyOf(heldSecurities, heldSecurities.length + 1);
+        held[held.length - 1] = security;
+        heldSecurities = held;
+    }
+
+    /**
+     * @return a copy of the positions, in the order the securities were first held
+     */
+    public Map<Security, Integer> getPositions() {
+        Map<Security, Integer> positions = new LinkedHashMap<>();
+        for (Security security : heldSecurities)
+            positions.put(security, getPosition(security));
+        return positions;
     }
 }
@@ -0,0 +1,88 @@
+package ir.ramtung.tinyme.domain.entity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A running quantity per shareholder id, in an open-addressing table over a {@code long[]} of ids
+ * and an {@code int[]} of quantities. Shareholders are keyed by id rather than by ledger index
+ * because that is what {@link Shareholder#equals} compares.
+ */
+final class ShareholderQuantities {
+    private static final double MAX_LOAD_FACTOR = 0.7;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] ids;
+    private int[] quantities;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    ShareholderQuantities() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        quantities = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slotOf(long id) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    int get(long id) {
+        for (int slot = slotOf(id); used[slot]; slot = (slot + 1) & mask) {
+            if (ids[slot] == id)
+                return quantities[slot];
+        }
+        return 0;
+    }
+
+    void add(long id, int amount) {
+        int slot = slotOf(id);
+        for (; used[slot]; slot = (slot + 1) & mask) {
+            if (ids[slot] == id) {
+                quantities[slot] += amount;
+                return;
+            }
+        }
+        used[slot] = true;
+        ids[slot] = id;
+        quantities[slot] = amount;
+        if (++size > ids.length * MAX_LOAD_FACTOR)
+            rehash(ids.length << 1);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldIds = ids;
+        int[] oldQuantities = quantities;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (!oldUsed[i])
+                continue;
+            int slot = slotOf(oldIds[i]);
+            while (used[slot])
+                slot = (slot + 1) & mask;
+            used[slot] = true;
+            ids[slot] = oldIds[i];
+            quantities[slot] = oldQuantities[i];
+        }
+    }
+
+    /**
+     * @return the non-zero quantities, for comparing against a recount
+     */
+    Map<Long, Integer> nonZero() {
+        Map<Long, Integer> nonZero = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (used[i] && quantities[i] != 0)
+                nonZero.put(ids[i], quantities[i]);
+        }
+        return nonZero;
+    }
+}
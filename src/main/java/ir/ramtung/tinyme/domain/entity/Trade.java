@@ -44,8 +44,11 @@ public class Trade {
         buy.getBroker().decreaseCreditBy(getTradedValue());
     }
 
-    public boolean buyerHasEnoughCredit() {
-        return buy.getBroker().hasEnoughCredit(getTradedValue());
+    /**
+     * @return false, leaving the credit untouched, if the buyer cannot pay for the trade
+     */
+    public boolean reserveBuyersCredit() {
+        return buy.getBroker().reserveCredit(getTradedValue());
     }
 
 }
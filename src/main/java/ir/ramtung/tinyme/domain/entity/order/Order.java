@@ -85,6 +85,13 @@ public class Order {
         quantity = 0;
     }
 
+    /**
+     * Undoes fills on this very order, for rollbacks that do not keep a snapshot of it.
+     */
+    public void restoreTotalQuantity(int totalQuantity) {
+        quantity = totalQuantity;
+    }
+
     public boolean queuesBefore(Order order) {
         if (order.getSide() == Side.BUY) {
             return price > order.getPrice();
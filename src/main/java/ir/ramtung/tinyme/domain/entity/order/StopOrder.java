@@ -26,12 +26,14 @@ public class StopOrder extends Order {
 
     @Override
     public Order snapshot() {
-        return new StopOrder(orderId, security, side, quantity, price, broker, shareholder, entryTime, stopPrice, OrderStatus.SNAPSHOT);
+        return snapshotWithQuantity(quantity);
     }
 
     @Override
     public Order snapshotWithQuantity(int newQuantity) {
-        return new StopOrder(orderId, security, side, newQuantity, price, broker, shareholder, entryTime, stopPrice, OrderStatus.SNAPSHOT);
+        StopOrder snapshot = new StopOrder(orderId, security, side, newQuantity, price, broker, shareholder, entryTime, stopPrice, OrderStatus.SNAPSHOT);
+        snapshot.active = active;
+        return snapshot;
     }
 
     @Override
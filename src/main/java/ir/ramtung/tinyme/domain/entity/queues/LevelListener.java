@@ -0,0 +1,11 @@
+package ir.ramtung.tinyme.domain.entity.queues;
+
+/**
+ * Told about every change of the quantity shown at a price of a {@link PriceLevelQueue}. A level
+ * is in the book while its quantity is positive, so a previous quantity of zero means the level
+ * was added and a quantity of zero that it was removed.
+ */
+@FunctionalInterface
+public interface LevelListener {
+    void levelChanged(int price, long previousQuantity, long quantity);
+}
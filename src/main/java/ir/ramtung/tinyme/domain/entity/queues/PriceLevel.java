@@ -0,0 +1,110 @@
+package ir.ramtung.tinyme.domain.entity.queues;
+
+import ir.ramtung.tinyme.domain.entity.order.Order;
+
+/**
+ * FIFO of the orders resting at a single price. Orders are kept in a doubly linked list of
+ * {@link Node}s so that a node can be unlinked in constant time once it is known.
+ * <p>
+ * The level also keeps the sum of the quantities its orders show, which for an iceberg is only
+ * the displayed part. Each node remembers the quantity it added to the sum, so an order can be
+ * taken out correctly even after its quantity has changed.
+ */
+class PriceLevel {
+    static final class Node {
+        final Order order;
+        final PriceLevel level;
+        int quantity;
+        Node prev;
+        Node next;
+
+        private Node(Order order, PriceLevel level) {
+            this.order = order;
+            this.level = level;
+            this.quantity = order.getQuantity();
+        }
+    }
+
+    private final int price;
+    private Node head;
+    private Node tail;
+    private int size;
+    private long quantity;
+
+    PriceLevel(int price) {
+        this.price = price;
+    }
+
+    int getPrice() {
+        return price;
+    }
+
+    Node getHead() {
+        return head;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getQuantity() {
+        return quantity;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    Node addLast(Order order) {
+        Node node = new Node(order, this);
+        if (tail == null) {
+            head = tail = node;
+        } else {
+            node.prev = tail;
+            tail.next = node;
+            tail = node;
+        }
+        size++;
+        quantity += node.quantity;
+        return node;
+    }
+
+    Node addFirst(Order order) {
+        Node node = new Node(order, this);
+        if (head == null) {
+            head = tail = node;
+        } else {
+            node.next = head;
+            head.prev = node;
+            head = node;
+        }
+        size++;
+        quantity += node.quantity;
+        return node;
+    }
+
+    void unlink(Node node) {
+        assert node.level == this;
+        if (node.prev == null)
+            head = node.next;
+        else
+            node.prev.next = node.next;
+        if (node.next == null)
+            tail = node.prev;
+        else
+            node.next.prev = node.prev;
+        node.prev = node.next = null;
+        size--;
+        quantity -= node.quantity;
+    }
+
+    /**
+     * Brings the sum up to date with the quantity the order of the node shows now.
+     */
+    void quantityChanged(Node node) {
+        assert node.level == this;
+        int current = node.order.getQuantity();
+        quantity += current - node.quantity;
+        node.quantity = current;
+    }
+}
@@ -0,0 +1,371 @@
+package ir.ramtung.tinyme.domain.entity.queues;
+
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * A {@link Queue} that groups the orders of one side of the book by price. Levels are kept in a
+ * sorted map from the best to the worst price and each level is a FIFO, which gives the same
+ * order as {@link Order#queuesBefore(Order)} with O(log L) insertion instead of a linear scan.
+ * The best level is cached, so the first order is reached in constant time.
+ * <p>
+ * Every resting order is also indexed by its id, so lookups and removals by id are constant time.
+ * Order ids must be unique within one side of the book; queueing a second order with the id of a
+ * queued one is rejected. When the
+ * {@value #CONSISTENCY_CHECK_PROPERTY} system property is set, the index is checked against the
+ * levels after every mutation.
+ * <p>
+ * Each level sums the quantity its orders show. A {@link LevelListener} can be told whenever a
+ * sum changes; a quantity changed in place must be reported through {@link #quantityChanged}.
+ */
+public class PriceLevelQueue extends AbstractList<Order> implements Queue {
+    public static final String CONSISTENCY_CHECK_PROPERTY = "tinyme.orderbook.consistencyCheck";
+    private static final boolean CONSISTENCY_CHECK = Boolean.getBoolean(CONSISTENCY_CHECK_PROPERTY);
+
+    @FunctionalInterface
+    public interface LevelVisitor {
+        void visit(int levelKey, long quantity, int orders);
+    }
+
+    private final NavigableMap<Integer, PriceLevel> levels;
+    private final ToIntFunction<Order> levelKey;
+    private final Map<Long, PriceLevel.Node> nodeByOrderId = new HashMap<>();
+    private PriceLevel bestLevel = null;
+    private int size = 0;
+    private LevelListener levelListener = null;
+
+    public PriceLevelQueue(Side side) {
+        this(side == Side.BUY ? Comparator.reverseOrder() : Comparator.naturalOrder(), Order::getPrice);
+    }
+
+    protected PriceLevelQueue(Comparator<Integer> bestKeyFirst, ToIntFunction<Order> levelKey) {
+        this.levels = new TreeMap<>(bestKeyFirst);
+        this.levelKey = levelKey;
+    }
+
+    @Override
+    public void enqueue(Order order) {
+        requireNotQueued(order);
+        PriceLevel level = levelOf(order);
+        long previousQuantity = level.getQuantity();
+        link(level.addLast(order));
+        levelChanged(level, previousQuantity);
+    }
+
+    @Override
+    public void addFirst(Order order) {
+        requireNotQueued(order);
+        PriceLevel level = levelOf(order);
+        long previousQuantity = level.getQuantity();
+        link(level.addFirst(order));
+        levelChanged(level, previousQuantity);
+    }
+
+    private void requireNotQueued(Order order) {
+        if (nodeByOrderId.containsKey(order.getOrderId()))
+            throw new IllegalArgumentException("Order " + order.getOrderId() + " is already queued");
+    }
+
+    /**
+     * Sorts the orders by level, keeping the list order within a level, and appends each run of
+     * orders with the same price to its level, so the level map is searched once per level
+     * rather than once per order.
+     */
+    @Override
+    public void enqueueAll(List<? extends Order> orders) {
+        Set<Long> orderIds = new HashSet<>();
+        for (Order order : orders) {
+            requireNotQueued(order);
+            if (!orderIds.add(order.getOrderId()))
+                throw new IllegalArgumentException("Order " + order.getOrderId() + " is listed twice");
+        }
+        List<Order> sorted = new ArrayList<>(orders);
+        Comparator<? super Integer> bestKeyFirst = levels.comparator();
+        sorted.sort((first, second) -> bestKeyFirst.compare(levelKey.applyAsInt(first), levelKey.applyAsInt(second)));
+        PriceLevel level = null;
+        long previousQuantity = 0;
+        for (Order order : sorted) {
+            if (level == null || level.getPrice() != levelKey.applyAsInt(order)) {
+                if (level != null)
+                    levelChanged(level, previousQuantity);
+                level = levelOf(order);
+                previousQuantity = level.getQuantity();
+            }
+            nodeByOrderId.put(order.getOrderId(), level.addLast(order));
+            size++;
+        }
+        if (level != null)
+            levelChanged(level, previousQuantity);
+        if (CONSISTENCY_CHECK)
+            verifyConsistency();
+    }
+
+    private PriceLevel levelOf(Order order) {
+        int key = levelKey.applyAsInt(order);
+        PriceLevel level = levels.get(key);
+        if (level == null) {
+            level = new PriceLevel(key);
+            levels.put(key, level);
+            if (bestLevel == null || levels.comparator().compare(key, bestLevel.getPrice()) < 0)
+                bestLevel = level;
+        }
+        return level;
+    }
+
+    @Override
+    public boolean add(Order order) {
+        enqueue(order);
+        return true;
+    }
+
+    @Override
+    public Order getFirst() {
+        return firstNode().order;
+    }
+
+    @Override
+    public Order removeFirst() {
+        PriceLevel.Node node = firstNode();
+        unlink(node);
+        return node.order;
+    }
+
+    @Override
+    public Order findByOrderId(long orderId) {
+        PriceLevel.Node node = nodeByOrderId.get(orderId);
+        return node == null ? null : node.order;
+    }
+
+    @Override
+    public boolean removeByOrderId(long orderId) {
+        PriceLevel.Node node = nodeByOrderId.get(orderId);
+        if (node == null)
+            return false;
+        unlink(node);
+        return true;
+    }
+
+    private PriceLevel.Node firstNode() {
+        if (bestLevel == null)
+            throw new NoSuchElementException();
+        return bestLevel.getHead();
+    }
+
+    private void link(PriceLevel.Node node) {
+        nodeByOrderId.put(node.order.getOrderId(), node);
+        size++;
+        if (CONSISTENCY_CHECK)
+            verifyConsistency();
+    }
+
+    private void unlink(PriceLevel.Node node) {
+        PriceLevel level = node.level;
+        long previousQuantity = level.getQuantity();
+        level.unlink(node);
+        if (level.isEmpty()) {
+            levels.remove(level.getPrice());
+            levelRemoved(level);
+        }
+        forget(node);
+        levelChanged(level, previousQuantity);
+    }
+
+    private void levelRemoved(PriceLevel level) {
+        if (level == bestLevel)
+            bestLevel = levels.isEmpty() ? null : levels.firstEntry().getValue();
+    }
+
+    private void forget(PriceLevel.Node node) {
+        nodeByOrderId.remove(node.order.getOrderId(), node);
+        size--;
+        if (CONSISTENCY_CHECK)
+            verifyConsistency();
+    }
+
+    /**
+     * Must be called after the quantity of a queued order is changed in place; does nothing for
+     * an order that is not in the queue.
+     */
+    public void quantityChanged(Order order) {
+        PriceLevel.Node node = nodeByOrderId.get(order.getOrderId());
+        if (node == null)
+            return;
+        long previousQuantity = node.level.getQuantity();
+        node.level.quantityChanged(node);
+        if (CONSISTENCY_CHECK)
+            verifyConsistency();
+        levelChanged(node.level, previousQuantity);
+    }
+
+    /**
+     * Replaces the listener; a null listener stops the reporting.
+     */
+    public void setLevelListener(LevelListener listener) {
+        levelListener = listener;
+    }
+
+    /**
+     * Reports the levels in the queue to the listener as added, best first.
+     */
+    public void reportLevels(LevelListener listener) {
+        for (PriceLevel level : levels.values()) {
+            if (level.getQuantity() != 0)
+                listener.levelChanged(level.getPrice(), 0, level.getQuantity());
+        }
+    }
+
+    /**
+     * Visits the levels in the queue, best first.
+     */
+    public void forEachLevel(LevelVisitor visitor) {
+        for (PriceLevel level : levels.values())
+            visitor.visit(level.getPrice(), level.getQuantity(), level.size());
+    }
+
+    private void levelChanged(PriceLevel level, long previousQuantity) {
+        if (levelListener != null && level.getQuantity() != previousQuantity)
+            levelListener.levelChanged(level.getPrice(), previousQuantity, level.getQuantity());
+    }
+
+    /**
+     * @return the quantity shown at the level, or zero if there is no such level
+     */
+    public long quantityAt(int levelKey) {
+        PriceLevel level = levels.get(levelKey);
+        return level == null ? 0 : level.getQuantity();
+    }
+
+    public int levelCount() {
+        return levels.size();
+    }
+
+    /**
+     * @return the key of the best level, which the queue must have
+     */
+    public int bestLevelKey() {
+        return firstNode().level.getPrice();
+    }
+
+    /**
+     * @return the quantity shown at the best level, or zero if the queue is empty
+     */
+    public long bestLevelQuantity() {
+        return bestLevel == null ? 0 : bestLevel.getQuantity();
+    }
+
+    /**
+     * @return the number of orders at the best level, or zero if the queue is empty
+     */
+    public int bestLevelOrderCount() {
+        return bestLevel == null ? 0 : bestLevel.size();
+    }
+
+    @Override
+    public void verifyConsistency() {
+        if (bestLevel != (levels.isEmpty() ? null : levels.firstEntry().getValue()))
+            throw new IllegalStateException("Best level is out of date");
+        int count = 0;
+        for (Map.Entry<Integer, PriceLevel> entry : levels.entrySet()) {
+            PriceLevel level = entry.getValue();
+            if (level.isEmpty() || level.getPrice() != entry.getKey())
+                throw new IllegalStateException("Malformed price level " + entry.getKey());
+            long quantity = 0;
+            for (PriceLevel.Node node = level.getHead(); node != null; node = node.next) {
+                if (nodeByOrderId.get(node.order.getOrderId()) != node)
+                    throw new IllegalStateException("Order " + node.order.getOrderId() + " is not indexed");
+                quantity += node.quantity;
+                count++;
+            }
+            if (quantity != level.getQuantity())
+                throw new IllegalStateException("Level " + entry.getKey() + " sums to " + level.getQuantity() + " instead of " + quantity);
+        }
+        if (count != size || nodeByOrderId.size() != size)
+            throw new IllegalStateException("Index holds " + nodeByOrderId.size() + " orders while the queue holds " + count);
+    }
+
+    @Override
+    public Order get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(index);
+        Iterator<Order> it = iterator();
+        for (int i = 0; i < index; i++)
+            it.next();
+        return it.next();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        List<PriceLevel> removed = levelListener == null ? List.of() : new ArrayList<>(levels.values());
+        levels.clear();
+        nodeByOrderId.clear();
+        bestLevel = null;
+        size = 0;
+        for (PriceLevel level : removed) {
+            if (level.getQuantity() != 0)
+                levelListener.levelChanged(level.getPrice(), level.getQuantity(), 0);
+        }
+    }
+
+    @Override
+    public Iterator<Order> iterator() {
+        return new Itr();
+    }
+
+    private class Itr implements Iterator<Order> {
+        private final Iterator<PriceLevel> levelIt = levels.values().iterator();
+        private PriceLevel.Node nextNode = null;
+        private PriceLevel.Node lastReturned = null;
+
+        @Override
+        public boolean hasNext() {
+            return nextNode != null || levelIt.hasNext();
+        }
+
+        @Override
+        public Order next() {
+            if (nextNode == null) {
+                if (!levelIt.hasNext())
+                    throw new NoSuchElementException();
+                nextNode = levelIt.next().getHead();
+            }
+            lastReturned = nextNode;
+            nextNode = nextNode.next;
+            return lastReturned.order;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException();
+            PriceLevel level = lastReturned.level;
+            long previousQuantity = level.getQuantity();
+            level.unlink(lastReturned);
+            if (level.isEmpty()) {
+                levelIt.remove();
+                levelRemoved(level);
+            }
+            forget(lastReturned);
+            levelChanged(level, previousQuantity);
+            lastReturned = null;
+        }
+    }
+}
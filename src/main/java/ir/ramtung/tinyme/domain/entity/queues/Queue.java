@@ -10,4 +10,20 @@ public interface Queue extends List<Order> {
     Order removeFirst();
 
     void addFirst(Order order);
+
+    void enqueue(Order order);
+
+    /**
+     * Has the same effect as enqueueing the orders one by one in list order.
+     */
+    default void enqueueAll(List<? extends Order> orders) {
+        orders.forEach(this::enqueue);
+    }
+
+    Order findByOrderId(long orderId);
+
+    boolean removeByOrderId(long orderId);
+
+    default void verifyConsistency() {
+    }
 }
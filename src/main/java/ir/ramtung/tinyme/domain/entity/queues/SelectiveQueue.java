@@ -3,6 +3,7 @@ package ir.ramtung.tinyme.domain.entity.queues;
 import ir.ramtung.tinyme.domain.entity.order.Order;
 
 import java.util.LinkedList;
+import java.util.ListIterator;
 import java.util.NoSuchElementException;
 
 public class SelectiveQueue extends LinkedList<Order> implements Queue {
@@ -26,5 +27,38 @@ public class SelectiveQueue extends LinkedList<Order> implements Queue {
         }
         throw new NoSuchElementException();
     }
+
+    @Override
+    public void enqueue(Order order) {
+        ListIterator<Order> it = listIterator();
+        while (it.hasNext()) {
+            if (order.queuesBefore(it.next())) {
+                it.previous();
+                break;
+            }
+        }
+        it.add(order);
+    }
+
+    @Override
+    public Order findByOrderId(long orderId) {
+        for (Order order : this) {
+            if (order.getOrderId() == orderId)
+                return order;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean removeByOrderId(long orderId) {
+        var it = iterator();
+        while (it.hasNext()) {
+            if (it.next().getOrderId() == orderId) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
 }
 
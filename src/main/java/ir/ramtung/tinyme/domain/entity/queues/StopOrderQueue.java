@@ -0,0 +1,18 @@
+package ir.ramtung.tinyme.domain.entity.queues;
+
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.domain.entity.order.StopOrder;
+
+import java.util.Comparator;
+
+/**
+ * Holds the inactive stop orders of one side of the book, grouped by stop price. The first order
+ * is always the one closest to being triggered: the lowest stop price for buy orders and the
+ * highest one for sell orders.
+ */
+public class StopOrderQueue extends PriceLevelQueue {
+    public StopOrderQueue(Side side) {
+        super(side == Side.BUY ? Comparator.naturalOrder() : Comparator.reverseOrder(),
+                order -> ((StopOrder) order).getStopPrice());
+    }
+}
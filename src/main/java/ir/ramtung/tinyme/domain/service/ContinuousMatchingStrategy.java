@@ -13,6 +13,10 @@ import ir.ramtung.tinyme.domain.entity.order.Order;
 import ir.ramtung.tinyme.domain.entity.order.StopOrder;
 import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
 import ir.ramtung.tinyme.messaging.request.Extensions;
+import ir.ramtung.tinyme.messaging.request.MatchingState;
+import ir.ramtung.tinyme.messaging.request.OrderEntryType;
+import ir.ramtung.tinyme.monitoring.Latency;
+import ir.ramtung.tinyme.monitoring.LatencyStage;
 import lombok.RequiredArgsConstructor;
 
 @Service("ContinuousMatchingStrategy")
@@ -31,7 +35,9 @@ public class ContinuousMatchingStrategy implements MatchingStrategy {
         var matchResult = matcher.executeWithMinimumQuantityCondition(order, extensions.minimumExecutionQuantity());
 
         security.updateLastTransactionPrice(matchResult);
+        long activationStart = System.nanoTime();
         activatedOrders.addAll(security.tryActivateAll());
+        Latency.record(LatencyStage.ACTIVATION, OrderEntryType.NEW_ORDER, MatchingState.CONTINUOUS, matchResult.outcome(), activationStart);
         activatedOrders.forEach(matchResult::addActivatedOrder);
         return matchResult;
     }
@@ -43,8 +49,11 @@ public class ContinuousMatchingStrategy implements MatchingStrategy {
 
         Order originalOrder = order.snapshot();
         order.updateFromRequest(updateOrderRq);
+        orderBook.queuedQuantityChanged(order, originalOrder.getTotalQuantity());
         if (!doesLosePriority(originalOrder, updateOrderRq)) {
             order.rollbackCreditIfBuyOrder();
+            if (!order.isActive())
+                orderBook.requeue(order);
             return MatchResult.executed(null, List.of());
         }
 
@@ -62,7 +71,9 @@ public class ContinuousMatchingStrategy implements MatchingStrategy {
             originalOrder.rollbackCreditIfBuyOrder();
         }
         security.updateLastTransactionPrice(matchResult);
+        long activationStart = System.nanoTime();
         activatedOrders.addAll(security.tryActivateAll());
+        Latency.record(LatencyStage.ACTIVATION, OrderEntryType.UPDATE_ORDER, MatchingState.CONTINUOUS, matchResult.outcome(), activationStart);
         activatedOrders.forEach(matchResult::addActivatedOrder);
 
         return matchResult;
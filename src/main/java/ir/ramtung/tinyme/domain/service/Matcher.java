@@ -4,14 +4,32 @@ import ir.ramtung.tinyme.domain.entity.*;
 import ir.ramtung.tinyme.domain.entity.order.IcebergOrder;
 import ir.ramtung.tinyme.domain.entity.order.Order;
 import ir.ramtung.tinyme.domain.entity.order.StopOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.LinkedList;
 import java.util.ListIterator;
 import java.util.NoSuchElementException;
 
+/**
+ * By default every fill becomes a {@link Trade} holding snapshots of both orders. With
+ * {@code matching.allocationFree=true}, continuous matching instead records primitive fill data in
+ * a {@link Fills} instance owned by the matching thread, which is reset and reused by each match.
+ */
 @Service
 public class Matcher {
+    private final boolean allocationFree;
+    private final ThreadLocal<Fills> localFills = ThreadLocal.withInitial(Fills::new);
+
+    public Matcher() {
+        this(false);
+    }
+
+    @Autowired
+    public Matcher(@Value("${matching.allocationFree:false}") boolean allocationFree) {
+        this.allocationFree = allocationFree;
+    }
 
     public static void rollbackTrades(Order newOrder, LinkedList<Trade> trades) {
         switch (newOrder.getSide()) {
@@ -20,14 +38,21 @@ public class Matcher {
         }
     }
 
+    private static void rollback(Order newOrder, MatchResult result) {
+        if (result.fills() != null)
+            rollbackFills(newOrder, result.fills());
+        else
+            rollbackTrades(newOrder, result.trades());
+    }
+
     public static void rollbackRemainder(Order newOrder, Order remainder) {
         assert newOrder.getSide() == Side.BUY;
-        newOrder.getBroker().increaseCreditBy((long) remainder.getQuantity() * remainder.getPrice());
+        newOrder.getBroker().releaseCredit((long) remainder.getQuantity() * remainder.getPrice());
     }
 
     private static void rollbackTradesForBuyOrders(Order newOrder, LinkedList<Trade> trades) {
         assert newOrder.getSide() == Side.BUY;
-        newOrder.getBroker().increaseCreditBy(trades.stream().mapToLong(Trade::getTradedValue).sum());
+        newOrder.getBroker().releaseCredit(trades.stream().mapToLong(Trade::getTradedValue).sum());
         trades.forEach(trade -> trade.getSell().getBroker().decreaseCreditBy(trade.getTradedValue()));
 
         ListIterator<Trade> it = trades.listIterator(trades.size());
@@ -39,7 +64,7 @@ public class Matcher {
     private static void rollbackTradesForSellOrders(Order newOrder, LinkedList<Trade> trades) {
         assert newOrder.getSide() == Side.SELL;
         newOrder.getBroker().decreaseCreditBy(trades.stream().mapToLong(Trade::getTradedValue).sum());
-        trades.forEach(trade -> trade.getBuy().getBroker().increaseCreditBy(trade.getTradedValue()));
+        trades.forEach(trade -> trade.getBuy().getBroker().releaseCredit(trade.getTradedValue()));
 
         ListIterator<Trade> it = trades.listIterator(trades.size());
         while (it.hasPrevious()) {
@@ -47,18 +72,43 @@ public class Matcher {
         }
     }
 
+    /**
+     * Puts the resting orders back at the front of the book with the quantities they had, the
+     * same way {@link #rollbackTrades} restores their snapshots.
+     */
+    private static void rollbackFills(Order newOrder, Fills fills) {
+        if (newOrder.getSide() == Side.BUY) {
+            newOrder.getBroker().releaseCredit(fills.totalTradedValue());
+            for (int i = 0; i < fills.size(); i++)
+                fills.restingOrder(i).getBroker().decreaseCreditBy(fills.tradedValue(i));
+        } else {
+            newOrder.getBroker().decreaseCreditBy(fills.totalTradedValue());
+            for (int i = 0; i < fills.size(); i++)
+                fills.restingOrder(i).getBroker().releaseCredit(fills.tradedValue(i));
+        }
+
+        OrderBook orderBook = newOrder.getSecurity().getOrderBook();
+        for (int i = fills.size() - 1; i >= 0; i--) {
+            Order resting = fills.restingOrder(i);
+            orderBook.removeByOrderId(resting.getSide(), resting.getOrderId());
+            resting.restoreTotalQuantity(fills.restingQuantityBefore(i));
+            orderBook.putBack(resting);
+        }
+    }
+
     public MatchResult executeWithoutMatching(Order order) {
         if (order.getSide() == Side.BUY) {
-            if (!order.getBroker().hasEnoughCredit(order.getValue())) {
+            if (!order.getBroker().reserveCredit(order.getValue())) {
                 return MatchResult.notEnoughCredit();
             }
-            order.getBroker().decreaseCreditBy(order.getValue());
         }
         order.getSecurity().getOrderBook().enqueue(order);
         return MatchResult.executed(order, new LinkedList<>());
     }
 
     public MatchResult match(Order newOrder) {
+        if (allocationFree)
+            return matchIntoFills(newOrder);
         OrderBook orderBook = newOrder.getSecurity().getOrderBook();
         LinkedList<Trade> trades = new LinkedList<>();
 
@@ -79,17 +129,50 @@ public class Matcher {
         return MatchResult.executed(newOrder, trades);
     }
 
+    private MatchResult matchIntoFills(Order newOrder) {
+        OrderBook orderBook = newOrder.getSecurity().getOrderBook();
+        Fills fills = localFills.get();
+        fills.reset(newOrder);
+
+        while (orderBook.hasOrderOfType(newOrder.getSide().opposite()) && newOrder.getQuantity() > 0) {
+            Order matchingOrder = orderBook.matchWithFirst(newOrder);
+            if (matchingOrder == null)
+                break;
+
+            if (!fill(newOrder, matchingOrder, fills)) {
+                rollbackFills(newOrder, fills);
+                return MatchResult.notEnoughCredit();
+            }
+            updateQuantities(newOrder, matchingOrder);
+        }
+        return MatchResult.executed(newOrder, fills);
+    }
+
+    /**
+     * @return false if the buyer cannot pay for the fill, in which case nothing is recorded
+     */
+    private boolean fill(Order newOrder, Order matchingOrder, Fills fills) {
+        int price = matchingOrder.getPrice();
+        int quantity = Math.min(newOrder.getQuantity(), matchingOrder.getQuantity());
+        long value = (long) price * quantity;
+        if (newOrder.getSide() == Side.BUY) {
+            if (!newOrder.getBroker().reserveCredit(value))
+                return false;
+            matchingOrder.getBroker().increaseCreditBy(value);
+        } else {
+            newOrder.getBroker().increaseCreditBy(value);
+        }
+        fills.add(matchingOrder, price, quantity);
+        return true;
+    }
+
     /**
      * @return null if no trade was made
      */
     private Trade makeTrade(Order newOrder, Order matchingOrder) {
         Trade trade = new Trade(newOrder.getSecurity(), matchingOrder.getPrice(), Math.min(newOrder.getQuantity(), matchingOrder.getQuantity()), newOrder, matchingOrder);
-        if (newOrder.getSide() == Side.BUY) {
-            if (trade.buyerHasEnoughCredit())
-                trade.decreaseBuyersCredit();
-            else {
-                return null;
-            }
+        if (newOrder.getSide() == Side.BUY && !trade.reserveBuyersCredit()) {
+            return null;
         }
         trade.increaseSellersCredit();
         return trade;
@@ -104,7 +187,9 @@ public class Matcher {
                 icebergOrder.handleQuantityDecrease(matchingOrder.getQuantity());
             }
         } else {
+            int previousTotalQuantity = matchingOrder.getTotalQuantity();
             matchingOrder.decreaseQuantity(newOrder.getQuantity());
+            orderBook.queuedQuantityChanged(matchingOrder, previousTotalQuantity);
             newOrder.makeQuantityZero();
         }
     }
@@ -120,11 +205,10 @@ public class Matcher {
 
         if (result.remainder().getQuantity() > 0) {
             if (order.getSide() == Side.BUY) {
-                if (!order.getBroker().hasEnoughCredit(order.getValue())) {
-                    rollbackTrades(order, result.trades());
+                if (!order.getBroker().reserveCredit(order.getValue())) {
+                    rollback(order, result);
                     return MatchResult.notEnoughCredit();
                 }
-                order.getBroker().decreaseCreditBy(order.getValue());
             }
             order.getSecurity().getOrderBook().enqueue(result.remainder());
         }
@@ -133,7 +217,14 @@ public class Matcher {
     }
 
     private void updatePositions(MatchResult result) {
-        if (!result.trades().isEmpty()) {
+        Fills fills = result.fills();
+        if (fills != null) {
+            Security security = fills.incoming().getSecurity();
+            for (int i = 0; i < fills.size(); i++) {
+                fills.buyOrder(i).getShareholder().incPosition(security, fills.quantity(i));
+                fills.sellOrder(i).getShareholder().decPosition(security, fills.quantity(i));
+            }
+        } else if (!result.trades().isEmpty()) {
             for (Trade trade : result.trades()) {
                 trade.getBuy().getShareholder().incPosition(trade.getSecurity(), trade.getQuantity());
                 trade.getSell().getShareholder().decPosition(trade.getSecurity(), trade.getQuantity());
@@ -149,7 +240,7 @@ public class Matcher {
 
         var tradedQuantity = originalQuantity - result.remainder().getTotalQuantity();
         if (tradedQuantity < minimumExecutionQuantity) {
-            Matcher.rollbackTrades(order, result.trades());
+            rollback(order, result);
             if (order.getSide() == Side.BUY) {
                 rollbackRemainder(order, result.remainder());
             }
@@ -159,8 +250,7 @@ public class Matcher {
     }
 
     public MatchResult executeAuction(Security security) {
-        var buyQueue = security.getOrderBook().getBuyQueue();
-        var sellQueue = security.getOrderBook().getSellQueue();
+        var orderBook = security.getOrderBook();
         var openingPrice = security.openingState().price();
         var trades = new LinkedList<Trade>();
 
@@ -168,9 +258,9 @@ public class Matcher {
         Order sellIt = null;
 
         try {
-            buyIt = buyQueue.removeFirst();
-            sellIt = sellQueue.removeFirst();
-            buyIt.getBroker().increaseCreditBy(buyIt.getValue());
+            buyIt = orderBook.removeFirst(Side.BUY);
+            sellIt = orderBook.removeFirst(Side.SELL);
+            buyIt.getBroker().releaseCredit(buyIt.getValue());
             while (buyIt.getPrice() >= openingPrice && sellIt.getPrice() <= openingPrice) {
                 var quantity = Math.min(buyIt.getTotalQuantity(), sellIt.getTotalQuantity());
                 trades.add(new Trade(security, openingPrice, quantity, buyIt, sellIt));
@@ -180,10 +270,10 @@ public class Matcher {
                 sellIt.decreaseTotalQuantity(quantity);
 
                 if (sellIt.getTotalQuantity() == 0) {
-                    sellIt = sellQueue.removeFirst();
+                    sellIt = orderBook.removeFirst(Side.SELL);
                 }
                 if (buyIt.getTotalQuantity() == 0) {
-                    buyIt = buyQueue.removeFirst();
+                    buyIt = orderBook.removeFirst(Side.BUY);
                 }
             }
         } catch (NoSuchElementException ignored) {
@@ -191,10 +281,10 @@ public class Matcher {
 
         if (buyIt != null && buyIt.getTotalQuantity() != 0) {
             buyIt.getBroker().decreaseCreditBy(buyIt.getValue());
-            security.getOrderBook().enqueue(buyIt);
+            orderBook.enqueue(buyIt);
         }
         if (sellIt != null && sellIt.getTotalQuantity() != 0) {
-            security.getOrderBook().enqueue(sellIt);
+            orderBook.enqueue(sellIt);
         }
 
         return MatchResult.auctionExecuted(trades);
@@ -9,6 +9,8 @@ import ir.ramtung.tinyme.messaging.Message;
 import ir.ramtung.tinyme.messaging.event.*;
 import ir.ramtung.tinyme.messaging.exception.InvalidRequestException;
 import ir.ramtung.tinyme.messaging.request.*;
+import ir.ramtung.tinyme.monitoring.Latency;
+import ir.ramtung.tinyme.monitoring.LatencyStage;
 import ir.ramtung.tinyme.repository.BrokerRepository;
 import ir.ramtung.tinyme.repository.SecurityRepository;
 import ir.ramtung.tinyme.repository.ShareholderRepository;
@@ -30,44 +32,51 @@ public class OrderHandler {
     final Map<MatchingState, MatchingStrategy> matchingStrategies; // Node: associated bean needs further configurations whenever new matching strategies are added
 
     public void handleEnterOrder(EnterOrderRq enterOrderRq) {
+        OrderEntryType entryType = enterOrderRq.getRequestType();
+        long validationStart = System.nanoTime();
+        Security security = securityRepository.findSecurityByIsin(enterOrderRq.getSecurityIsin());
+        Broker broker = brokerRepository.findBrokerById(enterOrderRq.getBrokerId());
+        Shareholder shareholder = shareholderRepository.findShareholderById(enterOrderRq.getShareholderId());
         try {
-            validateEnterOrderRq(enterOrderRq);
+            validateEnterOrderRq(enterOrderRq, security, broker, shareholder);
         } catch (InvalidRequestException ex) {
+            Latency.record(LatencyStage.VALIDATION, entryType, validationStart);
             ex.publishEvent(eventPublisher, enterOrderRq);
             return;
         }
 
-        Security security = securityRepository.findSecurityByIsin(enterOrderRq.getSecurityIsin());
-        Broker broker = brokerRepository.findBrokerById(enterOrderRq.getBrokerId());
-        Shareholder shareholder = shareholderRepository.findShareholderById(enterOrderRq.getShareholderId());
-
         Order order = getOrder(enterOrderRq, security, broker, shareholder);
 
         try {
-            if (enterOrderRq.getRequestType() == OrderEntryType.UPDATE_ORDER) {
+            if (entryType == OrderEntryType.UPDATE_ORDER) {
                 validateUpdateOrderRequest(order, enterOrderRq.getExtensions());
             }
         } catch (InvalidRequestException ex) {
+            Latency.record(LatencyStage.VALIDATION, entryType, validationStart);
             ex.publishEvent(eventPublisher, enterOrderRq);
             return;
         }
+        Latency.record(LatencyStage.VALIDATION, entryType, validationStart);
 
-        MatchResult matchResult = switch (enterOrderRq.getRequestType()) {
+        MatchingState matchingState = security.getMatchingState();
+        long matchingStart = System.nanoTime();
+        MatchResult matchResult = switch (entryType) {
             case NEW_ORDER -> handleNewOrder(order, enterOrderRq.getExtensions());
             case UPDATE_ORDER -> handleUpdateOrder(order, enterOrderRq);
         };
+        Latency.record(LatencyStage.MATCHING, entryType, matchingState, matchResult.outcome(), matchingStart);
         publishEnterOrderRqMessages(enterOrderRq, matchResult, security);
     }
 
     public void handleDeleteOrder(DeleteOrderRq deleteOrderRq) {
         try {
-            validateDeleteOrderRq(deleteOrderRq);
             Security security = securityRepository.findSecurityByIsin(deleteOrderRq.getSecurityIsin());
+            validateDeleteOrderRq(deleteOrderRq, security);
             Order order = security.getOrderBook().findByOrderId(deleteOrderRq.getSide(), deleteOrderRq.getOrderId());
             if (order == null)
                 throw new InvalidRequestException(Message.ORDER_ID_NOT_FOUND);
             if (order.getSide() == Side.BUY)
-                order.getBroker().increaseCreditBy(order.getValue());
+                order.getBroker().releaseCredit(order.getValue());
             security.getOrderBook().removeByOrderId(deleteOrderRq.getSide(), deleteOrderRq.getOrderId());
             eventPublisher.publish(new OrderDeletedEvent(deleteOrderRq.getRequestId(), deleteOrderRq.getOrderId()));
         } catch (InvalidRequestException ex) {
@@ -77,14 +86,20 @@ public class OrderHandler {
 
     public void handleAuctionOpening(ChangeMatchingStateRq changeMatchingStateRq) {
         var security = securityRepository.findSecurityByIsin(changeMatchingStateRq.getSecurityIsin());
+        long auctionStart = System.nanoTime();
         MatchResult matchResult = matcher.executeAuction(security);
+        Latency.record(LatencyStage.AUCTION, null, MatchingState.AUCTION, matchResult.outcome(), auctionStart);
 
         security.updateLastTransactionPrice(matchResult);
 
+        long activationStart = System.nanoTime();
         var activatedOrders = security.tryActivateAll();
+        Latency.record(LatencyStage.ACTIVATION, null, MatchingState.AUCTION, matchResult.outcome(), activationStart);
         activatedOrders.forEach(matchResult::addActivatedOrder);
         
+        long publishingStart = System.nanoTime();
         publishAuctionMessages(changeMatchingStateRq, matchResult);
+        Latency.record(LatencyStage.PUBLISHING, null, MatchingState.AUCTION, matchResult.outcome(), publishingStart);
     }
 
     protected MatchResult handleNewOrder(Order order, Extensions extensions) {
@@ -103,14 +118,18 @@ public class OrderHandler {
         }
 
         if (updateOrderRq.getSide() == Side.BUY) {
-            order.getBroker().increaseCreditBy(order.getValue());
+            order.getBroker().releaseCredit(order.getValue());
         }
 
         MatchingStrategy matchingStrategy = matchingStrategies.get(order.getSecurity().getMatchingState());
         return matchingStrategy.handleUpdateOrder(order, updateOrderRq);
     }
 
-    private void validateEnterOrderRq(EnterOrderRq enterOrderRq) throws InvalidRequestException {
+    /**
+     * The security, broker and shareholder are looked up once by the caller and passed in, so a
+     * request does not hit the repositories again after it is validated.
+     */
+    private void validateEnterOrderRq(EnterOrderRq enterOrderRq, Security security, Broker broker, Shareholder shareholder) throws InvalidRequestException {
         var extensions = enterOrderRq.getExtensions();
 
         List<String> errors = new LinkedList<>();
@@ -120,7 +139,6 @@ public class OrderHandler {
             errors.add(Message.ORDER_QUANTITY_NOT_POSITIVE);
         if (enterOrderRq.getPrice() <= 0)
             errors.add(Message.ORDER_PRICE_NOT_POSITIVE);
-        Security security = securityRepository.findSecurityByIsin(enterOrderRq.getSecurityIsin());
         if (security == null)
             errors.add(Message.UNKNOWN_SECURITY_ISIN);
         else {
@@ -128,10 +146,13 @@ public class OrderHandler {
                 errors.add(Message.QUANTITY_NOT_MULTIPLE_OF_LOT_SIZE);
             if (enterOrderRq.getPrice() % security.getTickSize() != 0)
                 errors.add(Message.PRICE_NOT_MULTIPLE_OF_TICK_SIZE);
+            if (enterOrderRq.getRequestType() == OrderEntryType.NEW_ORDER
+                    && security.getOrderBook().findByOrderId(enterOrderRq.getSide(), enterOrderRq.getOrderId()) != null)
+                errors.add(Message.ORDER_ID_ALREADY_EXISTS);
         }
-        if (brokerRepository.findBrokerById(enterOrderRq.getBrokerId()) == null)
+        if (broker == null)
             errors.add(Message.UNKNOWN_BROKER_ID);
-        if (shareholderRepository.findShareholderById(enterOrderRq.getShareholderId()) == null)
+        if (shareholder == null)
             errors.add(Message.UNKNOWN_SHAREHOLDER_ID);
         if (extensions.peakSize() < 0 || extensions.peakSize() >= enterOrderRq.getQuantity())
             errors.add(Message.INVALID_PEAK_SIZE);
@@ -169,11 +190,24 @@ public class OrderHandler {
                 enterOrderRq.getQuantity(), enterOrderRq.getPrice(), broker, shareholder, enterOrderRq.getEntryTime());
     }
 
+    /**
+     * The opening price calculated while the security is in auction is recorded as its own stage,
+     * and left out of the publishing latency.
+     */
     private void publishEnterOrderRqMessages(EnterOrderRq enterOrderRq, MatchResult matchResult, Security security) {
+        OrderEntryType entryType = enterOrderRq.getRequestType();
+        MatchingState matchingState = security.getMatchingState();
+        long publishingStart = System.nanoTime();
         matchResult.publishOutcomeEvent(eventPublisher, enterOrderRq);
+        long auctionStart = System.nanoTime();
         security.publishOpeningPriceEvent(eventPublisher);
+        long auctionEnd = System.nanoTime();
+        if (matchingState == MatchingState.AUCTION)
+            Latency.record(LatencyStage.AUCTION, entryType, matchingState, matchResult.outcome(), auctionStart);
         matchResult.publishActivatedOrderEvents(eventPublisher, enterOrderRq.getRequestId());
         matchResult.publishExecutionEventIfAny(eventPublisher, enterOrderRq);
+        Latency.record(LatencyStage.PUBLISHING, entryType, matchingState, matchResult.outcome(),
+                publishingStart + (auctionEnd - auctionStart));
     }
 
     private void publishAuctionMessages(ChangeMatchingStateRq changeMatchingStateRq, MatchResult matchResult) {
@@ -182,11 +216,11 @@ public class OrderHandler {
         matchResult.publishActivatedOrderEvents(eventPublisher, changeMatchingStateRq.getRequestId());
     }
 
-    private void validateDeleteOrderRq(DeleteOrderRq deleteOrderRq) throws InvalidRequestException {
+    private void validateDeleteOrderRq(DeleteOrderRq deleteOrderRq, Security security) throws InvalidRequestException {
         List<String> errors = new LinkedList<>();
         if (deleteOrderRq.getOrderId() <= 0)
             errors.add(Message.INVALID_ORDER_ID);
-        if (securityRepository.findSecurityByIsin(deleteOrderRq.getSecurityIsin()) == null)
+        if (security == null)
             errors.add(Message.UNKNOWN_SECURITY_ISIN);
         if (!errors.isEmpty())
             throw new InvalidRequestException(errors);
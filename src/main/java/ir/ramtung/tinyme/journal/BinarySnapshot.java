@@ -0,0 +1,277 @@
+package ir.ramtung.tinyme.journal;
+
+import ir.ramtung.tinyme.domain.entity.Broker;
+import ir.ramtung.tinyme.domain.entity.OrderBook;
+import ir.ramtung.tinyme.domain.entity.OrderStatus;
+import ir.ramtung.tinyme.domain.entity.Security;
+import ir.ramtung.tinyme.domain.entity.Shareholder;
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.domain.entity.order.IcebergOrder;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.entity.order.StopOrder;
+import ir.ramtung.tinyme.messaging.request.MatchingState;
+import ir.ramtung.tinyme.repository.BrokerRepository;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import ir.ramtung.tinyme.repository.ShareholderRepository;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary snapshot file. After a header of magic number, version and the journal sequence the
+ * snapshot includes, it holds the brokers with their credit, the shareholders, and one
+ * length-prefixed block per security.
+ * <p>
+ * A security block has the security's settings, matching state and last transaction price, the
+ * positions held in it by shareholder id, and the buy, sell, buy stop and sell stop queues in
+ * queue order. Orders keep their kind, so icebergs keep their displayed quantity and stop orders
+ * their stop price and activation. Each block is encoded on the thread that matches its security
+ * and the blocks are decoded in parallel, since securities share nothing but brokers and
+ * shareholders, which are read first.
+ */
+public final class BinarySnapshot {
+    private static final int MAGIC = 0x544D5350;
+    private static final int VERSION = 1;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final byte PLAIN_ORDER = 0;
+    private static final byte ICEBERG_ORDER = 1;
+    private static final byte STOP_ORDER = 2;
+
+    private BinarySnapshot() {
+    }
+
+    /**
+     * @return the shareholders indexed by ledger index, for encoding the positions of a security
+     */
+    public static Shareholder[] byLedgerIndex(Iterable<? extends Shareholder> shareholders) {
+        int size = 0;
+        for (Shareholder shareholder : shareholders)
+            size = Math.max(size, shareholder.getLedgerIndex() + 1);
+        Shareholder[] byLedgerIndex = new Shareholder[size];
+        for (Shareholder shareholder : shareholders)
+            byLedgerIndex[shareholder.getLedgerIndex()] = shareholder;
+        return byLedgerIndex;
+    }
+
+    /**
+     * Must run on the thread that matches the security, or while nothing is matched.
+     */
+    public static byte[] encodeSecurity(Security security, Shareholder[] byLedgerIndex) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(security.getIsin());
+            out.writeInt(security.getTickSize());
+            out.writeInt(security.getLotSize());
+            out.writeByte(security.getMatchingState().ordinal());
+            OrderBook orderBook = security.getOrderBook();
+            Integer lastTransactionPrice = orderBook.getLastTransactionPrice();
+            out.writeBoolean(lastTransactionPrice != null);
+            out.writeInt(lastTransactionPrice != null ? lastTransactionPrice : 0);
+
+            out.writeInt(security.getPositionLedger().holderCount());
+            security.getPositionLedger().forEach((holder, quantity) -> {
+                if (holder >= byLedgerIndex.length || byLedgerIndex[holder] == null)
+                    throw new IllegalStateException("A position in " + security.getIsin() + " is held by an unknown shareholder");
+                try {
+                    out.writeLong(byLedgerIndex[holder].getShareholderId());
+                    out.writeInt(quantity);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+
+            for (List<Order> queue : List.of(orderBook.getBuyQueue(), orderBook.getSellQueue(),
+                    orderBook.getBuyStopQueue(), orderBook.getSellStopQueue())) {
+                out.writeInt(queue.size());
+                for (Order order : queue)
+                    writeOrder(out, order);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeOrder(DataOutputStream out, Order order) throws IOException {
+        out.writeByte(order instanceof IcebergOrder ? ICEBERG_ORDER : order instanceof StopOrder ? STOP_ORDER : PLAIN_ORDER);
+        out.writeLong(order.getOrderId());
+        out.writeByte(order.getSide().ordinal());
+        out.writeInt(order.getTotalQuantity());
+        out.writeInt(order.getPrice());
+        out.writeLong(order.getBroker().getBrokerId());
+        out.writeLong(order.getShareholder().getShareholderId());
+        out.writeLong(order.getEntryTime().toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(order.getEntryTime().getNano());
+        if (order instanceof IcebergOrder icebergOrder) {
+            out.writeInt(icebergOrder.getPeakSize());
+            out.writeInt(icebergOrder.getDisplayedQuantity());
+        } else if (order instanceof StopOrder stopOrder) {
+            out.writeInt(stopOrder.getStopPrice());
+            out.writeBoolean(stopOrder.isActive());
+        }
+    }
+
+    /**
+     * Writes the snapshot next to the file and moves it in place once it is on disk, so the file
+     * always holds a complete snapshot.
+     *
+     * @param credits the credit of each broker, in the order of {@code brokers}
+     * @param securities the encoded security blocks
+     */
+    public static void write(Path file, long journalSequence, List<? extends Broker> brokers, long[] credits,
+                             Iterable<? extends Shareholder> shareholders, List<byte[]> securities) throws IOException {
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), BUFFER_BYTES))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalSequence);
+
+            out.writeInt(brokers.size());
+            for (int i = 0; i < brokers.size(); i++) {
+                out.writeLong(brokers.get(i).getBrokerId());
+                writeName(out, brokers.get(i).getName());
+                out.writeLong(credits[i]);
+            }
+
+            List<Shareholder> shareholderList = new ArrayList<>();
+            shareholders.forEach(shareholderList::add);
+            out.writeInt(shareholderList.size());
+            for (Shareholder shareholder : shareholderList) {
+                out.writeLong(shareholder.getShareholderId());
+                writeName(out, shareholder.getName());
+            }
+
+            out.writeInt(securities.size());
+            for (byte[] security : securities) {
+                out.writeInt(security.length);
+                out.write(security);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        out.writeBoolean(name != null);
+        if (name != null)
+            out.writeUTF(name);
+    }
+
+    private static String readName(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Replaces the contents of the repositories with the snapshot.
+     *
+     * @return the journal sequence the snapshot includes
+     */
+    public static long read(Path file, SecurityRepository securityRepository, BrokerRepository brokerRepository,
+                            ShareholderRepository shareholderRepository) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a snapshot");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported snapshot version " + version);
+            long journalSequence = in.readLong();
+
+            brokerRepository.clear();
+            for (int count = in.readInt(); count > 0; count--) {
+                brokerRepository.addBroker(Broker.builder()
+                        .brokerId(in.readLong())
+                        .name(readName(in))
+                        .credit(in.readLong())
+                        .build());
+            }
+
+            shareholderRepository.clear();
+            for (int count = in.readInt(); count > 0; count--) {
+                shareholderRepository.addShareholder(Shareholder.builder()
+                        .shareholderId(in.readLong())
+                        .name(readName(in))
+                        .build());
+            }
+
+            List<byte[]> blocks = new ArrayList<>();
+            for (int count = in.readInt(); count > 0; count--) {
+                byte[] block = new byte[in.readInt()];
+                in.readFully(block);
+                blocks.add(block);
+            }
+            securityRepository.clear();
+            blocks.parallelStream()
+                    .map(block -> decodeSecurity(block, brokerRepository, shareholderRepository))
+                    .toList()
+                    .forEach(securityRepository::addSecurity);
+            return journalSequence;
+        }
+    }
+
+    private static Security decodeSecurity(byte[] block, BrokerRepository brokerRepository,
+                                           ShareholderRepository shareholderRepository) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(block))) {
+            Security security = Security.builder()
+                    .isin(in.readUTF())
+                    .tickSize(in.readInt())
+                    .lotSize(in.readInt())
+                    .build();
+            MatchingState matchingState = MatchingState.values()[in.readByte()];
+            boolean hasLastTransactionPrice = in.readBoolean();
+            int lastTransactionPrice = in.readInt();
+            if (hasLastTransactionPrice)
+                security.setLastTransactionPrice(lastTransactionPrice);
+
+            for (int count = in.readInt(); count > 0; count--) {
+                Shareholder shareholder = shareholderRepository.findShareholderById(in.readLong());
+                shareholder.incPosition(security, in.readInt());
+            }
+
+            OrderBook orderBook = security.getOrderBook();
+            for (int queue = 0; queue < 4; queue++) {
+                for (int count = in.readInt(); count > 0; count--)
+                    orderBook.load(readOrder(in, security, brokerRepository, shareholderRepository));
+            }
+            security.setMatchingState(matchingState);
+            return security;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static Order readOrder(DataInputStream in, Security security, BrokerRepository brokerRepository,
+                                   ShareholderRepository shareholderRepository) throws IOException {
+        byte kind = in.readByte();
+        long orderId = in.readLong();
+        Side side = Side.values()[in.readByte()];
+        int quantity = in.readInt();
+        int price = in.readInt();
+        Broker broker = brokerRepository.findBrokerById(in.readLong());
+        Shareholder shareholder = shareholderRepository.findShareholderById(in.readLong());
+        LocalDateTime entryTime = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+        return switch (kind) {
+            case ICEBERG_ORDER -> new IcebergOrder(orderId, security, side, quantity, price, broker, shareholder,
+                    entryTime, in.readInt(), in.readInt(), OrderStatus.QUEUED);
+            case STOP_ORDER -> {
+                StopOrder stopOrder = new StopOrder(orderId, security, side, quantity, price, broker, shareholder,
+                        entryTime, in.readInt(), OrderStatus.QUEUED);
+                if (in.readBoolean())
+                    stopOrder.activate();
+                yield stopOrder;
+            }
+            default -> new Order(orderId, security, side, quantity, price, broker, shareholder, entryTime, OrderStatus.QUEUED);
+        };
+    }
+}
@@ -0,0 +1,106 @@
+package ir.ramtung.tinyme.journal;
+
+import ir.ramtung.tinyme.domain.entity.CreditDecisions;
+import ir.ramtung.tinyme.domain.service.Matcher;
+import ir.ramtung.tinyme.domain.service.MatchingStrategy;
+import ir.ramtung.tinyme.domain.service.OrderHandler;
+import ir.ramtung.tinyme.domain.service.SecurityConfigurationHandler;
+import ir.ramtung.tinyme.messaging.EventPublisher;
+import ir.ramtung.tinyme.messaging.event.Event;
+import ir.ramtung.tinyme.messaging.request.ChangeMatchingStateRq;
+import ir.ramtung.tinyme.messaging.request.DeleteOrderRq;
+import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
+import ir.ramtung.tinyme.messaging.request.MatchingState;
+import ir.ramtung.tinyme.messaging.request.Request;
+import ir.ramtung.tinyme.repository.BrokerRepository;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import ir.ramtung.tinyme.repository.ShareholderRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * Rebuilds the repositories from the last saved state by handling the journaled requests again.
+ * Requests are handled one at a time in journal order, in which the requests of every security
+ * appear in the order its shard ran them, so every security sees the same sequence of requests it
+ * saw the first time. Brokers are shared
+ * across shards, so a credit reservation may have been decided by another shard's spending; each
+ * request is therefore replayed with the {@link CreditDecisions} journaled for it, and every
+ * security ends up in the same state, and every broker with the same credit. A request without
+ * journaled decisions either reserved nothing or was cut short by a crash before any of its
+ * events were sent, and is replayed against the credit as it is. The events the requests produce
+ * were already sent and are dropped.
+ */
+@Component
+@ConditionalOnProperty(name = "journal.enabled", havingValue = "true")
+public class JournalReplayer {
+    private final Logger log = Logger.getLogger(this.getClass().getName());
+    private final RequestJournal journal;
+    private final OrderHandler orderHandler;
+    private final SecurityConfigurationHandler securityConfigurationHandler;
+
+    public JournalReplayer(RequestJournal journal, SecurityRepository securityRepository, BrokerRepository brokerRepository,
+                           ShareholderRepository shareholderRepository, Matcher matcher,
+                           Map<MatchingState, MatchingStrategy> matchingStrategies) {
+        this.journal = journal;
+        EventPublisher silentPublisher = new SilentEventPublisher();
+        orderHandler = new OrderHandler(securityRepository, brokerRepository, shareholderRepository,
+                silentPublisher, matcher, matchingStrategies);
+        securityConfigurationHandler = new SecurityConfigurationHandler(orderHandler, securityRepository, silentPublisher);
+    }
+
+    public long replay() {
+        return replay(0);
+    }
+
+    /**
+     * @param afterSequence the journal sequence the saved state already includes
+     * @return the number of requests replayed
+     */
+    public long replay(long afterSequence) {
+        Map<Long, CreditDecisions> creditDecisions = new HashMap<>();
+        journal.readAll((request, sequence) -> {}, (decisions, requestSequence) -> {
+            if (requestSequence > afterSequence)
+                creditDecisions.put(requestSequence, decisions);
+        });
+        long[] replayed = {0};
+        journal.readAll((request, sequence) -> {
+            if (sequence <= afterSequence)
+                return;
+            CreditDecisions decisions = creditDecisions.remove(sequence);
+            if (decisions != null)
+                CreditDecisions.replay(decisions);
+            try {
+                apply(request);
+            } finally {
+                CreditDecisions.stop();
+            }
+            replayed[0]++;
+        });
+        log.info(replayed[0] + " journaled requests replayed");
+        return replayed[0];
+    }
+
+    private void apply(Request request) {
+        if (request instanceof EnterOrderRq enterOrderRq)
+            orderHandler.handleEnterOrder(enterOrderRq);
+        else if (request instanceof DeleteOrderRq deleteOrderRq)
+            orderHandler.handleDeleteOrder(deleteOrderRq);
+        else if (request instanceof ChangeMatchingStateRq changeMatchingStateRq)
+            securityConfigurationHandler.handleMatchingStateRq(changeMatchingStateRq);
+    }
+
+    private static class SilentEventPublisher extends EventPublisher {
+        SilentEventPublisher() {
+            super(null, Optional.empty(), Optional.empty());
+        }
+
+        @Override
+        public void publish(Event event) {
+        }
+    }
+}
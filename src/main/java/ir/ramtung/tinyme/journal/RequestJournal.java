@@ -0,0 +1,430 @@
+package ir.ramtung.tinyme.journal;
+
+import ir.ramtung.tinyme.domain.entity.CreditDecisions;
+import ir.ramtung.tinyme.messaging.codec.BinaryCodec;
+import ir.ramtung.tinyme.messaging.request.ChangeMatchingStateRq;
+import ir.ramtung.tinyme.messaging.request.DeleteOrderRq;
+import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
+import ir.ramtung.tinyme.messaging.request.Request;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the requests accepted by {@link ir.ramtung.tinyme.messaging.RequestDispatcher},
+ * kept in memory-mapped segment files of {@code journal.segmentBytes} each, named after the
+ * sequence number of their first request.
+ * <p>
+ * A record is {@code [int bodyLength][int crc32][long sequence][byte type][body]}, the body being
+ * the {@link BinaryCodec} encoding of the request. The length is written last, so a record whose
+ * length is still zero, or whose checksum does not match, marks the end of the journal.
+ * <p>
+ * Once a request has been handled, the answers its shard got from
+ * {@link ir.ramtung.tinyme.domain.entity.Broker#reserveCredit(long)} are appended as a record of
+ * their own, {@code [long requestSequence][int count][long[] granted]}, with the next sequence
+ * number. Brokers are shared by the shards, so these answers depend on how the shards happened to
+ * interleave, and replaying the requests alone would not reproduce them.
+ * <p>
+ * Appending only copies the record into the mapping, which survives a crash of the process. A
+ * flusher thread forces the mapping to disk every {@code journal.flushIntervalMillis}, so a single
+ * {@code force} commits every request appended since the last one; {@link #awaitDurable(long)}
+ * waits for the group a request belongs to.
+ */
+@Component
+@ConditionalOnProperty(name = "journal.enabled", havingValue = "true")
+public class RequestJournal {
+    static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + Long.BYTES + Byte.BYTES;
+    private static final String SEGMENT_PREFIX = "requests-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final List<Class<? extends Request>> TYPES =
+            List.of(EnterOrderRq.class, DeleteOrderRq.class, ChangeMatchingStateRq.class);
+    private static final byte CREDIT_DECISIONS = Byte.MAX_VALUE;
+
+    private final Logger log = Logger.getLogger(this.getClass().getName());
+    private final Path directory;
+    private final int segmentBytes;
+    private final long flushIntervalMillis;
+    private final CRC32 crc = new CRC32();
+    private final Object durableMonitor = new Object();
+
+    private MappedByteBuffer segment;
+    private long nextSequence = 1;
+    private long appendedSequence;
+    private volatile long durableSequence;
+    private volatile boolean running;
+    private Thread flusher;
+
+    @Autowired
+    public RequestJournal(@Value("${journal.directory:journal}") String directory,
+                          @Value("${journal.segmentBytes:67108864}") int segmentBytes,
+                          @Value("${journal.flushIntervalMillis:1}") long flushIntervalMillis) {
+        this(Path.of(directory), segmentBytes, flushIntervalMillis);
+    }
+
+    public RequestJournal(Path directory, int segmentBytes, long flushIntervalMillis) {
+        if (segmentBytes <= HEADER_BYTES)
+            throw new IllegalArgumentException("Journal segments must be larger than a record header");
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Maps the last segment for appending, after the last intact record, and starts the flusher.
+     */
+    @PostConstruct
+    public synchronized void open() {
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments = segments();
+            if (segments.isEmpty()) {
+                segment = map(segmentPath(nextSequence));
+            } else {
+                long[] last = {0};
+                int end = 0;
+                for (Path path : segments)
+                    end = read(path, (request, sequence) -> last[0] = sequence, null);
+                Path lastSegment = segments.get(segments.size() - 1);
+                nextSequence = last[0] != 0 ? last[0] + 1 : firstSequenceOf(lastSegment);
+                segment = map(lastSegment);
+                segment.position(end);
+                clearTornRecord();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        appendedSequence = nextSequence - 1;
+        durableSequence = appendedSequence;
+        running = true;
+        flusher = new Thread(this::flushPeriodically, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * @return the sequence number of the request in the journal
+     */
+    public long append(Request request) {
+        byte type = typeCodeOf(request);
+        return append(type, body -> BinaryCodec.encode(request, body));
+    }
+
+    /**
+     * @return the sequence number of the record, which becomes durable after the request's own
+     */
+    public long appendCreditDecisions(long requestSequence, CreditDecisions decisions) {
+        long[] granted = decisions.toLongArray();
+        return append(CREDIT_DECISIONS, body -> {
+            body.putLong(requestSequence);
+            body.putInt(decisions.count());
+            for (long word : granted)
+                body.putLong(word);
+        });
+    }
+
+    private synchronized long append(byte type, Consumer<ByteBuffer> body) {
+        if (segment == null)
+            throw new IllegalStateException("The journal is not open");
+        long sequence = nextSequence;
+        int start = segment.position();
+        try {
+            write(type, body, sequence);
+        } catch (BufferOverflowException ex) {
+            if (start == 0)
+                throw new IllegalArgumentException("Record does not fit in a journal segment", ex);
+            roll(sequence);
+            write(type, body, sequence);
+        }
+        nextSequence++;
+        appendedSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * @return the sequence number of the last appended record, or 0 if none has been
+     */
+    public synchronized long lastSequence() {
+        return appendedSequence;
+    }
+
+    private void write(byte type, Consumer<ByteBuffer> body, long sequence) {
+        int start = segment.position();
+        if (segment.remaining() <= HEADER_BYTES)
+            throw new BufferOverflowException();
+        segment.position(start + HEADER_BYTES);
+        try {
+            body.accept(segment);
+        } catch (BufferOverflowException ex) {
+            segment.position(start);
+            throw ex;
+        }
+        int end = segment.position();
+        segment.putLong(start + 8, sequence);
+        segment.put(start + 16, type);
+        crc.reset();
+        crc.update(segment.slice(start + 8, end - start - 8));
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, end - start - HEADER_BYTES);
+    }
+
+    private static byte typeCodeOf(Request request) {
+        int index = TYPES.indexOf(request.getClass());
+        if (index < 0)
+            throw new IllegalArgumentException("Cannot journal " + request.getClass().getName());
+        return (byte) (index + 1);
+    }
+
+    private void roll(long firstSequence) {
+        segment.force();
+        try {
+            segment = map(segmentPath(firstSequence));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Zeroes whatever a crash left after the last intact record, so that records appended from
+     * here on are not followed by stale bytes.
+     */
+    private void clearTornRecord() {
+        boolean torn = false;
+        for (int i = segment.position(); i < segment.limit(); i++) {
+            if (segment.get(i) != 0) {
+                segment.put(i, (byte) 0);
+                torn = true;
+            }
+        }
+        if (torn)
+            log.warning("Discarded a torn journal record at offset " + segment.position());
+    }
+
+    /**
+     * Forces what has been appended so far to disk.
+     */
+    public void flush() {
+        MappedByteBuffer toForce;
+        long upTo;
+        synchronized (this) {
+            toForce = segment;
+            upTo = appendedSequence;
+        }
+        if (toForce == null || upTo <= durableSequence)
+            return;
+        toForce.force();
+        synchronized (durableMonitor) {
+            durableSequence = upTo;
+            durableMonitor.notifyAll();
+        }
+    }
+
+    private void flushPeriodically() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMillis);
+            } catch (InterruptedException ex) {
+                break;
+            }
+            flush();
+        }
+    }
+
+    public void awaitDurable(long sequence) throws InterruptedException {
+        synchronized (durableMonitor) {
+            while (durableSequence < sequence)
+                durableMonitor.wait();
+        }
+    }
+
+    /**
+     * Hands every intact request to the consumer, with its sequence number, in journal order.
+     */
+    public void readAll(ObjLongConsumer<Request> requests) {
+        readAll(requests, (decisions, requestSequence) -> {});
+    }
+
+    /**
+     * Also hands every intact set of credit decisions to its consumer, with the sequence number of
+     * the request they were taken for.
+     */
+    public void readAll(ObjLongConsumer<Request> requests, ObjLongConsumer<CreditDecisions> creditDecisions) {
+        try {
+            for (Path path : segments())
+                read(path, requests, creditDecisions);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Without a consumer for credit decisions, nothing is decoded and every record is handed to
+     * {@code requests} as null, to find where the journal ends.
+     * @return the offset after the last intact record of the segment
+     */
+    private int read(Path path, ObjLongConsumer<Request> requests, ObjLongConsumer<CreditDecisions> creditDecisions)
+            throws IOException {
+        return forEachRecord(path, (buffer, position, bodyLength) -> {
+            long sequence = buffer.getLong(position + 8);
+            byte type = buffer.get(position + 16);
+            ByteBuffer body = buffer.slice(position + HEADER_BYTES, bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+            if (creditDecisions == null)
+                requests.accept(null, sequence);
+            else if (type == CREDIT_DECISIONS)
+                readCreditDecisions(body, creditDecisions);
+            else
+                requests.accept(TYPES.get(type - 1).cast(BinaryCodec.decode(TYPES.get(type - 1), body)), sequence);
+        });
+    }
+
+    private interface RecordVisitor {
+        void visit(ByteBuffer buffer, int position, int bodyLength);
+    }
+
+    /**
+     * Hands the position and body length of every intact record of the segment to the visitor.
+     * @return the offset after the last intact record of the segment
+     */
+    private static int forEachRecord(Path path, RecordVisitor visitor) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        CRC32 check = new CRC32();
+        int position = 0;
+        while (buffer.limit() - position >= HEADER_BYTES) {
+            int bodyLength = buffer.getInt(position);
+            if (bodyLength <= 0 || bodyLength > buffer.limit() - position - HEADER_BYTES)
+                break;
+            check.reset();
+            check.update(buffer.slice(position + 8, bodyLength + HEADER_BYTES - 8));
+            if ((int) check.getValue() != buffer.getInt(position + 4))
+                break;
+            visitor.visit(buffer, position, bodyLength);
+            position += HEADER_BYTES + bodyLength;
+        }
+        return position;
+    }
+
+    private static void readCreditDecisions(ByteBuffer body, ObjLongConsumer<CreditDecisions> consumer) {
+        long requestSequence = body.getLong();
+        int count = body.getInt();
+        long[] granted = new long[body.remaining() / Long.BYTES];
+        for (int i = 0; i < granted.length; i++)
+            granted[i] = body.getLong();
+        consumer.accept(CreditDecisions.of(count, granted), requestSequence);
+    }
+
+    /**
+     * Drops the records up to the given sequence number once the state they produced has been
+     * saved. The records after it are written again at the start of a new segment, so they are
+     * replayed on top of the saved state.
+     */
+    public synchronized void checkpoint(long upTo) {
+        try {
+            segment.force();
+            List<ByteBuffer> kept = new ArrayList<>();
+            for (Path path : segments()) {
+                forEachRecord(path, (buffer, position, bodyLength) -> {
+                    if (buffer.getLong(position + 8) > upTo)
+                        kept.add(ByteBuffer.allocate(HEADER_BYTES + bodyLength).order(ByteOrder.LITTLE_ENDIAN)
+                                .put(buffer.slice(position, HEADER_BYTES + bodyLength)).flip());
+                });
+            }
+            for (Path path : segments())
+                Files.delete(path);
+            segment = map(segmentPath(kept.isEmpty() ? nextSequence : kept.get(0).getLong(8)));
+            for (ByteBuffer record : kept) {
+                if (segment.remaining() < record.remaining())
+                    roll(record.getLong(8));
+                segment.put(record);
+            }
+            segment.force();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        synchronized (durableMonitor) {
+            durableSequence = appendedSequence;
+            durableMonitor.notifyAll();
+        }
+        log.info("Journal checkpointed at sequence " + upTo);
+    }
+
+    /**
+     * Deletes the segments that hold nothing after the given sequence number, once a snapshot
+     * taken at that point has been saved. The segment being appended to is always kept.
+     */
+    public synchronized void discardUpTo(long sequence) {
+        try {
+            List<Path> segments = segments();
+            for (int i = 0; i + 1 < segments.size(); i++) {
+                if (firstSequenceOf(segments.get(i + 1)) > sequence + 1)
+                    break;
+                Files.delete(segments.get(i));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        if (flusher != null) {
+            flusher.interrupt();
+            flusher.join();
+        }
+        flush();
+        synchronized (this) {
+            segment = null;
+        }
+    }
+
+    private MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, channel.size()));
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            return mapped;
+        }
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    private static long firstSequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+}
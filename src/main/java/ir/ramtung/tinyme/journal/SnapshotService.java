@@ -0,0 +1,181 @@
+package ir.ramtung.tinyme.journal;
+
+import ir.ramtung.tinyme.domain.entity.Broker;
+import ir.ramtung.tinyme.domain.entity.Security;
+import ir.ramtung.tinyme.domain.entity.Shareholder;
+import ir.ramtung.tinyme.messaging.RequestDispatcher;
+import ir.ramtung.tinyme.messaging.ShardedExecutor;
+import ir.ramtung.tinyme.repository.BrokerRepository;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import ir.ramtung.tinyme.repository.ShareholderRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Takes a {@link BinarySnapshot} every {@code snapshot.intervalSeconds} while requests are being
+ * handled, so that recovery loads the snapshot and replays only the requests journaled after it.
+ * <p>
+ * A snapshot is taken at a point in the request stream: {@link RequestDispatcher#dispatchToEveryShard}
+ * places a task on every shard between two requests. Each shard encodes its own securities when
+ * it reaches the task and waits for the other shards, so that broker credit, the only state the
+ * shards share, is copied while no shard is matching. The shards then carry on and the snapshot is
+ * written to disk by this service, after which the journal up to that point is discarded.
+ */
+@Component
+@ConditionalOnProperty(name = "snapshot.enabled", havingValue = "true")
+public class SnapshotService {
+    private static final long CAPTURE_TIMEOUT_SECONDS = 30;
+
+    private final Logger log = Logger.getLogger(this.getClass().getName());
+    private final SecurityRepository securityRepository;
+    private final BrokerRepository brokerRepository;
+    private final ShareholderRepository shareholderRepository;
+    private final RequestDispatcher requestDispatcher;
+    private final ShardedExecutor shardedExecutor;
+    private final RequestJournal journal;
+    private final Path file;
+    private final long intervalSeconds;
+    private ScheduledExecutorService scheduler;
+
+    public SnapshotService(SecurityRepository securityRepository, BrokerRepository brokerRepository,
+                           ShareholderRepository shareholderRepository, RequestDispatcher requestDispatcher,
+                           ShardedExecutor shardedExecutor, Optional<RequestJournal> journal,
+                           @Value("${snapshot.file:snapshot/tinyme.snapshot}") String file,
+                           @Value("${snapshot.intervalSeconds:60}") long intervalSeconds) {
+        this.securityRepository = securityRepository;
+        this.brokerRepository = brokerRepository;
+        this.shareholderRepository = shareholderRepository;
+        this.requestDispatcher = requestDispatcher;
+        this.shardedExecutor = shardedExecutor;
+        this.journal = journal.orElse(null);
+        this.file = Path.of(file);
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    @PostConstruct
+    public void startTaking() {
+        if (intervalSeconds <= 0)
+            return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> new Thread(task, "snapshot-taker"));
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                takeOnline();
+            } catch (Exception ex) {
+                log.log(Level.SEVERE, "Could not take a snapshot", ex);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stopTaking() throws InterruptedException {
+        if (scheduler == null)
+            return;
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    public boolean exists() {
+        return Files.exists(file);
+    }
+
+    /**
+     * @return the journal sequence the loaded snapshot includes
+     */
+    public long load() throws IOException {
+        long journalSequence = BinarySnapshot.read(file, securityRepository, brokerRepository, shareholderRepository);
+        log.info("Snapshot loaded, including the journal up to sequence " + journalSequence);
+        return journalSequence;
+    }
+
+    /**
+     * Takes a snapshot between two requests without stopping the shards for longer than it takes
+     * them to encode their securities.
+     *
+     * @return the journal sequence the snapshot includes
+     */
+    public synchronized long takeOnline() throws IOException, InterruptedException, TimeoutException {
+        List<Broker> brokers = listOf(brokerRepository.allBrokers());
+        List<Security> securities = listOf(securityRepository.allSecurities());
+        Shareholder[] byLedgerIndex = BinarySnapshot.byLedgerIndex(shareholderRepository.allShareholders());
+        byte[][] blocks = new byte[securities.size()][];
+        long[] credits = new long[brokers.size()];
+        CompletableFuture<Void> captured = new CompletableFuture<>();
+        CyclicBarrier allShards = new CyclicBarrier(shardedExecutor.shardCount(), () -> {
+            for (int i = 0; i < brokers.size(); i++)
+                credits[i] = brokers.get(i).getCredit();
+            captured.complete(null);
+        });
+
+        long journalSequence = requestDispatcher.dispatchToEveryShard(shard -> {
+            try {
+                for (int i = 0; i < securities.size(); i++) {
+                    if (shardedExecutor.shardOf(securities.get(i).getIsin()) == shard)
+                        blocks[i] = BinarySnapshot.encodeSecurity(securities.get(i), byLedgerIndex);
+                }
+            } catch (RuntimeException ex) {
+                captured.completeExceptionally(ex);
+            }
+            try {
+                allShards.await(CAPTURE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                captured.completeExceptionally(ex);
+            } catch (BrokenBarrierException | TimeoutException ex) {
+                captured.completeExceptionally(ex);
+            }
+        });
+        try {
+            captured.get(2 * CAPTURE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Could not capture the snapshot", ex.getCause());
+        }
+        save(journalSequence, brokers, credits, Arrays.asList(blocks));
+        return journalSequence;
+    }
+
+    /**
+     * Takes a snapshot on the calling thread, for when no request is being handled.
+     *
+     * @return the journal sequence the snapshot includes
+     */
+    public synchronized long takeOffline() throws IOException {
+        long journalSequence = journal != null ? journal.lastSequence() : 0;
+        List<Broker> brokers = listOf(brokerRepository.allBrokers());
+        Shareholder[] byLedgerIndex = BinarySnapshot.byLedgerIndex(shareholderRepository.allShareholders());
+        long[] credits = new long[brokers.size()];
+        for (int i = 0; i < brokers.size(); i++)
+            credits[i] = brokers.get(i).getCredit();
+        List<byte[]> blocks = new ArrayList<>();
+        for (Security security : securityRepository.allSecurities())
+            blocks.add(BinarySnapshot.encodeSecurity(security, byLedgerIndex));
+        save(journalSequence, brokers, credits, blocks);
+        return journalSequence;
+    }
+
+    private void save(long journalSequence, List<Broker> brokers, long[] credits, List<byte[]> blocks) throws IOException {
+        BinarySnapshot.write(file, journalSequence, brokers, credits, shareholderRepository.allShareholders(), blocks);
+        if (journal != null)
+            journal.discardUpTo(journalSequence);
+        log.info("Snapshot taken, including the journal up to sequence " + journalSequence);
+    }
+
+    private static <T> List<T> listOf(Iterable<? extends T> items) {
+        List<T> list = new ArrayList<>();
+        items.forEach(list::add);
+        return list;
+    }
+}
@@ -0,0 +1,240 @@
+package ir.ramtung.tinyme.marketdata;
+
+import ir.ramtung.tinyme.domain.entity.DepthListener;
+import ir.ramtung.tinyme.domain.entity.Security;
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.journal.RequestJournal;
+import ir.ramtung.tinyme.messaging.ShardedExecutor;
+import ir.ramtung.tinyme.messaging.event.DepthUpdateEvent;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the level-2 depth of every security to {@code marketData.destination} as
+ * {@link DepthUpdateEvent}s, numbered per security. The feed follows the order books through
+ * their {@link DepthListener}s, so it never scans a queue; once the books are loaded, the levels
+ * already in them are sent as added.
+ * <p>
+ * The changes to a level are held and merged on the shard until the request that made them is
+ * done, when {@link ir.ramtung.tinyme.messaging.RequestDispatcher} calls {@link #afterRequest(int, long)};
+ * a level that ends up where it started is not sent, so the changes of a request that was rolled
+ * back leave nothing behind. With {@code marketData.conflationMillis} set, the changes are instead
+ * merged until the end of the window, when each shard is asked, between two requests, to hand over
+ * what its securities have gathered. The updates are numbered on the shard and sent to the broker
+ * from a sender thread of their own, in the order they were handed over, so a shard never waits on
+ * the broker. Like the events of a request, an update is only sent once the journal is durable up
+ * to the last request it covers.
+ * <p>
+ * Everything kept per security or per shard is only touched by the thread of that shard, except
+ * while the listeners are attached, which happens before any request reaches the shards.
+ */
+@Component
+@ConditionalOnProperty(name = "marketData.enabled", havingValue = "true")
+public class MarketDataPublisher implements SmartInitializingSingleton {
+    private final Logger log = Logger.getLogger(this.getClass().getName());
+    private final JmsTemplate jmsTemplate;
+    private final SecurityRepository securityRepository;
+    private final ShardedExecutor shardedExecutor;
+    private final String destination;
+    private final long conflationMillis;
+    private final List<List<Feed>> dirtyFeeds = new ArrayList<>();
+    private final AtomicIntegerArray dirtyShards;
+    private final long[] journalSequences;
+    private final RequestJournal journal;
+    private final ExecutorService sender;
+    private ScheduledExecutorService conflator;
+
+    public MarketDataPublisher(JmsTemplate jmsTemplate, SecurityRepository securityRepository,
+                               ShardedExecutor shardedExecutor, Optional<RequestJournal> journal,
+                               @Value("${marketData.destination:MD}") String destination,
+                               @Value("${marketData.conflationMillis:0}") long conflationMillis) {
+        this.jmsTemplate = jmsTemplate;
+        this.securityRepository = securityRepository;
+        this.shardedExecutor = shardedExecutor;
+        this.journal = journal.orElse(null);
+        this.destination = destination;
+        this.conflationMillis = conflationMillis;
+        for (int shard = 0; shard < shardedExecutor.shardCount(); shard++)
+            dirtyFeeds.add(new ArrayList<>());
+        this.dirtyShards = new AtomicIntegerArray(shardedExecutor.shardCount());
+        this.journalSequences = new long[shardedExecutor.shardCount()];
+        this.sender = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "market-data-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        for (Security security : securityRepository.allSecurities())
+            attach(security);
+        for (int shard = 0; shard < dirtyFeeds.size(); shard++)
+            flush(shard);
+        if (conflationMillis <= 0)
+            return;
+        conflator = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "market-data-conflator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        conflator.scheduleAtFixedRate(this::requestFlushes, conflationMillis, conflationMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void attach(Security security) {
+        Feed feed = new Feed(security.getIsin(), shardedExecutor.shardOf(security.getIsin()));
+        security.getOrderBook().setDepthListener(feed);
+    }
+
+    private void requestFlushes() {
+        for (int shard = 0; shard < dirtyShards.length(); shard++) {
+            if (dirtyShards.getAndSet(shard, 0) != 0) {
+                int index = shard;
+                shardedExecutor.executeOn(shard, () -> flush(index));
+            }
+        }
+    }
+
+    /**
+     * Hands what the request just run on the shard changed to the sender, unless changes are
+     * conflated; must run on the shard.
+     *
+     * @param journalSequence the journal record the changes must wait for, or 0 to send them as soon as possible
+     */
+    public void afterRequest(int shard, long journalSequence) {
+        journalSequences[shard] = Math.max(journalSequences[shard], journalSequence);
+        if (conflationMillis <= 0)
+            flush(shard);
+    }
+
+    /**
+     * Hands the merged changes of the securities of the shard to the sender; must run on the shard.
+     */
+    void flush(int shard) {
+        long journalSequence = journalSequences[shard];
+        journalSequences[shard] = 0;
+        List<Feed> dirty = dirtyFeeds.get(shard);
+        if (dirty.isEmpty())
+            return;
+        List<DepthUpdateEvent> updates = new ArrayList<>();
+        for (Feed feed : dirty)
+            feed.drainTo(updates);
+        dirty.clear();
+        if (!updates.isEmpty())
+            sender.execute(() -> send(updates, journalSequence));
+    }
+
+    /**
+     * A failure to send is logged and the update keeps its sequence number, which shows
+     * subscribers the gap.
+     */
+    private void send(List<DepthUpdateEvent> updates, long journalSequence) {
+        awaitDurable(journalSequence);
+        for (DepthUpdateEvent update : updates) {
+            try {
+                jmsTemplate.convertAndSend(destination, update);
+            } catch (RuntimeException ex) {
+                log.log(Level.SEVERE, "Could not send " + update, ex);
+            }
+        }
+    }
+
+    private void awaitDurable(long journalSequence) {
+        if (journal == null || journalSequence == 0)
+            return;
+        try {
+            journal.awaitDurable(journalSequence);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends what has been handed over so far, waiting up to a minute for it.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (conflator != null)
+            conflator.shutdownNow();
+        sender.shutdown();
+        sender.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private static long levelKey(Side side, int price) {
+        return ((long) side.ordinal() << 32) | (price & 0xFFFFFFFFL);
+    }
+
+    private static final class PendingLevel {
+        final Side side;
+        final int price;
+        final long previousQuantity;
+        long quantity;
+
+        PendingLevel(Side side, int price, long previousQuantity, long quantity) {
+            this.side = side;
+            this.price = price;
+            this.previousQuantity = previousQuantity;
+            this.quantity = quantity;
+        }
+    }
+
+    private final class Feed implements DepthListener {
+        final String securityIsin;
+        final int shard;
+        final Map<Long, PendingLevel> pending = new LinkedHashMap<>();
+        long sequence = 0;
+
+        Feed(String securityIsin, int shard) {
+            this.securityIsin = securityIsin;
+            this.shard = shard;
+        }
+
+        @Override
+        public void levelChanged(Side side, int price, long previousQuantity, long quantity) {
+            PendingLevel level = pending.get(levelKey(side, price));
+            if (level != null) {
+                level.quantity = quantity;
+                return;
+            }
+            pending.put(levelKey(side, price), new PendingLevel(side, price, previousQuantity, quantity));
+            if (pending.size() == 1) {
+                dirtyFeeds.get(shard).add(this);
+                if (conflationMillis > 0)
+                    dirtyShards.set(shard, 1);
+            }
+        }
+
+        void drainTo(List<DepthUpdateEvent> updates) {
+            for (PendingLevel level : pending.values()) {
+                if (level.quantity != level.previousQuantity)
+                    updates.add(updateOf(level));
+            }
+            pending.clear();
+        }
+
+        private DepthUpdateEvent updateOf(PendingLevel level) {
+            DepthUpdateEvent.Action action = level.previousQuantity == 0 ? DepthUpdateEvent.Action.ADDED
+                    : level.quantity == 0 ? DepthUpdateEvent.Action.REMOVED
+                    : DepthUpdateEvent.Action.CHANGED;
+            return new DepthUpdateEvent(securityIsin, ++sequence, level.side, level.price, level.quantity, action);
+        }
+    }
+}
@@ -1,25 +1,293 @@
 package ir.ramtung.tinyme.messaging;
 
+import ir.ramtung.tinyme.audit.AuditLog;
+import ir.ramtung.tinyme.journal.RequestJournal;
 import ir.ramtung.tinyme.messaging.event.Event;
+import jakarta.annotation.PostConstruct;
+import jakarta.jms.Destination;
+import jakarta.jms.MessageProducer;
+import jakarta.jms.Session;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Sends events to the response queue from a sender thread of its own, so the shards never wait on
+ * the broker. Published events are recorded in the {@link AuditLog} when auditing is enabled.
+ * <p>
+ * Events can only be published while a request is handled: {@link RequestDispatcher} calls
+ * {@link #beginRequest()} before it runs a request and {@link #flush(long)} after it, and the
+ * events published on the thread in between are held until the flush. Publishing anywhere else is
+ * not supported and throws, since nothing would ever send the events. The flushed events are
+ * copied as one group into a pre-allocated {@link RingBuffer}, the publish stage, whose depth is
+ * reported by {@link #stats()}. The sender takes every group published so far and sends them in transacted
+ * JMS sessions of at most {@code eventBatching.maxEvents} events, waiting up to
+ * {@code eventBatching.maxDelayMillis} for more groups when the first ones are small. Groups are
+ * sent in the order they were flushed and each shard flushes its requests in order, so events of a
+ * security keep their order. When the sender falls behind, the ring fills up and flushing waits
+ * for it.
+ * <p>
+ * With a {@link RequestJournal}, a group flushed with a journal sequence is not sent before the
+ * journal is durable up to that sequence, so no event leaves for a request that a crash could
+ * still take back.
+ * <p>
+ * A batch that cannot be sent is rolled back and sent again, waiting longer after each failure, up
+ * to a second. Later batches wait behind it, so events are never dropped or reordered, and a broker
+ * that stays down ends up holding back the shards through the full ring.
+ * <p>
+ * The sender is stopped, after sending what has been flushed, once the shards have stopped.
+ */
 @Component
-public class EventPublisher {
+public class EventPublisher implements SmartLifecycle {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FIRST_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MAX_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private final Logger log = Logger.getLogger(this.getClass().getName());
     private final JmsTemplate jmsTemplate;
+    private final AuditLog auditLog;
+    private final RequestJournal journal;
     @Value("${responseQueue}")
     private String responseQueue;
+    @Value("${eventBatching.maxEvents:256}")
+    private int maxBatchEvents;
+    @Value("${eventBatching.maxDelayMillis:0}")
+    private long maxBatchDelayMillis;
+    @Value("${publishQueueCapacity:4096}")
+    private int ringCapacity;
+
+    private final ThreadLocal<Unflushed> unflushed = ThreadLocal.withInitial(Unflushed::new);
+    private RingBuffer<Group> ring;
+    private JmsTemplate batchTemplate;
+    private Thread sender;
+    private volatile boolean running = false;
+    private volatile long sentEvents = 0;
+    private volatile long sentBatches = 0;
+    private volatile long failedSends = 0;
+    private volatile long totalWaitNanos = 0;
+    private volatile long maxWaitNanos = 0;
 
-    public EventPublisher(JmsTemplate jmsTemplate) {
+    public EventPublisher(JmsTemplate jmsTemplate, Optional<AuditLog> auditLog, Optional<RequestJournal> journal) {
         this.jmsTemplate = jmsTemplate;
+        this.auditLog = auditLog.orElse(null);
+        this.journal = journal.orElse(null);
+    }
+
+    @PostConstruct
+    public void startSender() {
+        ring = new RingBuffer<>(ringCapacity, Group::new);
+        batchTemplate = new JmsTemplate(jmsTemplate.getConnectionFactory());
+        batchTemplate.setSessionTransacted(true);
+        batchTemplate.setMessageConverter(jmsTemplate.getMessageConverter());
+        batchTemplate.setDestinationResolver(jmsTemplate.getDestinationResolver());
+        running = true;
+        sender = new Thread(this::sendGroups, "event-publisher");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Starts holding the events published on the current thread for the request it is about to handle.
+     */
+    public void beginRequest() {
+        if (ring == null)
+            throw new IllegalStateException("The event sender is not started");
+        unflushed.get().inRequest = true;
     }
 
     public void publish(Event event) {
-        log.info("Published : " + event);
-        jmsTemplate.convertAndSend(responseQueue, event);
+        Unflushed held = unflushed.get();
+        if (!held.inRequest)
+            throw new IllegalStateException("Events can only be published while a request is handled");
+        if (auditLog != null)
+            auditLog.published(event);
+        else if (log.isLoggable(Level.FINE))
+            log.fine("Published : " + event);
+        held.events.add(event);
+    }
+
+    /**
+     * Hands the events published by the current thread since {@link #beginRequest()} to the sender.
+     *
+     * @param journalSequence the journal record the events must wait for, or 0 to send them as soon as possible
+     */
+    public void flush(long journalSequence) {
+        Unflushed held = unflushed.get();
+        held.inRequest = false;
+        List<Event> events = held.events;
+        if (events.isEmpty())
+            return;
+        long sequence = ring.claim();
+        Group group = ring.get(sequence);
+        group.events.addAll(events);
+        group.flushedAt = System.nanoTime();
+        group.journalSequence = journalSequence;
+        ring.publish(sequence);
+        events.clear();
+    }
+
+    /**
+     * @param depth         groups flushed but not yet sent, including the ones being sent
+     * @param meanWaitNanos mean time from flushing a group to sending it
+     * @param maxWaitNanos  longest such time
+     * @param failedSends   attempts to send a batch that failed and were retried
+     */
+    public record PublisherStats(long depth, long events, long batches, long meanWaitNanos, long maxWaitNanos,
+                                 long failedSends) {
+    }
+
+    public PublisherStats stats() {
+        long batches = sentBatches;
+        return new PublisherStats(ring == null ? 0 : ring.depth(), sentEvents, batches,
+                batches == 0 ? 0 : totalWaitNanos / batches, maxWaitNanos, failedSends);
+    }
+
+    /**
+     * Sends what has been flushed so far and stops the sender. If the broker does not take the
+     * events within a minute, the sender is left retrying and does not keep the JVM alive.
+     */
+    public void stopSender() throws InterruptedException {
+        if (sender == null)
+            return;
+        running = false;
+        LockSupport.unpark(sender);
+        sender.join(TimeUnit.MINUTES.toMillis(1));
+    }
+
+    /**
+     * The sender is started when the publisher is constructed.
+     */
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        try {
+            stopSender();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return ShardedExecutor.PHASE - 1;
+    }
+
+    private void sendGroups() {
+        List<Event> batch = new ArrayList<>();
+        long next = 0;
+        while (running || next <= ring.lastClaimed()) {
+            long available = ring.highestPublished(next);
+            if (available < next) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            available = awaitMore(next, available);
+            long oldestFlush = ring.get(next).flushedAt;
+            long journalSequence = 0;
+            for (long sequence = next; sequence <= available; sequence++) {
+                Group group = ring.get(sequence);
+                batch.addAll(group.events);
+                group.events.clear();
+                journalSequence = Math.max(journalSequence, group.journalSequence);
+                if (batch.size() >= maxBatchEvents) {
+                    send(batch, oldestFlush, journalSequence);
+                    oldestFlush = sequence < available ? ring.get(sequence + 1).flushedAt : 0;
+                }
+            }
+            if (!batch.isEmpty())
+                send(batch, oldestFlush, journalSequence);
+            ring.release(available);
+            next = available + 1;
+        }
+    }
+
+    /**
+     * Waits up to {@code eventBatching.maxDelayMillis} for a batch to fill up.
+     * @return the last group that may go into the batch
+     */
+    private long awaitMore(long next, long available) {
+        if (maxBatchDelayMillis <= 0)
+            return available;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+        while (running && available - next + 1 < maxBatchEvents && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(Math.min(IDLE_PARK_NANOS, deadline - System.nanoTime()));
+            available = ring.highestPublished(next);
+        }
+        return available;
+    }
+
+    private void send(List<Event> batch, long oldestFlush, long journalSequence) {
+        awaitDurable(journalSequence);
+        long retryNanos = FIRST_RETRY_NANOS;
+        while (true) {
+            try {
+                sendBatch(batch);
+                break;
+            } catch (RuntimeException ex) {
+                failedSends++;
+                log.log(Level.SEVERE, "Could not send " + batch.size() + " events, retrying in "
+                        + TimeUnit.NANOSECONDS.toMillis(retryNanos) + " ms", ex);
+                LockSupport.parkNanos(retryNanos);
+                retryNanos = Math.min(2 * retryNanos, MAX_RETRY_NANOS);
+            }
+        }
+        long wait = System.nanoTime() - oldestFlush;
+        totalWaitNanos += wait;
+        if (wait > maxWaitNanos)
+            maxWaitNanos = wait;
+        sentEvents += batch.size();
+        sentBatches++;
+        batch.clear();
+    }
+
+    private void awaitDurable(long journalSequence) {
+        if (journal == null || journalSequence == 0)
+            return;
+        try {
+            journal.awaitDurable(journalSequence);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendBatch(List<Event> batch) {
+        batchTemplate.execute((Session session) -> {
+            Destination destination = batchTemplate.getDestinationResolver()
+                    .resolveDestinationName(session, responseQueue, false);
+            try (MessageProducer producer = session.createProducer(destination)) {
+                for (Event event : batch)
+                    producer.send(batchTemplate.getMessageConverter().toMessage(event, session));
+            }
+            session.commit();
+            return null;
+        }, true);
+    }
+
+    private static final class Unflushed {
+        final List<Event> events = new ArrayList<>();
+        boolean inRequest;
+    }
+
+    private static final class Group {
+        final List<Event> events = new ArrayList<>();
+        long flushedAt;
+        long journalSequence;
     }
 }
@@ -6,6 +6,7 @@ public class Message {
     public static final String ORDER_PRICE_NOT_POSITIVE = "Order price is not-positive";
     public static final String UNKNOWN_SECURITY_ISIN = "Unknown security ISIN";
     public static final String ORDER_ID_NOT_FOUND = "Order ID not found in the order book";
+    public static final String ORDER_ID_ALREADY_EXISTS = "Order ID already exists in the order book";
     public static final String INVALID_PEAK_SIZE = "Iceberg order peak size is out of range";
     public static final String INVALID_STOP_PRICE = "Can't apply stop price to the stop order";
     public static final String CANNOT_SPECIFY_PEAK_SIZE_FOR_A_NON_ICEBERG_ORDER = "Cannot specify peak size for a non-iceberg order";
@@ -1,18 +1,34 @@
 package ir.ramtung.tinyme.messaging;
 
+import ir.ramtung.tinyme.messaging.codec.BinaryMessageConverter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jms.support.converter.MappingJackson2MessageConverter;
 import org.springframework.jms.support.converter.MessageConverter;
 import org.springframework.jms.support.converter.MessageType;
 
+/**
+ * Messages are JSON text unless {@code messageFormat=binary} is set; both encodings put the class
+ * name of the payload in the {@value #TYPE_ID_PROPERTY} property. Either way, the time spent
+ * decoding requests is recorded.
+ */
 @Configuration
 public class MessagingConfig {
+    public static final String TYPE_ID_PROPERTY = "_type";
+
     @Bean
+    @ConditionalOnProperty(name = "messageFormat", havingValue = "json", matchIfMissing = true)
     public MessageConverter jacksonJmsMessageConverter() {
         MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
         converter.setTargetType(MessageType.TEXT);
-        converter.setTypeIdPropertyName("_type");
-        return converter;
+        converter.setTypeIdPropertyName(TYPE_ID_PROPERTY);
+        return new TimedMessageConverter(converter);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "messageFormat", havingValue = "binary")
+    public MessageConverter binaryJmsMessageConverter() {
+        return new TimedMessageConverter(new BinaryMessageConverter(TYPE_ID_PROPERTY));
     }
 }
@@ -1,13 +1,24 @@
 package ir.ramtung.tinyme.messaging;
 
+import ir.ramtung.tinyme.audit.AuditLog;
+import ir.ramtung.tinyme.domain.entity.CreditDecisions;
 import ir.ramtung.tinyme.domain.service.SecurityConfigurationHandler;
+import ir.ramtung.tinyme.journal.RequestJournal;
+import ir.ramtung.tinyme.marketdata.MarketDataPublisher;
 import ir.ramtung.tinyme.messaging.request.ChangeMatchingStateRq;
 import ir.ramtung.tinyme.messaging.request.DeleteOrderRq;
 import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
+import ir.ramtung.tinyme.messaging.request.OrderEntryType;
+import ir.ramtung.tinyme.messaging.request.Request;
 import ir.ramtung.tinyme.domain.service.OrderHandler;
+import ir.ramtung.tinyme.monitoring.Latency;
+import ir.ramtung.tinyme.monitoring.LatencyStage;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.stereotype.Component;
 
+import java.util.Optional;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @Component
@@ -15,27 +26,101 @@ public class RequestDispatcher {
     private final Logger log = Logger.getLogger(this.getClass().getName());
     private final OrderHandler orderHandler;
     private final SecurityConfigurationHandler securityConfigurationHandler;
+    private final ShardedExecutor shardedExecutor;
+    private final EventPublisher eventPublisher;
+    private final RequestJournal journal;
+    private final AuditLog auditLog;
+    private final MarketDataPublisher marketDataPublisher;
 
-    public RequestDispatcher(OrderHandler orderHandler, SecurityConfigurationHandler securityConfigurationHandler) {
+    public RequestDispatcher(OrderHandler orderHandler, SecurityConfigurationHandler securityConfigurationHandler,
+                             ShardedExecutor shardedExecutor, EventPublisher eventPublisher,
+                             Optional<RequestJournal> journal, Optional<AuditLog> auditLog,
+                             Optional<MarketDataPublisher> marketDataPublisher) {
         this.orderHandler = orderHandler;
         this.securityConfigurationHandler = securityConfigurationHandler;
+        this.shardedExecutor = shardedExecutor;
+        this.eventPublisher = eventPublisher;
+        this.journal = journal.orElse(null);
+        this.auditLog = auditLog.orElse(null);
+        this.marketDataPublisher = marketDataPublisher.orElse(null);
+    }
+
+    /**
+     * Requests go to the audit log when there is one; otherwise they are only logged at
+     * {@link Level#FINE}, so that formatting them is skipped unless asked for.
+     */
+    private void audit(Request rq) {
+        if (auditLog != null)
+            auditLog.received(rq);
+        else if (log.isLoggable(Level.FINE))
+            log.fine("Received message: " + rq);
+    }
+
+    /**
+     * Without a journal, a request goes straight to the ring of its shard. With one, it is
+     * journaled once it has its place in the ring, while no other request can be placed on that
+     * shard, so the journal holds the requests of every shard in the order the shard runs them;
+     * listeners of different shards never wait for each other. The credit decisions the request
+     * took on its shard are journaled after it, and its events and depth changes are only sent
+     * once the journal is durable up to the last of the two records. The latency of the whole
+     * request is recorded once its events are flushed.
+     */
+    private void dispatch(Request rq, String securityIsin, LatencyStage stage, OrderEntryType entryType, Runnable request) {
+        long receivedAt = System.nanoTime();
+        if (journal == null) {
+            shardedExecutor.execute(securityIsin, () -> handle(securityIsin, 0, stage, entryType, receivedAt, request));
+            return;
+        }
+        shardedExecutor.executeInOrder(securityIsin, () -> {
+            long sequence = journal.append(rq);
+            return () -> handle(securityIsin, sequence, stage, entryType, receivedAt, request);
+        });
+    }
+
+    private void handle(String securityIsin, long sequence, LatencyStage stage, OrderEntryType entryType,
+                        long receivedAt, Runnable request) {
+        CreditDecisions decisions = journal != null ? CreditDecisions.record() : null;
+        long durableAt = sequence;
+        try {
+            eventPublisher.beginRequest();
+            request.run();
+        } finally {
+            if (decisions != null) {
+                CreditDecisions.stop();
+                if (!decisions.isEmpty())
+                    durableAt = journal.appendCreditDecisions(sequence, decisions);
+            }
+            eventPublisher.flush(durableAt);
+            if (marketDataPublisher != null)
+                marketDataPublisher.afterRequest(shardedExecutor.shardOf(securityIsin), durableAt);
+            Latency.record(stage, entryType, receivedAt);
+        }
+    }
+
+    /**
+     * Runs the task on every shard, given the shard index, after the requests dispatched so far
+     * and before any request dispatched later.
+     * @return the journal sequence of the last record appended before the task, or 0 without a journal
+     */
+    public long dispatchToEveryShard(IntConsumer task) {
+        return shardedExecutor.executeOnEveryShard(task, () -> journal != null ? journal.lastSequence() : 0);
     }
 
     @JmsListener(destination = "${requestQueue}", selector = "_type='ir.ramtung.tinyme.messaging.request.EnterOrderRq'")
     public void receiveEnterOrderRq(EnterOrderRq enterOrderRq) {
-        log.info("Received message: " + enterOrderRq);
-        orderHandler.handleEnterOrder(enterOrderRq);
+        audit(enterOrderRq);
+        dispatch(enterOrderRq, enterOrderRq.getSecurityIsin(), LatencyStage.ENTER_ORDER, enterOrderRq.getRequestType(), () -> orderHandler.handleEnterOrder(enterOrderRq));
     }
 
     @JmsListener(destination = "${requestQueue}", selector = "_type='ir.ramtung.tinyme.messaging.request.DeleteOrderRq'")
     public void receiveDeleteOrderRq(DeleteOrderRq deleteOrderRq) {
-        log.info("Received message: " + deleteOrderRq);
-        orderHandler.handleDeleteOrder(deleteOrderRq);
+        audit(deleteOrderRq);
+        dispatch(deleteOrderRq, deleteOrderRq.getSecurityIsin(), LatencyStage.DELETE_ORDER, null, () -> orderHandler.handleDeleteOrder(deleteOrderRq));
     }
 
     @JmsListener(destination = "${requestQueue}", selector = "_type='ir.ramtung.tinyme.messaging.request.ChangeMatchingStateRq'")
     public void receiveChangeMatchingStateRq(ChangeMatchingStateRq changeMatchingStateRq) {
-        log.info("Received message: " + changeMatchingStateRq);
-        securityConfigurationHandler.handleMatchingStateRq(changeMatchingStateRq);
+        audit(changeMatchingStateRq);
+        dispatch(changeMatchingStateRq, changeMatchingStateRq.getSecurityIsin(), LatencyStage.CHANGE_MATCHING_STATE, null, () -> securityConfigurationHandler.handleMatchingStateRq(changeMatchingStateRq));
     }
 }
@@ -0,0 +1,79 @@
+package ir.ramtung.tinyme.messaging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * A bounded multi-producer, single-consumer ring of pre-allocated entries. Producers claim a
+ * sequence, fill the entry in place and publish it; the consumer takes every entry published so
+ * far as one batch and releases the slots only after the whole batch is handled.
+ * <p>
+ * A producer that finds the ring full waits for the consumer, which pushes back on the JMS
+ * listener instead of letting the backlog grow without bound.
+ */
+public class RingBuffer<E> {
+    private final E[] entries;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final AtomicLongArray published;
+    private volatile long released = -1;
+
+    @SuppressWarnings("unchecked")
+    public RingBuffer(int capacity, Supplier<E> factory) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        entries = (E[]) new Object[capacity];
+        for (int i = 0; i < capacity; i++)
+            entries[i] = factory.get();
+        mask = capacity - 1;
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            published.set(i, -1);
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    /**
+     * @return the next sequence, once its slot has been released by the consumer
+     */
+    public long claim() {
+        long sequence = claimed.incrementAndGet();
+        while (sequence - entries.length > released)
+            LockSupport.parkNanos(1_000);
+        return sequence;
+    }
+
+    public E get(long sequence) {
+        return entries[(int) sequence & mask];
+    }
+
+    public void publish(long sequence) {
+        published.set((int) sequence & mask, sequence);
+    }
+
+    /**
+     * @return the last of the consecutive sequences published from {@code from} on, or {@code from - 1} if none is
+     */
+    public long highestPublished(long from) {
+        long sequence = from;
+        while (published.get((int) sequence & mask) == sequence)
+            sequence++;
+        return sequence - 1;
+    }
+
+    public void release(long upTo) {
+        released = upTo;
+    }
+
+    public long lastClaimed() {
+        return claimed.get();
+    }
+
+    public long depth() {
+        return claimed.get() - released;
+    }
+}
@@ -0,0 +1,274 @@
+package ir.ramtung.tinyme.messaging;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs requests on a fixed set of single-threaded shards chosen by security ISIN. All the requests
+ * of one security run on the same thread in the order they were submitted, so an order book is
+ * only ever touched by one thread, while different securities are matched in parallel.
+ * <p>
+ * Requests reach a shard through a pre-allocated {@link RingBuffer}. The JMS listener threads
+ * decode a message and publish it into the ring; the shard thread takes everything published so
+ * far as one batch and never waits on anything but the ring itself. A listener only waits when
+ * the ring of its own shard is full, which holds up no other shard.
+ * <p>
+ * State shared between securities is safe as follows: the repositories are filled before any
+ * request arrives and only read afterwards, and broker credit is updated atomically (see
+ * {@link ir.ramtung.tinyme.domain.entity.Broker}). Shareholder positions are not shared at all: each
+ * security keeps its own {@link ir.ramtung.tinyme.domain.entity.PositionLedger}, which is written
+ * only by the shard of that security and so needs no synchronization. Positions must therefore be
+ * read and changed on that shard; only the list of securities a shareholder holds is appended to
+ * from several shards, under the shareholder's lock.
+ * <p>
+ * The shards are stopped, after handling what was submitted to them, right after the JMS
+ * listeners, which stop in the default phase, and before the {@link EventPublisher} and any bean
+ * is destroyed, so that the books are quiet by the time they are saved.
+ */
+@Component
+@DependsOn("eventPublisher")
+public class ShardedExecutor implements SmartLifecycle {
+    static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 1;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final Runnable NOTHING = () -> {};
+
+    private final Logger log = Logger.getLogger(this.getClass().getName());
+    private final Shard[] shards;
+
+    @Autowired
+    public ShardedExecutor(@Value("${shardCount:0}") int shardCount,
+                           @Value("${shardQueueCapacity:4096}") int queueCapacity) {
+        if (shardCount <= 0)
+            shardCount = Runtime.getRuntime().availableProcessors();
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++)
+            shards[i] = new Shard(i, queueCapacity);
+    }
+
+    public ShardedExecutor(int shardCount) {
+        this(shardCount, 4096);
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    public int shardOf(String securityIsin) {
+        return Math.floorMod(Objects.hashCode(securityIsin), shards.length);
+    }
+
+    public void execute(String securityIsin, Runnable request) {
+        shards[shardOf(securityIsin)].submit(securityIsin, request);
+    }
+
+    /**
+     * Like {@link #execute}, except that the request is made once it has its place in the ring,
+     * while no other request can be placed on its shard through this method, so whatever making
+     * it records, such as a journal sequence number, is in the order the shard runs the requests.
+     */
+    public void executeInOrder(String securityIsin, Supplier<Runnable> request) {
+        shards[shardOf(securityIsin)].submitInOrder(securityIsin, request);
+    }
+
+    /**
+     * Runs the task on the given shard, after the requests already submitted to it.
+     */
+    public void executeOn(int shard, Runnable task) {
+        shards[shard].submit(null, task);
+    }
+
+    /**
+     * Runs the task on every shard, given the shard index, after every request placed by
+     * {@link #executeInOrder} so far and before any placed later.
+     * @return what {@code cut} gives at that point, while no request can be placed
+     */
+    public long executeOnEveryShard(IntConsumer task, LongSupplier cut) {
+        return executeOnShardsFrom(0, task, cut);
+    }
+
+    private long executeOnShardsFrom(int index, IntConsumer task, LongSupplier cut) {
+        if (index == shards.length)
+            return cut.getAsLong();
+        synchronized (shards[index].orderLock) {
+            shards[index].submit(null, () -> task.accept(index));
+            return executeOnShardsFrom(index + 1, task, cut);
+        }
+    }
+
+    public List<ShardStats> stats() {
+        return Arrays.stream(shards).map(Shard::stats).toList();
+    }
+
+    /**
+     * Stops accepting requests and waits for the ones already submitted to finish.
+     */
+    public void shutdown() throws InterruptedException {
+        for (Shard shard : shards)
+            shard.stop();
+        for (Shard shard : shards)
+            shard.thread.join(TimeUnit.MINUTES.toMillis(1));
+    }
+
+    /**
+     * The shards start running when they are created.
+     */
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        try {
+            shutdown();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return Arrays.stream(shards).anyMatch(shard -> shard.running);
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * @param depth          requests waiting in the ring, including the batch being handled
+     * @param meanWaitNanos  mean time from publishing a request to starting it
+     * @param maxWaitNanos   longest such time
+     * @param meanServiceNanos mean time spent handling a request
+     */
+    public record ShardStats(int shard, long depth, long processed, long batches,
+                             long meanWaitNanos, long maxWaitNanos, long meanServiceNanos) {
+    }
+
+    private static final class Slot {
+        String securityIsin;
+        Runnable request;
+        long publishedAt;
+    }
+
+    private final class Shard {
+        private final int index;
+        private final RingBuffer<Slot> ring;
+        private final Thread thread;
+        private final Object orderLock = new Object();
+        private volatile boolean running = true;
+        private volatile boolean idle = false;
+        private volatile long processed = 0;
+        private volatile long batches = 0;
+        private volatile long totalWaitNanos = 0;
+        private volatile long maxWaitNanos = 0;
+        private volatile long totalServiceNanos = 0;
+
+        Shard(int index, int capacity) {
+            this.index = index;
+            ring = new RingBuffer<>(capacity, Slot::new);
+            thread = new Thread(this::run, "shard-" + index);
+            thread.start();
+        }
+
+        void submit(String securityIsin, Runnable request) {
+            if (!running)
+                throw new RejectedExecutionException("Shard " + index + " is shut down");
+            publish(ring.claim(), securityIsin, request);
+        }
+
+        /**
+         * A request that cannot be made still fills its place, with nothing, so the shard does not
+         * wait for it.
+         */
+        void submitInOrder(String securityIsin, Supplier<Runnable> request) {
+            synchronized (orderLock) {
+                if (!running)
+                    throw new RejectedExecutionException("Shard " + index + " is shut down");
+                long sequence = ring.claim();
+                Runnable made = NOTHING;
+                try {
+                    made = request.get();
+                } finally {
+                    publish(sequence, securityIsin, made);
+                }
+            }
+        }
+
+        private void publish(long sequence, String securityIsin, Runnable request) {
+            Slot slot = ring.get(sequence);
+            slot.securityIsin = securityIsin;
+            slot.request = request;
+            slot.publishedAt = System.nanoTime();
+            ring.publish(sequence);
+            if (idle)
+                LockSupport.unpark(thread);
+        }
+
+        void stop() {
+            synchronized (orderLock) {
+                running = false;
+            }
+            LockSupport.unpark(thread);
+        }
+
+        private void run() {
+            long next = 0;
+            while (running || next <= ring.lastClaimed()) {
+                long available = ring.highestPublished(next);
+                if (available < next) {
+                    idle = true;
+                    if (ring.highestPublished(next) < next)
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    idle = false;
+                    continue;
+                }
+                for (long sequence = next; sequence <= available; sequence++)
+                    handle(ring.get(sequence));
+                ring.release(available);
+                batches++;
+                next = available + 1;
+            }
+        }
+
+        private void handle(Slot slot) {
+            long startedAt = System.nanoTime();
+            long wait = startedAt - slot.publishedAt;
+            try {
+                slot.request.run();
+            } catch (RuntimeException ex) {
+                log.log(Level.SEVERE, "Request on " + slot.securityIsin + " failed", ex);
+            } finally {
+                slot.request = null;
+                slot.securityIsin = null;
+            }
+            totalServiceNanos += System.nanoTime() - startedAt;
+            totalWaitNanos += wait;
+            if (wait > maxWaitNanos)
+                maxWaitNanos = wait;
+            processed++;
+        }
+
+        ShardStats stats() {
+            long count = processed;
+            return new ShardStats(index, ring.depth(), count, batches,
+                    count == 0 ? 0 : totalWaitNanos / count, maxWaitNanos,
+                    count == 0 ? 0 : totalServiceNanos / count);
+        }
+    }
+}
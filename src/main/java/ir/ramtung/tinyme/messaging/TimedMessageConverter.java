@@ -0,0 +1,35 @@
+package ir.ramtung.tinyme.messaging;
+
+import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
+import ir.ramtung.tinyme.monitoring.Latency;
+import ir.ramtung.tinyme.monitoring.LatencyStage;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.Session;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.jms.support.converter.MessageConverter;
+
+/**
+ * Records how long decoding each incoming message takes as its {@link LatencyStage#DECODE} latency.
+ */
+class TimedMessageConverter implements MessageConverter {
+    private final MessageConverter converter;
+
+    TimedMessageConverter(MessageConverter converter) {
+        this.converter = converter;
+    }
+
+    @Override
+    public Message toMessage(Object object, Session session) throws JMSException, MessageConversionException {
+        return converter.toMessage(object, session);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws JMSException, MessageConversionException {
+        long start = System.nanoTime();
+        Object decoded = converter.fromMessage(message);
+        Latency.record(LatencyStage.DECODE,
+                decoded instanceof EnterOrderRq enterOrderRq ? enterOrderRq.getRequestType() : null, start);
+        return decoded;
+    }
+}
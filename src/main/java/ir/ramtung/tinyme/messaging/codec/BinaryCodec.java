@@ -0,0 +1,301 @@
+package ir.ramtung.tinyme.messaging.codec;
+
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.messaging.TradeDTO;
+import ir.ramtung.tinyme.messaging.event.*;
+import ir.ramtung.tinyme.messaging.request.*;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Fixed-layout little-endian encoding of the requests and events. Every message starts with a
+ * one-byte schema version followed by its fields in declaration order:
+ * <ul>
+ *     <li>{@code long}/{@code int} as 8/4 bytes, enums as a one-byte ordinal (-1 for null)</li>
+ *     <li>strings as a two-byte length (-1 for null) and UTF-8 bytes</li>
+ *     <li>{@link LocalDateTime} as 8-byte epoch seconds and 4-byte nanos, in UTC</li>
+ *     <li>lists as a four-byte count followed by the elements</li>
+ * </ul>
+ * The message type is not part of the body; it is carried next to it, like the JSON encoding does.
+ */
+public final class BinaryCodec {
+    public static final byte SCHEMA_VERSION = 1;
+
+    private record Layout<T>(BiConsumer<T, ByteBuffer> encoder, Function<ByteBuffer, T> decoder) {
+    }
+
+    private static final Map<Class<?>, Layout<?>> LAYOUTS = new HashMap<>();
+    private static final Map<String, Class<?>> TYPES_BY_NAME = new HashMap<>();
+    private static final Field EVENT_TIME;
+
+    static {
+        register(EnterOrderRq.class, (rq, buffer) -> {
+            putEnum(buffer, rq.getRequestType());
+            buffer.putLong(rq.getRequestId());
+            putString(buffer, rq.getSecurityIsin());
+            buffer.putLong(rq.getOrderId());
+            putTime(buffer, rq.getEntryTime());
+            putEnum(buffer, rq.getSide());
+            buffer.putInt(rq.getQuantity());
+            buffer.putInt(rq.getPrice());
+            buffer.putLong(rq.getBrokerId());
+            buffer.putLong(rq.getShareholderId());
+            buffer.putInt(rq.getExtensions().peakSize());
+            buffer.putInt(rq.getExtensions().minimumExecutionQuantity());
+            buffer.putInt(rq.getExtensions().stopPrice());
+        }, buffer -> EnterOrderRq.builder()
+                .requestType(getEnum(buffer, OrderEntryType.values()))
+                .requestId(buffer.getLong())
+                .securityIsin(getString(buffer))
+                .orderId(buffer.getLong())
+                .entryTime(getTime(buffer))
+                .side(getEnum(buffer, Side.values()))
+                .quantity(buffer.getInt())
+                .price(buffer.getInt())
+                .brokerId(buffer.getLong())
+                .shareholderId(buffer.getLong())
+                .extensions(new Extensions(buffer.getInt(), buffer.getInt(), buffer.getInt()))
+                .build());
+        register(DeleteOrderRq.class, (rq, buffer) -> {
+            buffer.putLong(rq.getRequestId());
+            putString(buffer, rq.getSecurityIsin());
+            putEnum(buffer, rq.getSide());
+            buffer.putLong(rq.getOrderId());
+            putTime(buffer, rq.getEntryTime());
+        }, buffer -> DeleteOrderRq.builder()
+                .requestId(buffer.getLong())
+                .securityIsin(getString(buffer))
+                .side(getEnum(buffer, Side.values()))
+                .orderId(buffer.getLong())
+                .entryTime(getTime(buffer))
+                .build());
+        register(ChangeMatchingStateRq.class, (rq, buffer) -> {
+            buffer.putLong(rq.getRequestId());
+            putTime(buffer, rq.getEntryTime());
+            putString(buffer, rq.getSecurityIsin());
+            putEnum(buffer, rq.getTargetState());
+        }, buffer -> ChangeMatchingStateRq.builder()
+                .requestId(buffer.getLong())
+                .entryTime(getTime(buffer))
+                .securityIsin(getString(buffer))
+                .targetState(getEnum(buffer, MatchingState.values()))
+                .build());
+
+        registerEvent(OrderAcceptedEvent.class, (event, buffer) -> {
+            buffer.putLong(event.getRequestId());
+            buffer.putLong(event.getOrderId());
+        }, buffer -> new OrderAcceptedEvent(buffer.getLong(), buffer.getLong()));
+        registerEvent(OrderActivatedEvent.class, (event, buffer) -> {
+            buffer.putLong(event.getRequestId());
+            buffer.putLong(event.getOrderId());
+        }, buffer -> new OrderActivatedEvent(buffer.getLong(), buffer.getLong()));
+        registerEvent(OrderDeletedEvent.class, (event, buffer) -> {
+            buffer.putLong(event.getRequestId());
+            buffer.putLong(event.getOrderId());
+        }, buffer -> new OrderDeletedEvent(buffer.getLong(), buffer.getLong()));
+        registerEvent(OrderUpdatedEvent.class, (event, buffer) -> {
+            buffer.putLong(event.getRequestId());
+            buffer.putLong(event.getOrderId());
+        }, buffer -> new OrderUpdatedEvent(buffer.getLong(), buffer.getLong()));
+        registerEvent(OrderExecutedEvent.class, (event, buffer) -> {
+            buffer.putLong(event.getRequestId());
+            buffer.putLong(event.getOrderId());
+            putList(buffer, event.getTrades(), BinaryCodec::putTrade);
+        }, buffer -> new OrderExecutedEvent(buffer.getLong(), buffer.getLong(), getList(buffer, BinaryCodec::getTrade)));
+        registerEvent(OrderRejectedEvent.class, (event, buffer) -> {
+            buffer.putLong(event.getRequestId());
+            buffer.putLong(event.getOrderId());
+            putList(buffer, event.getErrors(), BinaryCodec::putString);
+        }, buffer -> new OrderRejectedEvent(buffer.getLong(), buffer.getLong(), getList(buffer, BinaryCodec::getString)));
+        registerEvent(OpeningPriceEvent.class, (event, buffer) -> {
+            putString(buffer, event.getSecurityIsin());
+            buffer.put((byte) (event.getOpeningPrice() == null ? 0 : 1));
+            buffer.putInt(event.getOpeningPrice() == null ? 0 : event.getOpeningPrice());
+            buffer.putInt(event.getTradableQuantity());
+        }, buffer -> {
+            String securityIsin = getString(buffer);
+            boolean hasPrice = buffer.get() != 0;
+            int price = buffer.getInt();
+            return new OpeningPriceEvent(securityIsin, hasPrice ? price : null, buffer.getInt());
+        });
+        registerEvent(SecurityStateChangedEvent.class, (event, buffer) -> {
+            putString(buffer, event.getSecurityIsin());
+            putEnum(buffer, event.getState());
+        }, buffer -> new SecurityStateChangedEvent(getString(buffer), getEnum(buffer, MatchingState.values())));
+        registerEvent(TradeEvent.class, (event, buffer) -> {
+            putString(buffer, event.getSecurityIsin());
+            buffer.putInt(event.getPrice());
+            buffer.putInt(event.getQuantity());
+            buffer.putLong(event.getBuyId());
+            buffer.putLong(event.getSellId());
+        }, buffer -> new TradeEvent(getString(buffer), buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getLong()));
+        registerEvent(DepthUpdateEvent.class, (event, buffer) -> {
+            putString(buffer, event.getSecurityIsin());
+            buffer.putLong(event.getSequence());
+            putEnum(buffer, event.getSide());
+            buffer.putInt(event.getPrice());
+            buffer.putLong(event.getQuantity());
+            putEnum(buffer, event.getAction());
+        }, buffer -> new DepthUpdateEvent(getString(buffer), buffer.getLong(), getEnum(buffer, Side.values()),
+                buffer.getInt(), buffer.getLong(), getEnum(buffer, DepthUpdateEvent.Action.values())));
+
+        try {
+            EVENT_TIME = Event.class.getDeclaredField("time");
+            EVENT_TIME.setAccessible(true);
+        } catch (NoSuchFieldException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private BinaryCodec() {
+    }
+
+    private static <T> void register(Class<T> type, BiConsumer<T, ByteBuffer> encoder, Function<ByteBuffer, T> decoder) {
+        LAYOUTS.put(type, new Layout<>(encoder, decoder));
+        TYPES_BY_NAME.put(type.getName(), type);
+    }
+
+    /**
+     * Events carry the time they were created at; it is written first and restored on decoding,
+     * the same way Jackson fills the final field.
+     */
+    private static <T extends Event> void registerEvent(Class<T> type, BiConsumer<T, ByteBuffer> encoder, Function<ByteBuffer, T> decoder) {
+        register(type, (event, buffer) -> {
+            putTime(buffer, event.getTime());
+            encoder.accept(event, buffer);
+        }, buffer -> {
+            LocalDateTime time = getTime(buffer);
+            T event = decoder.apply(buffer);
+            try {
+                EVENT_TIME.set(event, time);
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return event;
+        });
+    }
+
+    public static boolean supports(Class<?> type) {
+        return LAYOUTS.containsKey(type);
+    }
+
+    /**
+     * @return the message class with the given name, or null if it has no binary layout
+     */
+    public static Class<?> typeNamed(String name) {
+        return name == null ? null : TYPES_BY_NAME.get(name);
+    }
+
+    /**
+     * @throws java.nio.BufferOverflowException if the message does not fit in the remaining buffer
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> void encode(T message, ByteBuffer buffer) {
+        Layout<T> layout = (Layout<T>) LAYOUTS.get(message.getClass());
+        if (layout == null)
+            throw new IllegalArgumentException("No binary layout for " + message.getClass().getName());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(SCHEMA_VERSION);
+        layout.encoder().accept(message, buffer);
+    }
+
+    public static Object decode(Class<?> type, ByteBuffer buffer) {
+        Layout<?> layout = LAYOUTS.get(type);
+        if (layout == null)
+            throw new IllegalArgumentException("No binary layout for " + type.getName());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        byte version = buffer.get();
+        if (version != SCHEMA_VERSION)
+            throw new IllegalArgumentException("Unsupported schema version " + version);
+        return layout.decoder().apply(buffer);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE)
+            throw new IllegalArgumentException("String too long for the binary layout");
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putEnum(ByteBuffer buffer, Enum<?> value) {
+        buffer.put((byte) (value == null ? -1 : value.ordinal()));
+    }
+
+    private static <E extends Enum<E>> E getEnum(ByteBuffer buffer, E[] values) {
+        byte ordinal = buffer.get();
+        return ordinal < 0 ? null : values[ordinal];
+    }
+
+    private static void putTime(ByteBuffer buffer, LocalDateTime time) {
+        if (time == null) {
+            buffer.putLong(Long.MIN_VALUE);
+            buffer.putInt(0);
+            return;
+        }
+        buffer.putLong(time.toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(time.getNano());
+    }
+
+    private static LocalDateTime getTime(ByteBuffer buffer) {
+        long seconds = buffer.getLong();
+        int nanos = buffer.getInt();
+        return seconds == Long.MIN_VALUE ? null : LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+
+    private static <T> void putList(ByteBuffer buffer, List<T> values, BiConsumer<ByteBuffer, T> encoder) {
+        if (values == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(values.size());
+        for (T value : values)
+            encoder.accept(buffer, value);
+    }
+
+    private static <T> List<T> getList(ByteBuffer buffer, Function<ByteBuffer, T> decoder) {
+        int size = buffer.getInt();
+        if (size < 0)
+            return null;
+        List<T> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            values.add(decoder.apply(buffer));
+        return values;
+    }
+
+    private static void putTrade(ByteBuffer buffer, TradeDTO trade) {
+        putString(buffer, trade.securityIsin());
+        buffer.putInt(trade.price());
+        buffer.putInt(trade.quantity());
+        buffer.putLong(trade.buyOrderId());
+        buffer.putLong(trade.sellOrderId());
+    }
+
+    private static TradeDTO getTrade(ByteBuffer buffer) {
+        return new TradeDTO(getString(buffer), buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getLong());
+    }
+}
@@ -0,0 +1,69 @@
+package ir.ramtung.tinyme.messaging.codec;
+
+import jakarta.jms.BytesMessage;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.Session;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.jms.support.converter.MessageConverter;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends requests and events as {@link BytesMessage}s laid out by {@link BinaryCodec}. The class
+ * name goes in the same type property as with the JSON converter, so listener selectors keep working.
+ * Each thread encodes into its own reusable buffer, which grows when a message does not fit.
+ */
+public class BinaryMessageConverter implements MessageConverter {
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final String typeIdPropertyName;
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+
+    public BinaryMessageConverter(String typeIdPropertyName) {
+        this.typeIdPropertyName = typeIdPropertyName;
+    }
+
+    @Override
+    public Message toMessage(Object object, Session session) throws JMSException, MessageConversionException {
+        if (!BinaryCodec.supports(object.getClass()))
+            throw new MessageConversionException("No binary layout for " + object.getClass().getName());
+        ByteBuffer buffer = encode(object);
+        BytesMessage message = session.createBytesMessage();
+        message.writeBytes(buffer.array(), 0, buffer.position());
+        message.setStringProperty(typeIdPropertyName, object.getClass().getName());
+        return message;
+    }
+
+    private ByteBuffer encode(Object object) {
+        ByteBuffer buffer = buffers.get();
+        while (true) {
+            buffer.clear();
+            try {
+                BinaryCodec.encode(object, buffer);
+                return buffer;
+            } catch (BufferOverflowException ex) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffers.set(buffer);
+            }
+        }
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws JMSException, MessageConversionException {
+        if (!(message instanceof BytesMessage bytesMessage))
+            throw new MessageConversionException("Expected a BytesMessage but got " + message.getClass().getName());
+        String typeId = message.getStringProperty(typeIdPropertyName);
+        Class<?> type = BinaryCodec.typeNamed(typeId);
+        if (type == null)
+            throw new MessageConversionException("No binary layout for " + typeId);
+        byte[] body = new byte[(int) bytesMessage.getBodyLength()];
+        bytesMessage.readBytes(body);
+        try {
+            return BinaryCodec.decode(type, ByteBuffer.wrap(body));
+        } catch (RuntimeException ex) {
+            throw new MessageConversionException("Malformed " + typeId + " message", ex);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package ir.ramtung.tinyme.messaging.event;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import ir.ramtung.tinyme.domain.entity.Side;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+/**
+ * The new quantity shown at a price of a security's book, icebergs counting only their displayed
+ * part. The updates of a security are numbered from one, so a gap in the sequence means an update
+ * was lost.
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@AllArgsConstructor
+@NoArgsConstructor
+public class DepthUpdateEvent extends Event {
+    public enum Action {
+        ADDED, CHANGED, REMOVED
+    }
+
+    String securityIsin;
+    long sequence;
+    @JsonFormat(shape = JsonFormat.Shape.STRING)
+    Side side;
+    int price;
+    long quantity;
+    @JsonFormat(shape = JsonFormat.Shape.STRING)
+    Action action;
+}
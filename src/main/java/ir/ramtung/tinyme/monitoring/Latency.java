@@ -0,0 +1,118 @@
+package ir.ramtung.tinyme.monitoring;
+
+import ir.ramtung.tinyme.domain.entity.MatchingOutcome;
+import ir.ramtung.tinyme.messaging.request.MatchingState;
+import ir.ramtung.tinyme.messaging.request.OrderEntryType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records how long each {@link LatencyStage} of a request takes, broken down by order entry type,
+ * matching state and matching outcome where they are known.
+ * <p>
+ * Recording is always on. Every thread records into histograms of its own, so each shard and
+ * each listener thread is the single writer of its histograms and recording takes no lock. The
+ * histogram of a combination is created the first time the thread records it. {@link #summaries()}
+ * merges the histograms of all threads.
+ */
+public final class Latency {
+    private static final int ENTRY_TYPES = OrderEntryType.values().length + 1;
+    private static final int MATCHING_STATES = MatchingState.values().length + 1;
+    private static final int OUTCOMES = MatchingOutcome.values().length + 1;
+    private static final int KEYS = LatencyStage.values().length * ENTRY_TYPES * MATCHING_STATES * OUTCOMES;
+
+    private static final List<LatencyHistogram[]> recorders = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<LatencyHistogram[]> recorder = ThreadLocal.withInitial(() -> {
+        LatencyHistogram[] histograms = new LatencyHistogram[KEYS];
+        recorders.add(histograms);
+        return histograms;
+    });
+
+    private Latency() {
+    }
+
+    /**
+     * Records the time from {@code startNanos}, a {@link System#nanoTime()} reading, until now.
+     * Dimensions that are not known or do not apply are null.
+     */
+    public static void record(LatencyStage stage, OrderEntryType entryType, MatchingState matchingState,
+                              MatchingOutcome outcome, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        int key = keyOf(stage, entryType, matchingState, outcome);
+        LatencyHistogram[] histograms = recorder.get();
+        LatencyHistogram histogram = histograms[key];
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            histograms[key] = histogram;
+        }
+        histogram.record(nanos);
+    }
+
+    public static void record(LatencyStage stage, OrderEntryType entryType, long startNanos) {
+        record(stage, entryType, null, null, startNanos);
+    }
+
+    private static int keyOf(LatencyStage stage, OrderEntryType entryType, MatchingState matchingState,
+                             MatchingOutcome outcome) {
+        int key = stage.ordinal();
+        key = key * ENTRY_TYPES + (entryType == null ? 0 : entryType.ordinal() + 1);
+        key = key * MATCHING_STATES + (matchingState == null ? 0 : matchingState.ordinal() + 1);
+        return key * OUTCOMES + (outcome == null ? 0 : outcome.ordinal() + 1);
+    }
+
+    /**
+     * @return a summary of every combination recorded so far, in stage order
+     */
+    public static List<LatencySummary> summaries() {
+        LatencyHistogram[] merged = new LatencyHistogram[KEYS];
+        for (LatencyHistogram[] histograms : recorders) {
+            for (int key = 0; key < KEYS; key++) {
+                LatencyHistogram histogram = histograms[key];
+                if (histogram == null)
+                    continue;
+                if (merged[key] == null)
+                    merged[key] = new LatencyHistogram();
+                merged[key].add(histogram);
+            }
+        }
+        List<LatencySummary> summaries = new ArrayList<>();
+        for (int key = 0; key < KEYS; key++) {
+            if (merged[key] == null || merged[key].count() == 0)
+                continue;
+            int rest = key;
+            MatchingOutcome outcome = rest % OUTCOMES == 0 ? null : MatchingOutcome.values()[rest % OUTCOMES - 1];
+            rest /= OUTCOMES;
+            MatchingState matchingState = rest % MATCHING_STATES == 0 ? null : MatchingState.values()[rest % MATCHING_STATES - 1];
+            rest /= MATCHING_STATES;
+            OrderEntryType entryType = rest % ENTRY_TYPES == 0 ? null : OrderEntryType.values()[rest % ENTRY_TYPES - 1];
+            rest /= ENTRY_TYPES;
+            summaries.add(LatencySummary.of(LatencyStage.values()[rest], entryType, matchingState, outcome, merged[key]));
+        }
+        return summaries;
+    }
+
+    /**
+     * @return the latencies of a stage across all entry types, matching states and outcomes
+     */
+    public static LatencyHistogram histogramOf(LatencyStage stage) {
+        int from = keyOf(stage, null, null, null);
+        int to = from + ENTRY_TYPES * MATCHING_STATES * OUTCOMES;
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram[] histograms : recorders) {
+            for (int key = from; key < to; key++) {
+                if (histograms[key] != null)
+                    merged.add(histograms[key]);
+            }
+        }
+        return merged;
+    }
+
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (LatencySummary summary : summaries())
+            report.append(summary).append(System.lineSeparator());
+        return report.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package ir.ramtung.tinyme.monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of nanosecond latencies with log-linear buckets, in the manner of HdrHistogram:
+ * values below {@value #SUB_BUCKETS} get a bucket each, and every doubling above that is split
+ * into {@value #HALF_SUB_BUCKETS} buckets, so a value is never off by more than 1/64 of itself.
+ * Values above {@link #MAX_VALUE} (about 18 minutes) are counted as {@code MAX_VALUE}.
+ * <p>
+ * A histogram has a single writer, which publishes each count with an ordered store instead of
+ * a locked or compare-and-set update. Any thread may read it, seeing each count as it was at
+ * some point during the read.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    static final long MAX_VALUE = (1L << 40) - 1;
+    private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private volatile long max;
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) Math.max(0, value);
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the largest value counted in the bucket
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+        long subBucket = index - (long) shift * HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Must only be called by the writer.
+     */
+    public void record(long nanos) {
+        long value = Math.min(nanos, MAX_VALUE);
+        int index = indexOf(value);
+        counts.lazySet(index, counts.get(index) + 1);
+        if (value > max)
+            max = value;
+    }
+
+    /**
+     * Adds the counts of another histogram to this one, which must not be shared with a writer.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0)
+                counts.lazySet(i, counts.get(i) + count);
+        }
+        if (other.max > max)
+            max = other.max;
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            count += counts.get(i);
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * @return the value no more than the given percent of the recorded values are above, rounded
+     * up to the top of its bucket, or 0 if nothing has been recorded
+     */
+    public long valueAtPercentile(double percentile) {
+        long count = count();
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestValueAt(i), max);
+        }
+        return max;
+    }
+
+    public double mean() {
+        long count = 0;
+        double total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long inBucket = counts.get(i);
+            if (inBucket != 0) {
+                count += inBucket;
+                total += (double) inBucket * Math.min(middleValueAt(i), max);
+            }
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    private static long middleValueAt(int index) {
+        long lowest = index == 0 ? 0 : highestValueAt(index - 1) + 1;
+        return (lowest + highestValueAt(index)) / 2;
+    }
+}
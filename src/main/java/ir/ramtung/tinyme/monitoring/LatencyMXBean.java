@@ -0,0 +1,23 @@
+package ir.ramtung.tinyme.monitoring;
+
+public interface LatencyMXBean {
+    /**
+     * @return one line per recorded combination, as {@link LatencySummary#toString()} formats it
+     */
+    String[] getSummaries();
+
+    /**
+     * @return the 99.9th percentile of whole enter order requests, in nanoseconds
+     */
+    long getEnterOrderP999Nanos();
+
+    /**
+     * @return one line per shard and one for the publish stage, as their stats records format them
+     */
+    String[] getPipelineStages();
+
+    /**
+     * @return the number of flushed requests whose events wait for the sender
+     */
+    long getPublishStageDepth();
+}
@@ -0,0 +1,138 @@
+package ir.ramtung.tinyme.monitoring;
+
+import com.sun.net.httpserver.HttpServer;
+import ir.ramtung.tinyme.messaging.EventPublisher;
+import ir.ramtung.tinyme.messaging.ShardedExecutor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes the {@link Latency} summaries available, along with the depth, throughput and waits of
+ * every shard and of the publish stage: as the {@value #OBJECT_NAME} MBean, in the log every
+ * {@code latency.logIntervalSeconds}, and, when {@code latency.httpPort} is set, as plain text at
+ * {@code http://127.0.0.1:<port>/latency}. The HTTP server only listens on the loopback interface.
+ */
+@Component
+public class LatencyReporter implements LatencyMXBean {
+    static final String OBJECT_NAME = "ir.ramtung.tinyme:type=Latency";
+
+    private final Logger log = Logger.getLogger(this.getClass().getName());
+    private final long logIntervalSeconds;
+    private final int httpPort;
+    private final ShardedExecutor shardedExecutor;
+    private final EventPublisher eventPublisher;
+    private ScheduledExecutorService scheduler;
+    private HttpServer httpServer;
+    private ObjectName objectName;
+
+    public LatencyReporter(@Value("${latency.logIntervalSeconds:60}") long logIntervalSeconds,
+                           @Value("${latency.httpPort:0}") int httpPort,
+                           ShardedExecutor shardedExecutor, EventPublisher eventPublisher) {
+        this.logIntervalSeconds = logIntervalSeconds;
+        this.httpPort = httpPort;
+        this.shardedExecutor = shardedExecutor;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @PostConstruct
+    public void start() throws IOException, JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        objectName = new ObjectName(OBJECT_NAME);
+        if (!mBeanServer.isRegistered(objectName))
+            mBeanServer.registerMBean(this, objectName);
+
+        if (logIntervalSeconds > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "latency-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::logSummaries, logIntervalSeconds, logIntervalSeconds, TimeUnit.SECONDS);
+        }
+
+        if (httpPort > 0) {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+            httpServer.createContext("/latency", exchange -> {
+                byte[] body = report().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            httpServer.start();
+            log.info("Latency summaries served at http://127.0.0.1:" + httpPort + "/latency");
+        }
+    }
+
+    private void logSummaries() {
+        try {
+            log.info("Latency so far:" + System.lineSeparator() + report());
+        } catch (RuntimeException ex) {
+            log.log(Level.WARNING, "Could not report latency", ex);
+        }
+    }
+
+    String report() {
+        StringBuilder report = new StringBuilder(Latency.report());
+        for (String stage : getPipelineStages())
+            report.append(stage).append(System.lineSeparator());
+        return report.toString();
+    }
+
+    @PreDestroy
+    public void stop() throws JMException, InterruptedException {
+        if (httpServer != null)
+            httpServer.stop(0);
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        if (objectName != null && mBeanServer.isRegistered(objectName))
+            mBeanServer.unregisterMBean(objectName);
+    }
+
+    @Override
+    public String[] getSummaries() {
+        return Latency.summaries().stream().map(LatencySummary::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public long getEnterOrderP999Nanos() {
+        LatencyHistogram histogram = Latency.histogramOf(LatencyStage.ENTER_ORDER);
+        return histogram.valueAtPercentile(99.9);
+    }
+
+    @Override
+    public String[] getPipelineStages() {
+        List<String> stages = new ArrayList<>();
+        shardedExecutor.stats().forEach(stats -> stages.add(stats.toString()));
+        stages.add(eventPublisher.stats().toString());
+        return stages.toArray(String[]::new);
+    }
+
+    @Override
+    public long getPublishStageDepth() {
+        return eventPublisher.stats().depth();
+    }
+}
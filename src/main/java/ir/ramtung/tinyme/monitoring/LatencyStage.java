@@ -0,0 +1,25 @@
+package ir.ramtung.tinyme.monitoring;
+
+/**
+ * The steps a request's latency is recorded for. The last three cover a whole request, from the
+ * moment its listener dispatches it until the events it published are flushed, including the
+ * time it waits for its shard.
+ */
+public enum LatencyStage {
+    DECODE,
+    VALIDATION,
+    /**
+     * Handing the order to the matching strategy of its security, including the stop orders it
+     * activates.
+     */
+    MATCHING,
+    ACTIVATION,
+    /**
+     * Calculating the opening price while in auction, or executing the auction when it opens.
+     */
+    AUCTION,
+    PUBLISHING,
+    ENTER_ORDER,
+    DELETE_ORDER,
+    CHANGE_MATCHING_STATE
+}
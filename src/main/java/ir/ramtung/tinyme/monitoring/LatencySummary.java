@@ -0,0 +1,37 @@
+package ir.ramtung.tinyme.monitoring;
+
+import ir.ramtung.tinyme.domain.entity.MatchingOutcome;
+import ir.ramtung.tinyme.messaging.request.MatchingState;
+import ir.ramtung.tinyme.messaging.request.OrderEntryType;
+
+/**
+ * The latencies recorded for one stage and combination of entry type, matching state and
+ * outcome, in nanoseconds. A null dimension was not known or does not apply to the stage.
+ */
+public record LatencySummary(LatencyStage stage, OrderEntryType entryType, MatchingState matchingState,
+                             MatchingOutcome outcome, long count, long mean, long p50, long p99,
+                             long p999, long max) {
+    static LatencySummary of(LatencyStage stage, OrderEntryType entryType, MatchingState matchingState,
+                             MatchingOutcome outcome, LatencyHistogram histogram) {
+        return new LatencySummary(stage, entryType, matchingState, outcome, histogram.count(),
+                Math.round(histogram.mean()), histogram.valueAtPercentile(50), histogram.valueAtPercentile(99),
+                histogram.valueAtPercentile(99.9), histogram.max());
+    }
+
+    public String key() {
+        StringBuilder key = new StringBuilder(stage.name());
+        if (entryType != null)
+            key.append('/').append(entryType);
+        if (matchingState != null)
+            key.append('/').append(matchingState);
+        if (outcome != null)
+            key.append('/').append(outcome);
+        return key.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-70s count=%d mean=%dns p50=%dns p99=%dns p99.9=%dns max=%dns",
+                key(), count, mean, p50, p99, p999, max);
+    }
+}
@@ -0,0 +1,260 @@
+package ir.ramtung.tinyme.query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ir.ramtung.tinyme.domain.entity.OrderBook;
+import ir.ramtung.tinyme.domain.entity.Security;
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.entity.queues.PriceLevelQueue;
+import ir.ramtung.tinyme.messaging.ShardedExecutor;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Answers depth and order queries while requests are being matched, without locking a book or
+ * stopping its shard.
+ * <p>
+ * Depth is served from an immutable {@link DepthSnapshot} kept per security. A query is answered
+ * from the kept snapshot while the book's depth version has not moved, or while the snapshot is
+ * younger than {@code query.maxStalenessMillis}, 50 ms by default. Otherwise a copy of the levels
+ * is taken on the book's shard between two requests; queries that arrive while a copy is pending
+ * share it, so however many readers poll a busy book, the shard copies it at most once per
+ * window, and not at all when nobody asks. With the window set to 0 every query sees the latest
+ * depth, at the cost of a copy per change of the book. An order is looked up on its shard the same
+ * way, which costs the shard one index lookup.
+ * <p>
+ * Results are completed on a pool of {@code query.readerThreads} threads, never on a shard. When
+ * {@code query.httpPort} is set, the queries are also served as JSON at
+ * {@code /depth?isin=...} and {@code /order?isin=...&side=...&id=...} on the loopback interface.
+ */
+@Component
+@ConditionalOnProperty(name = "query.enabled", havingValue = "true")
+public class BookQueryService {
+    private static final long HTTP_TIMEOUT_MILLIS = 5_000;
+
+    private final Logger log = Logger.getLogger(this.getClass().getName());
+    private final SecurityRepository securityRepository;
+    private final ShardedExecutor shardedExecutor;
+    private final long maxStalenessNanos;
+    private final int httpPort;
+    private final ExecutorService readers;
+    private final Map<String, Book> books = new ConcurrentHashMap<>();
+    private final ObjectMapper json = new ObjectMapper();
+    private HttpServer httpServer;
+
+    public BookQueryService(SecurityRepository securityRepository, ShardedExecutor shardedExecutor,
+                            @Value("${query.readerThreads:2}") int readerThreads,
+                            @Value("${query.maxStalenessMillis:50}") long maxStalenessMillis,
+                            @Value("${query.httpPort:0}") int httpPort) {
+        this.securityRepository = securityRepository;
+        this.shardedExecutor = shardedExecutor;
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+        this.httpPort = httpPort;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.readers = Executors.newFixedThreadPool(Math.max(1, readerThreads), task -> {
+            Thread thread = new Thread(task, "book-query-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the depth of the security, or null if there is no such security
+     */
+    public CompletableFuture<DepthSnapshot> depth(String securityIsin) {
+        Book book = bookOf(securityIsin);
+        if (book == null)
+            return CompletableFuture.completedFuture(null);
+        DepthSnapshot kept = book.snapshot;
+        if (kept != null && isFresh(kept, book.orderBook()))
+            return CompletableFuture.completedFuture(kept);
+        CompletableFuture<DepthSnapshot> copy = new CompletableFuture<>();
+        CompletableFuture<DepthSnapshot> pending = book.pendingCopy.compareAndExchange(null, copy);
+        if (pending != null)
+            return pending;
+        try {
+            shardedExecutor.executeOn(book.shard, () -> {
+                DepthSnapshot snapshot = book.copy();
+                book.snapshot = snapshot;
+                book.pendingCopy.set(null);
+                readers.execute(() -> copy.complete(snapshot));
+            });
+        } catch (RejectedExecutionException ex) {
+            book.pendingCopy.set(null);
+            copy.completeExceptionally(ex);
+        }
+        return copy;
+    }
+
+    private boolean isFresh(DepthSnapshot snapshot, OrderBook orderBook) {
+        return snapshot.version() == orderBook.getDepthVersion()
+                || (maxStalenessNanos > 0 && System.nanoTime() - snapshot.takenAtNanos() <= maxStalenessNanos);
+    }
+
+    /**
+     * @return the order as it rests in the book, or empty if the book holds no such order
+     */
+    public CompletableFuture<Optional<OrderView>> order(String securityIsin, Side side, long orderId) {
+        Book book = bookOf(securityIsin);
+        if (book == null)
+            return CompletableFuture.completedFuture(Optional.empty());
+        CompletableFuture<Optional<OrderView>> result = new CompletableFuture<>();
+        try {
+            shardedExecutor.executeOn(book.shard, () -> {
+                Order order = book.orderBook().findByOrderId(side, orderId);
+                Optional<OrderView> view = Optional.ofNullable(order).map(OrderView::of);
+                readers.execute(() -> result.complete(view));
+            });
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * The repository is filled before any query can arrive and only read afterwards, so it may be
+     * searched from the reader threads.
+     */
+    private Book bookOf(String securityIsin) {
+        if (securityIsin == null)
+            return null;
+        return books.computeIfAbsent(securityIsin, isin -> {
+            Security security = securityRepository.findSecurityByIsin(isin);
+            return security == null ? null : new Book(security, shardedExecutor.shardOf(isin));
+        });
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (httpPort <= 0)
+            return;
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+        httpServer.setExecutor(readers);
+        httpServer.createContext("/depth", exchange -> respond(exchange, () -> depth(parametersOf(exchange).get("isin"))));
+        httpServer.createContext("/order", exchange -> respond(exchange, () -> {
+            Map<String, String> parameters = parametersOf(exchange);
+            return order(parameters.get("isin"), Side.valueOf(parameters.get("side")), Long.parseLong(parameters.get("id")))
+                    .thenApply(view -> view.orElse(null));
+        }));
+        httpServer.start();
+        log.info("Book queries served at http://127.0.0.1:" + httpPort + "/depth and /order");
+    }
+
+    /**
+     * Writes the result once it is ready instead of waiting for it, so a reader thread is never
+     * held by a query whose answer has to be completed by another reader thread.
+     */
+    private void respond(HttpExchange exchange, Supplier<CompletableFuture<?>> query) {
+        CompletableFuture<?> result;
+        try {
+            result = query.get();
+        } catch (RuntimeException ex) {
+            write(exchange, 400, ex.toString());
+            return;
+        }
+        result.orTimeout(HTTP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).whenCompleteAsync((value, failure) -> {
+            if (failure != null) {
+                write(exchange, 503, failure.toString());
+                return;
+            }
+            if (value == null) {
+                write(exchange, 404, "Not found");
+                return;
+            }
+            try {
+                write(exchange, 200, json.writeValueAsString(value));
+            } catch (IOException ex) {
+                write(exchange, 500, ex.toString());
+            }
+        }, readers);
+    }
+
+    private void write(HttpExchange exchange, int status, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", status == 200 ? "application/json" : "text/plain; charset=utf-8");
+        try (OutputStream out = exchange.getResponseBody()) {
+            exchange.sendResponseHeaders(status, bytes.length);
+            out.write(bytes);
+        } catch (IOException ex) {
+            log.log(Level.FINE, "Could not answer a book query", ex);
+        }
+    }
+
+    private static Map<String, String> parametersOf(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null)
+            return parameters;
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0)
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (httpServer != null)
+            httpServer.stop(0);
+        readers.shutdown();
+        readers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private static final class Book {
+        final Security security;
+        final int shard;
+        final AtomicReference<CompletableFuture<DepthSnapshot>> pendingCopy = new AtomicReference<>();
+        volatile DepthSnapshot snapshot;
+
+        Book(Security security, int shard) {
+            this.security = security;
+            this.shard = shard;
+        }
+
+        OrderBook orderBook() {
+            return security.getOrderBook();
+        }
+
+        /**
+         * Must run on the shard of the security.
+         */
+        DepthSnapshot copy() {
+            OrderBook orderBook = orderBook();
+            return new DepthSnapshot(security.getIsin(), orderBook.getDepthVersion(), System.nanoTime(),
+                    levelsOf(orderBook.getBuyQueue()), levelsOf(orderBook.getSellQueue()));
+        }
+
+        private static List<DepthSnapshot.Level> levelsOf(PriceLevelQueue queue) {
+            List<DepthSnapshot.Level> levels = new ArrayList<>(queue.levelCount());
+            queue.forEachLevel((price, quantity, orders) -> levels.add(new DepthSnapshot.Level(price, quantity, orders)));
+            return Collections.unmodifiableList(levels);
+        }
+    }
+}
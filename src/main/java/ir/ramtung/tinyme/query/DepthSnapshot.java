@@ -0,0 +1,15 @@
+package ir.ramtung.tinyme.query;
+
+import java.util.List;
+
+/**
+ * The depth of a security's book as it was between two requests, best level first on each side,
+ * icebergs counting only their displayed quantity.
+ *
+ * @param version the {@link ir.ramtung.tinyme.domain.entity.OrderBook#getDepthVersion() depth version} the copy was taken at
+ * @param takenAtNanos the {@link System#nanoTime()} the copy was taken at
+ */
+public record DepthSnapshot(String securityIsin, long version, long takenAtNanos, List<Level> bids, List<Level> asks) {
+    public record Level(int price, long quantity, int orders) {
+    }
+}
@@ -0,0 +1,19 @@
+package ir.ramtung.tinyme.query;
+
+import ir.ramtung.tinyme.domain.entity.OrderStatus;
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+
+/**
+ * A copy of a resting order, safe to hand to another thread.
+ *
+ * @param displayedQuantity the part of the quantity shown in the book, which is less than the total only for icebergs
+ * @param active false for a stop order that has not been triggered
+ */
+public record OrderView(long orderId, Side side, int price, int totalQuantity, int displayedQuantity,
+                        boolean active, OrderStatus status) {
+    static OrderView of(Order order) {
+        return new OrderView(order.getOrderId(), order.getSide(), order.getPrice(), order.getTotalQuantity(),
+                order.getQuantity(), order.isActive(), order.getStatus());
+    }
+}
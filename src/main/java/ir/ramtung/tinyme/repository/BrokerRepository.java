@@ -3,11 +3,9 @@ package ir.ramtung.tinyme.repository;
 import ir.ramtung.tinyme.domain.entity.Broker;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
-
 @Component
 public class BrokerRepository {
-    private final HashMap<Long, Broker> brokerById = new HashMap<>();
+    private final LongKeyedMap<Broker> brokerById = new LongKeyedMap<>();
     public Broker findBrokerById(long brokerId) {
         return brokerById.get(brokerId);
     }
@@ -18,7 +16,7 @@ public class BrokerRepository {
     public void clear() {
         brokerById.clear();
     }
-    Iterable<? extends Broker> allBrokers() {
+    public Iterable<? extends Broker> allBrokers() {
         return brokerById.values();
     }
 }
@@ -0,0 +1,165 @@
+package ir.ramtung.tinyme.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Reads and writes the persistence CSV files in parallel. The files are written without quoting,
+ * so a row is simply split at commas.
+ * <p>
+ * A file is read by splitting it after its header into segments that end at line boundaries,
+ * each of which is memory-mapped and parsed on the common fork-join pool. Rows come back in file
+ * order. A file is written by rendering chunks of items in parallel, a few chunks per worker at
+ * a time, and writing the rendered chunks in order through one buffered stream.
+ */
+final class CsvFiles {
+    static final int DEFAULT_SEGMENT_BYTES = 16 << 20;
+    private static final int MIN_SEGMENT_BYTES = 1 << 16;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private CsvFiles() {
+    }
+
+    static <T> List<T> parse(Path file, Function<String[], T> rowParser) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long segmentBytes = Math.max(MIN_SEGMENT_BYTES, channel.size() / (4L * ForkJoinPool.getCommonPoolParallelism()));
+            return parse(channel, rowParser, (int) Math.min(DEFAULT_SEGMENT_BYTES, segmentBytes));
+        }
+    }
+
+    static <T> List<T> parse(Path file, Function<String[], T> rowParser, int segmentBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return parse(channel, rowParser, segmentBytes);
+        }
+    }
+
+    private static <T> List<T> parse(FileChannel channel, Function<String[], T> rowParser, int segmentBytes) throws IOException {
+        long[] bounds = segmentBounds(channel, segmentBytes);
+        List<List<T>> segments = IntStream.range(0, bounds.length - 1)
+                .parallel()
+                .mapToObj(segment -> parseSegment(channel, bounds[segment], bounds[segment + 1], rowParser))
+                .toList();
+        List<T> rows = new ArrayList<>();
+        segments.forEach(rows::addAll);
+        return rows;
+    }
+
+    /**
+     * @return the offsets segments start at, skipping the header, followed by the file size
+     */
+    private static long[] segmentBounds(FileChannel channel, int segmentBytes) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<>();
+        long start = lineEndAfter(channel, 0);
+        while (start < size) {
+            bounds.add(start);
+            start = start + segmentBytes >= size ? size : lineEndAfter(channel, start + segmentBytes);
+        }
+        bounds.add(size);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * @return the offset after the first line feed at or after the position, or the file size
+     */
+    private static long lineEndAfter(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static <T> List<T> parseSegment(FileChannel channel, long start, long end, Function<String[], T> rowParser) {
+        MappedByteBuffer segment;
+        try {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        List<T> rows = new ArrayList<>();
+        List<String> fields = new ArrayList<>();
+        byte[] line = new byte[256];
+        int length = 0;
+        while (segment.hasRemaining()) {
+            byte b = segment.get();
+            if (b != '\n') {
+                if (length == line.length)
+                    line = Arrays.copyOf(line, 2 * length);
+                line[length++] = b;
+                if (segment.hasRemaining())
+                    continue;
+            }
+            if (length > 0 && line[length - 1] == '\r')
+                length--;
+            if (length > 0)
+                rows.add(rowParser.apply(split(line, length, fields)));
+            length = 0;
+        }
+        return rows;
+    }
+
+    private static String[] split(byte[] line, int length, List<String> fields) {
+        fields.clear();
+        int from = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || line[i] == ',') {
+                fields.add(new String(line, from, i - from, StandardCharsets.UTF_8));
+                from = i + 1;
+            }
+        }
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * Writes the header and then the rows each item renders, in item order.
+     *
+     * @param itemsPerChunk how many items one worker renders at a time
+     * @param renderer appends the rows of one item, each ending with a line separator
+     */
+    static <T> void write(Path file, String header, List<? extends T> items, int itemsPerChunk,
+                          BiConsumer<T, StringBuilder> renderer) throws IOException {
+        int chunks = (items.size() + itemsPerChunk - 1) / itemsPerChunk;
+        int chunksPerWave = 2 * ForkJoinPool.getCommonPoolParallelism();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), WRITE_BUFFER_BYTES)) {
+            out.write((header + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            for (int wave = 0; wave < chunks; wave += chunksPerWave) {
+                List<byte[]> rendered = IntStream.range(wave, Math.min(chunks, wave + chunksPerWave))
+                        .parallel()
+                        .mapToObj(chunk -> {
+                            StringBuilder rows = new StringBuilder();
+                            int to = Math.min(items.size(), (chunk + 1) * itemsPerChunk);
+                            for (int i = chunk * itemsPerChunk; i < to; i++)
+                                renderer.accept(items.get(i), rows);
+                            return rows.toString().getBytes(StandardCharsets.UTF_8);
+                        })
+                        .toList();
+                for (byte[] chunk : rendered)
+                    out.write(chunk);
+            }
+        }
+    }
+}
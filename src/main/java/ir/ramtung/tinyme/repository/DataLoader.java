@@ -1,10 +1,12 @@
 package ir.ramtung.tinyme.repository;
 
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
 import ir.ramtung.tinyme.domain.entity.*;
 import ir.ramtung.tinyme.domain.entity.order.IcebergOrder;
 import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.entity.order.StopOrder;
+import ir.ramtung.tinyme.journal.JournalReplayer;
+import ir.ramtung.tinyme.journal.RequestJournal;
+import ir.ramtung.tinyme.journal.SnapshotService;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,28 +14,37 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.PrintWriter;
-import java.io.Reader;
 import java.time.LocalDateTime;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.logging.Logger;
 
 @Component
 @Profile("!test")
 public class DataLoader {
+    private static final int ROWS_PER_CHUNK = 4096;
+
     private final Logger log = Logger.getLogger(this.getClass().getName());
     private final BrokerRepository brokerRepository;
     private final ShareholderRepository shareholderRepository;
     private final SecurityRepository securityRepository;
+    private final Optional<RequestJournal> journal;
+    private final Optional<JournalReplayer> journalReplayer;
+    private final Optional<SnapshotService> snapshotService;
 
-    public DataLoader(BrokerRepository brokerRepository, ShareholderRepository shareholderRepository, SecurityRepository securityRepository) {
+    public DataLoader(BrokerRepository brokerRepository, ShareholderRepository shareholderRepository, SecurityRepository securityRepository,
+                      Optional<RequestJournal> journal, Optional<JournalReplayer> journalReplayer,
+                      Optional<SnapshotService> snapshotService) {
         this.brokerRepository = brokerRepository;
         this.shareholderRepository = shareholderRepository;
         this.securityRepository = securityRepository;
+        this.journal = journal;
+        this.journalReplayer = journalReplayer;
+        this.snapshotService = snapshotService;
     }
 
     @Value("classpath:persistence/broker.csv")
@@ -46,194 +57,225 @@ public class DataLoader {
     private Resource positionCsvResource;
     @Value("classpath:persistence/orderbook.csv")
     private Resource orderBookCsvResource;
+    @Value("classpath:persistence/stoporder.csv")
+    private Resource stopOrderCsvResource;
 
     @PostConstruct
     public void loadAll() throws Exception {
-        loadBrokers();
-        loadShareholders();
-        loadSecurities();
-        loadPositions();
-        loadOrderBook();
+        long journaled = 0;
+        if (snapshotService.isPresent() && snapshotService.get().exists()) {
+            journaled = snapshotService.get().load();
+        } else {
+            loadBrokers();
+            loadShareholders();
+            loadSecurities();
+            loadPositions();
+            loadOrderBook();
+        }
+        long afterSequence = journaled;
+        journalReplayer.ifPresent(replayer -> replayer.replay(afterSequence));
     }
 
+    /**
+     * Runs once the shards and the event sender have stopped, which they do as lifecycle beans
+     * before any bean is destroyed, so the books are saved as the last journaled request left them.
+     * The journal is only checkpointed up to that request.
+     */
     @PreDestroy
     public void saveAll() throws Exception {
         System.out.print("Saving persistent data ...");
+        long saved = journal.map(RequestJournal::lastSequence).orElse(0L);
         saveBrokers();
         saveShareholdersAndPositions();
         saveSecuritiesAndOrderBooks();
+        if (snapshotService.isPresent())
+            snapshotService.get().takeOffline();
+        journal.ifPresent(j -> j.checkpoint(saved));
         System.out.println(", done!");
     }
 
     private void loadBrokers() throws Exception {
         brokerRepository.clear();
-      try (Reader reader = new FileReader(brokerCsvResource.getFile())) {
-            try (CSVReader csvReader = new CSVReaderBuilder(reader).withSkipLines(1).build()) {
-                String[] line;
-                while ((line = csvReader.readNext()) != null) {
-                    brokerRepository.addBroker(Broker.builder()
-                            .brokerId(Long.parseLong(line[0]))
-                            .name(line[1])
-                            .credit(Long.parseLong(line[0]))
-                            .build());
-                }
-            }
-        }
+        List<Broker> brokers = CsvFiles.parse(brokerCsvResource.getFile().toPath(), line -> Broker.builder()
+                .brokerId(Long.parseLong(line[0]))
+                .name(line[1])
+                .credit(Long.parseLong(line[2]))
+                .build());
+        brokers.forEach(brokerRepository::addBroker);
         log.info("Brokers loaded");
     }
 
     private void loadShareholders() throws Exception {
         shareholderRepository.clear();
-        try (Reader reader = new FileReader(shareholderCsvResource.getFile())) {
-            try (CSVReader csvReader = new CSVReaderBuilder(reader).withSkipLines(1).build()) {
-                String[] line;
-                while ((line = csvReader.readNext()) != null) {
-                    shareholderRepository.addShareholder(Shareholder.builder()
-                            .shareholderId(Long.parseLong(line[0]))
-                            .name(line[1])
-                            .build());
-                }
-            }
-        }
+        List<Shareholder> shareholders = CsvFiles.parse(shareholderCsvResource.getFile().toPath(), line -> Shareholder.builder()
+                .shareholderId(Long.parseLong(line[0]))
+                .name(line[1])
+                .build());
+        shareholders.forEach(shareholderRepository::addShareholder);
         log.info("Shareholders loaded");
     }
 
     private void loadSecurities() throws Exception {
         securityRepository.clear();
-        try (Reader reader = new FileReader(securityCsvResource.getFile())) {
-            try (CSVReader csvReader = new CSVReaderBuilder(reader).withSkipLines(1).build()) {
-                String[] line;
-                while ((line = csvReader.readNext()) != null) {
-                    securityRepository.addSecurity(Security.builder()
-                            .isin(line[0])
-                            .tickSize(Integer.parseInt(line[1]))
-                            .lotSize(Integer.parseInt(line[2]))
-                            .build());
-                }
-            }
-        }
+        List<Security> securities = CsvFiles.parse(securityCsvResource.getFile().toPath(), line -> Security.builder()
+                .isin(line[0])
+                .tickSize(Integer.parseInt(line[1]))
+                .lotSize(Integer.parseInt(line[2]))
+                .build());
+        securities.forEach(securityRepository::addSecurity);
         log.info("Securities loaded");
     }
 
+    private record Position(Shareholder shareholder, Security security, int quantity) {
+    }
+
+    /**
+     * The positions in one security all go to its ledger, so they are applied one security at a
+     * time, with different securities in parallel.
+     */
     private void loadPositions() throws Exception {
-        try (Reader reader = new FileReader(positionCsvResource.getFile())) {
-            try (CSVReader csvReader = new CSVReaderBuilder(reader).withSkipLines(1).build()) {
-                String[] line;
-                while ((line = csvReader.readNext()) != null) {
-                    Shareholder shareholder = shareholderRepository.findShareholderById(Long.parseLong(line[0]));
-                    Security security = securityRepository.findSecurityByIsin(line[1]);
-                    shareholder.incPosition(security, Integer.parseInt(line[2]));
-                }
-            }
-        }
+        List<Position> positions = CsvFiles.parse(positionCsvResource.getFile().toPath(), line -> new Position(
+                shareholderRepository.findShareholderById(Long.parseLong(line[0])),
+                securityRepository.findSecurityByIsin(line[1]),
+                Integer.parseInt(line[2])));
+        Map<Security, List<Position>> positionsBySecurity = new LinkedHashMap<>();
+        for (Position position : positions)
+            positionsBySecurity.computeIfAbsent(position.security(), key -> new ArrayList<>()).add(position);
+        positionsBySecurity.values().parallelStream().forEach(inSecurity -> {
+            for (Position position : inSecurity)
+                position.shareholder().incPosition(position.security(), position.quantity());
+        });
         log.info("Positions loaded");
     }
 
+    /**
+     * Rows are grouped by security in file order, which is the queue order they were saved in,
+     * and each book is then built in one pass, with the books of different securities built in
+     * parallel. The stop orders waiting for their stop price are kept in a file of their own,
+     * so the order book file keeps its layout.
+     */
     private void loadOrderBook() throws Exception {
-        LinkedList<Order> orders = new LinkedList<>();
-        try (Reader reader = new FileReader(orderBookCsvResource.getFile())) {
-            try (CSVReader csvReader = new CSVReaderBuilder(reader).withSkipLines(1).build()) {
-                String[] line;
-                while ((line = csvReader.readNext()) != null) {
-                    Security security = securityRepository.findSecurityByIsin(line[1]);
-                    Broker broker = brokerRepository.findBrokerById(Long.parseLong(line[5]));
-                    Shareholder shareholder = shareholderRepository.findShareholderById(Long.parseLong(line[6]));
 //orderId,isin,side,quantity,price,brokerId,shareholderId,entryTime,peakSize,displayedQuantity
 //0       1    2    3        4     5        6             7         8        9
-                    int peakSize = Integer.parseInt(line[8]);
-                    Order order;
-                    if (peakSize == 0) {
-                        order = new Order(
-                                Long.parseLong(line[0]),
-                                security,
-                                Side.parse(line[2]),
-                                Integer.parseInt(line[3]),
-                                Integer.parseInt(line[4]),
-                                broker,
-                                shareholder,
-                                LocalDateTime.parse(line[7]),
-                                OrderStatus.QUEUED);
-                    } else {
-                        order = new IcebergOrder(
-                                Long.parseLong(line[0]),
-                                security,
-                                Side.parse(line[2]),
-                                Integer.parseInt(line[3]),
-                                Integer.parseInt(line[4]),
-                                broker,
-                                shareholder,
-                                LocalDateTime.parse(line[7]),
-                                Integer.parseInt(line[8]),
-                                Integer.parseInt(line[9]),
-                                OrderStatus.QUEUED);
-                    }
-                    orders.addFirst(order);
-                }
+        List<Order> orders = new ArrayList<>(CsvFiles.parse(orderBookCsvResource.getFile().toPath(), line -> {
+            Security security = securityRepository.findSecurityByIsin(line[1]);
+            Broker broker = brokerRepository.findBrokerById(Long.parseLong(line[5]));
+            Shareholder shareholder = shareholderRepository.findShareholderById(Long.parseLong(line[6]));
+            int peakSize = Integer.parseInt(line[8]);
+            if (peakSize == 0) {
+                return new Order(
+                        Long.parseLong(line[0]),
+                        security,
+                        Side.parse(line[2]),
+                        Integer.parseInt(line[3]),
+                        Integer.parseInt(line[4]),
+                        broker,
+                        shareholder,
+                        LocalDateTime.parse(line[7]),
+                        OrderStatus.QUEUED);
             }
-        }
-        Iterator<Order> it = orders.descendingIterator();
-        while (it.hasNext()) {
-            Order order = it.next();
-            order.getSecurity().getOrderBook().enqueue(order);
-        }
+            return new IcebergOrder(
+                    Long.parseLong(line[0]),
+                    security,
+                    Side.parse(line[2]),
+                    Integer.parseInt(line[3]),
+                    Integer.parseInt(line[4]),
+                    broker,
+                    shareholder,
+                    LocalDateTime.parse(line[7]),
+                    peakSize,
+                    Integer.parseInt(line[9]),
+                    OrderStatus.QUEUED);
+        }));
+        if (stopOrderCsvResource.exists())
+            orders.addAll(loadStopOrders());
+        Map<Security, List<Order>> ordersBySecurity = new LinkedHashMap<>();
+        for (Order order : orders)
+            ordersBySecurity.computeIfAbsent(order.getSecurity(), key -> new ArrayList<>()).add(order);
+        ordersBySecurity.entrySet().parallelStream()
+                .forEach(entry -> entry.getKey().getOrderBook().enqueueAll(entry.getValue()));
         log.info("Order Book loaded");
     }
 
+    private List<StopOrder> loadStopOrders() throws Exception {
+//orderId,isin,side,quantity,price,brokerId,shareholderId,entryTime,stopPrice
+//0       1    2    3        4     5        6             7         8
+        return CsvFiles.parse(stopOrderCsvResource.getFile().toPath(), line -> new StopOrder(
+                Long.parseLong(line[0]),
+                securityRepository.findSecurityByIsin(line[1]),
+                Side.parse(line[2]),
+                Integer.parseInt(line[3]),
+                Integer.parseInt(line[4]),
+                brokerRepository.findBrokerById(Long.parseLong(line[5])),
+                shareholderRepository.findShareholderById(Long.parseLong(line[6])),
+                LocalDateTime.parse(line[7]),
+                Integer.parseInt(line[8]),
+                OrderStatus.QUEUED));
+    }
+
+    private static <T> List<T> listOf(Iterable<? extends T> items) {
+        List<T> list = new ArrayList<>();
+        items.forEach(list::add);
+        return list;
+    }
+
+    private static void appendRow(StringBuilder rows, Object... fields) {
+        StringJoiner joiner = new StringJoiner(",");
+        for (Object field : fields)
+            joiner.add(String.valueOf(field));
+        rows.append(joiner).append(System.lineSeparator());
+    }
+
     private void saveBrokers() throws Exception {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(brokerCsvResource.getFile()))) {
-            writer.println("brokerId,name,credit");
-            for (Broker broker : brokerRepository.allBrokers()) {
-                StringJoiner joiner = new StringJoiner(",");
-                joiner.add(String.valueOf(broker.getBrokerId()))
-                        .add(broker.getName())
-                        .add(String.valueOf(broker.getCredit()));
-                writer.println(joiner);
-            }
-        }
+        CsvFiles.write(brokerCsvResource.getFile().toPath(), "brokerId,name,credit",
+                listOf(brokerRepository.allBrokers()), ROWS_PER_CHUNK,
+                (Broker broker, StringBuilder rows) -> appendRow(rows, broker.getBrokerId(), broker.getName(), broker.getCredit()));
         log.info("Brokers saved");
     }
 
     private void saveShareholdersAndPositions() throws Exception {
-        try (PrintWriter shareholderWriter = new PrintWriter(new FileWriter(shareholderCsvResource.getFile()))) {
-            shareholderWriter.println("shareholderId,name");
-            try (PrintWriter positionWriter = new PrintWriter(new FileWriter(positionCsvResource.getFile()))) {
-                positionWriter.println("shareholderId,isin,positions");
-                for (Shareholder shareholder : shareholderRepository.allShareholders()) {
-                    StringJoiner joiner = new StringJoiner(",");
-                    joiner.add(String.valueOf(shareholder.getShareholderId()))
-                            .add(shareholder.getName());
-                    shareholderWriter.println(joiner);
-                    for (var entry : shareholder.getPositions().entrySet()) {
-                        StringJoiner posJoiner = new StringJoiner(",");
-                        posJoiner.add(String.valueOf(shareholder.getShareholderId()))
-                                .add(entry.getKey().getIsin())
-                                .add(String.valueOf(entry.getValue()));
-                        positionWriter.println(posJoiner);
-                    }
-                }
-            }
-        }
+        List<Shareholder> shareholders = listOf(shareholderRepository.allShareholders());
+        CsvFiles.write(shareholderCsvResource.getFile().toPath(), "shareholderId,name", shareholders, ROWS_PER_CHUNK,
+                (Shareholder shareholder, StringBuilder rows) -> appendRow(rows, shareholder.getShareholderId(), shareholder.getName()));
+        CsvFiles.write(positionCsvResource.getFile().toPath(), "shareholderId,isin,positions", shareholders, ROWS_PER_CHUNK,
+                (Shareholder shareholder, StringBuilder rows) -> {
+                    for (var entry : shareholder.getPositions().entrySet())
+                        appendRow(rows, shareholder.getShareholderId(), entry.getKey().getIsin(), entry.getValue());
+                });
         log.info("Shareholders and Positions saved");
     }
 
+    /**
+     * The order book rows of each security are rendered by one worker, with different securities
+     * rendered concurrently. Each file is still written through a single stream, in security order,
+     * rather than as one file per security, so the files keep their names and layout.
+     */
     private void saveSecuritiesAndOrderBooks() throws Exception {
-        try (PrintWriter securityWriter = new PrintWriter(new FileWriter(securityCsvResource.getFile()))) {
-            securityWriter.println("isin,tickSize,lotSize");
-            try (PrintWriter orderBookWriter = new PrintWriter(new FileWriter(orderBookCsvResource.getFile()))) {
-                orderBookWriter.println("orderId,isin,side,quantity,price,brokerId,shareholderId,entryTime,status,peakSize,displayedQuantity");
-                for (Security security : securityRepository.allSecurities()) {
-                    StringJoiner joiner = new StringJoiner(",");
-                    joiner.add(security.getIsin())
-                            .add(String.valueOf(security.getTickSize()))
-                            .add(String.valueOf(security.getLotSize()));
-                    securityWriter.println(joiner);
-                    for (Order order : security.getOrderBook().getBuyQueue())
-                        orderBookWriter.println(getCSVString(order));
-                    for (Order order : security.getOrderBook().getSellQueue())
-                        orderBookWriter.println(getCSVString(order));
-                }
-            }
-        }
+        List<Security> securities = listOf(securityRepository.allSecurities());
+        CsvFiles.write(securityCsvResource.getFile().toPath(), "isin,tickSize,lotSize", securities, ROWS_PER_CHUNK,
+                (Security security, StringBuilder rows) -> appendRow(rows, security.getIsin(), security.getTickSize(), security.getLotSize()));
+        CsvFiles.write(orderBookCsvResource.getFile().toPath(),
+                "orderId,isin,side,quantity,price,brokerId,shareholderId,entryTime,peakSize,displayedQuantity",
+                securities, 1,
+                (Security security, StringBuilder rows) -> {
+                    OrderBook orderBook = security.getOrderBook();
+                    for (List<Order> queue : List.of(orderBook.getBuyQueue(), orderBook.getSellQueue())) {
+                        for (Order order : queue)
+                            rows.append(getCSVString(order)).append(System.lineSeparator());
+                    }
+                });
+        CsvFiles.write(stopOrderCsvResource.getFile().toPath(),
+                "orderId,isin,side,quantity,price,brokerId,shareholderId,entryTime,stopPrice",
+                securities, 1,
+                (Security security, StringBuilder rows) -> {
+                    OrderBook orderBook = security.getOrderBook();
+                    for (List<Order> queue : List.of(orderBook.getBuyStopQueue(), orderBook.getSellStopQueue())) {
+                        for (Order order : queue)
+                            appendRow(rows, order.getOrderId(), security.getIsin(), order.getSide(), order.getTotalQuantity(),
+                                    order.getPrice(), order.getBroker().getBrokerId(), order.getShareholder().getShareholderId(),
+                                    order.getEntryTime(), ((StopOrder) order).getStopPrice());
+                    }
+                });
         log.info("Securities and OrderBook saved");
     }
 
@@ -242,7 +284,7 @@ public class DataLoader {
         orderJoiner.add(String.valueOf(order.getOrderId()))
                 .add(order.getSecurity().getIsin())
                 .add(order.getSide().toString())
-                .add(String.valueOf(order.getQuantity()))
+                .add(String.valueOf(order.getTotalQuantity()))
                 .add(String.valueOf(order.getPrice()))
                 .add(String.valueOf(order.getBroker().getBrokerId()))
                 .add(String.valueOf(order.getShareholder().getShareholderId()))
@@ -0,0 +1,139 @@
+package ir.ramtung.tinyme.repository;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An open-addressing map from {@code long} ids to non-null values, with linear probing over two
+ * parallel arrays. Ids are never boxed, and an entry costs a key and a reference slot at a load
+ * factor of at most {@value #MAX_LOAD_FACTOR}, instead of a node and a boxed key per entry.
+ * <p>
+ * Entries are only added, never removed, which keeps probing free of tombstones. Like the
+ * {@link java.util.HashMap} it replaces, it is safe to read from many threads once it has been
+ * populated, but not while it is being written.
+ */
+final class LongKeyedMap<V> {
+    private static final double MAX_LOAD_FACTOR = 0.7;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    LongKeyedMap() {
+        this(MIN_CAPACITY);
+    }
+
+    LongKeyedMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, 1) / MAX_LOAD_FACTOR);
+        int capacity = MIN_CAPACITY;
+        while (capacity < needed)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slotOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        for (int slot = slotOf(key); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return (V) values[slot];
+        }
+        return null;
+    }
+
+    void put(long key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null values are not supported");
+        int slot = slotOf(key);
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * MAX_LOAD_FACTOR)
+            rehash(keys.length << 1);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null)
+                continue;
+            int slot = slotOf(oldKeys[i]);
+            while (values[slot] != null)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    Collection<V> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new Iterator<>() {
+                    private int slot = advance(0);
+
+                    private int advance(int from) {
+                        while (from < values.length && values[from] == null)
+                            from++;
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot < values.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public V next() {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+                        V value = (V) values[slot];
+                        slot = advance(slot + 1);
+                        return value;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
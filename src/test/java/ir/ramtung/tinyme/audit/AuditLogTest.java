@@ -0,0 +1,123 @@
+package ir.ramtung.tinyme.audit;
+
+import ir.ramtung.tinyme.messaging.event.OrderAcceptedEvent;
+import ir.ramtung.tinyme.messaging.event.OrderRejectedEvent;
+import ir.ramtung.tinyme.messaging.request.DeleteOrderRq;
+import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static ir.ramtung.tinyme.domain.entity.Side.BUY;
+import static ir.ramtung.tinyme.domain.entity.Side.SELL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AuditLogTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 2, 23, 10, 0);
+
+    @TempDir
+    Path directory;
+
+    private static DeleteOrderRq deleteOrderRq(long requestId, long orderId) {
+        return DeleteOrderRq.builder().requestId(requestId).securityIsin("ABC").side(SELL).orderId(orderId).entryTime(TIME).build();
+    }
+
+    private List<AuditLogReader.Entry> readBack(Path file) throws Exception {
+        List<AuditLogReader.Entry> entries = new ArrayList<>();
+        AuditLogReader.read(file, entries::add);
+        return entries;
+    }
+
+    @Test
+    void messages_recorded_on_several_threads_are_all_read_back() throws Exception {
+        Path file = directory.resolve("tinyme.audit");
+        AuditLog auditLog = new AuditLog(file, 64, 256);
+        auditLog.open();
+        List<Object> recorded = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    long id = thread * 1_000L + i;
+                    if (i % 2 == 0) {
+                        EnterOrderRq rq = EnterOrderRq.createNewOrderRq(id, "ABC", id, TIME, BUY, 10 + i, 15_000, 1, 2, 0);
+                        auditLog.received(rq);
+                        recorded.add(rq);
+                    } else {
+                        OrderAcceptedEvent event = new OrderAcceptedEvent(id, id);
+                        auditLog.published(event);
+                        recorded.add(event);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+        auditLog.close();
+
+        List<AuditLogReader.Entry> entries = readBack(file);
+        assertThat(entries).hasSize(4_000);
+        assertThat(entries).allMatch(entry -> entry.received() == entry.message() instanceof EnterOrderRq);
+        assertThat(entries.stream().map(AuditLogReader.Entry::message).toList()).containsExactlyInAnyOrderElementsOf(recorded);
+    }
+
+    @Test
+    void a_message_too_large_for_a_slot_is_recorded_without_its_body() throws Exception {
+        Path file = directory.resolve("tinyme.audit");
+        AuditLog auditLog = new AuditLog(file, 8, 64);
+        auditLog.open();
+        auditLog.published(new OrderRejectedEvent(1, 2, Collections.nCopies(20, "a long enough error message")));
+        auditLog.published(new OrderAcceptedEvent(3, 4));
+        auditLog.close();
+
+        List<AuditLogReader.Entry> entries = readBack(file);
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(0).type()).isEqualTo(OrderRejectedEvent.class);
+        assertThat(entries.get(0).message()).isNull();
+        assertThat(entries.get(1).message()).isEqualTo(new OrderAcceptedEvent(3, 4));
+    }
+
+    @Test
+    void a_reopened_log_is_appended_to_and_a_torn_record_ends_it() throws Exception {
+        Path file = directory.resolve("tinyme.audit");
+        AuditLog first = new AuditLog(file, 8, 256);
+        first.open();
+        first.received(deleteOrderRq(1, 10));
+        first.close();
+        AuditLog second = new AuditLog(file, 8, 256);
+        second.open();
+        second.received(deleteOrderRq(2, 20));
+        second.close();
+
+        assertThat(readBack(file)).extracting(AuditLogReader.Entry::message)
+                .containsExactly(deleteOrderRq(1, 10), deleteOrderRq(2, 20));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 3);
+        }
+        assertThat(readBack(file)).extracting(AuditLogReader.Entry::message)
+                .containsExactly(deleteOrderRq(1, 10));
+    }
+
+    @Test
+    void messages_recorded_after_closing_are_ignored() throws Exception {
+        Path file = directory.resolve("tinyme.audit");
+        AuditLog auditLog = new AuditLog(file, 2, 256);
+        auditLog.open();
+        auditLog.close();
+        for (int i = 0; i < 10; i++)
+            auditLog.published(new OrderAcceptedEvent(i, i));
+
+        assertThat(readBack(file)).isEmpty();
+    }
+}
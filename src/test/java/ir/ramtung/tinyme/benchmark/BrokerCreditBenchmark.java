@@ -0,0 +1,63 @@
+package ir.ramtung.tinyme.benchmark;
+
+import ir.ramtung.tinyme.domain.entity.Broker;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many shards reserving and releasing credit on a few heavy brokers at once. The lock-based
+ * variant is the check-then-debit done under the broker's monitor, kept here as the baseline the
+ * compare-and-set reservation is measured against.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class BrokerCreditBenchmark {
+    @Param({"1", "4", "64"})
+    private int brokerCount;
+
+    private Broker[] brokers;
+
+    @Setup
+    public void setup() {
+        brokers = new Broker[brokerCount];
+        for (int i = 0; i < brokerCount; i++)
+            brokers[i] = Broker.builder().brokerId(i + 1).credit(Long.MAX_VALUE / 2).build();
+    }
+
+    private Broker anyBroker() {
+        return brokers[ThreadLocalRandom.current().nextInt(brokerCount)];
+    }
+
+    @Benchmark
+    public boolean compareAndSet() {
+        Broker broker = anyBroker();
+        boolean reserved = broker.reserveCredit(1_000);
+        if (reserved)
+            broker.releaseCredit(1_000);
+        return reserved;
+    }
+
+    @Benchmark
+    public boolean locked() {
+        Broker broker = anyBroker();
+        boolean reserved;
+        synchronized (broker) {
+            reserved = broker.getCredit() >= 1_000;
+            if (reserved)
+                broker.decreaseCreditBy(1_000);
+        }
+        if (reserved) {
+            synchronized (broker) {
+                broker.increaseCreditBy(1_000);
+            }
+        }
+        return reserved;
+    }
+}
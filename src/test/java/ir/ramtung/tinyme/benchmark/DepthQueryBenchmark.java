@@ -0,0 +1,107 @@
+package ir.ramtung.tinyme.benchmark;
+
+import ir.ramtung.tinyme.domain.entity.OrderBook;
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.messaging.ShardedExecutor;
+import ir.ramtung.tinyme.query.BookQueryService;
+import ir.ramtung.tinyme.repository.BrokerRepository;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import ir.ramtung.tinyme.repository.ShareholderRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs batches of book changes on a shard while {@code pollers} threads ask for the depth and for
+ * an order of the same security as fast as they can. Every change moves the depth, so each poll
+ * that finds the kept snapshot outdated makes the shard copy the book; comparing against zero
+ * pollers shows what the queries cost the matching thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DepthQueryBenchmark {
+    private static final int PREPARED_ORDERS = 1024;
+    private static final int BATCH = 256;
+
+    @Param({"100", "1000"})
+    private int depth;
+
+    @Param({"0", "2", "8"})
+    private int pollers;
+
+    @Param({"0", "1", "50"})
+    private long maxStalenessMillis;
+
+    private ShardedExecutor shardedExecutor;
+    private BookQueryService bookQueryService;
+    private OrderBook orderBook;
+    private final List<Order> prepared = new ArrayList<>();
+    private final List<Thread> pollerThreads = new ArrayList<>();
+    private volatile boolean polling;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Market market = new Market(depth, OrderMix.PLAIN);
+        SecurityRepository securityRepository = new SecurityRepository();
+        market.registerIn(securityRepository, new BrokerRepository(), new ShareholderRepository());
+        orderBook = market.getSecurity().getOrderBook();
+        Random random = new Random(7);
+        for (int i = 0; i < PREPARED_ORDERS; i++) {
+            Side side = random.nextBoolean() ? Side.BUY : Side.SELL;
+            int offset = random.nextInt(market.getLevels());
+            prepared.add(market.restingOrder(side, side == Side.BUY ? Market.BEST_BUY - offset : Market.BEST_SELL + offset));
+        }
+        shardedExecutor = new ShardedExecutor(1);
+        bookQueryService = new BookQueryService(securityRepository, shardedExecutor, 2, maxStalenessMillis, 0);
+
+        polling = true;
+        for (int i = 0; i < pollers; i++) {
+            Thread thread = new Thread(() -> {
+                long orderId = 1;
+                while (polling) {
+                    bookQueryService.depth(Market.ISIN).join();
+                    bookQueryService.order(Market.ISIN, Side.BUY, orderId).join();
+                    orderId = orderId % depth + 1;
+                }
+            }, "depth-poller-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            pollerThreads.add(thread);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        polling = false;
+        for (Thread thread : pollerThreads)
+            thread.join();
+        bookQueryService.stop();
+        shardedExecutor.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void change() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            Order order = prepared.get(next);
+            next = (next + 1) % PREPARED_ORDERS;
+            shardedExecutor.execute(Market.ISIN, () -> {
+                orderBook.enqueue(order);
+                orderBook.removeByOrderId(order.getSide(), order.getOrderId());
+            });
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        shardedExecutor.execute(Market.ISIN, done::countDown);
+        done.await();
+    }
+}
@@ -0,0 +1,126 @@
+package ir.ramtung.tinyme.benchmark;
+
+import ir.ramtung.tinyme.domain.entity.*;
+import ir.ramtung.tinyme.domain.entity.order.IcebergOrder;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.entity.order.StopOrder;
+import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
+import ir.ramtung.tinyme.repository.BrokerRepository;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import ir.ramtung.tinyme.repository.ShareholderRepository;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * One security with a resting book of {@code depth} orders per side, spread over {@code depth / 4}
+ * price levels around {@link #BEST_BUY}. The broker and the shareholder never run out of credit or
+ * positions, so every benchmark measures the matching path rather than a rejection.
+ * <p>
+ * With the {@link OrderMix#STOP} mix, {@code depth} stop orders per side are parked as well. Their
+ * stop prices are far from the book, so they stay parked unless a benchmark moves the last price.
+ */
+@Getter
+public class Market {
+    public static final String ISIN = "BENCH";
+    public static final int BEST_BUY = 10_000;
+    public static final int BEST_SELL = BEST_BUY + 1;
+    public static final int RESTING_QUANTITY = 100;
+
+    private final Security security;
+    private final Broker broker;
+    private final Shareholder shareholder;
+    private final int depth;
+    private final int levels;
+    private final OrderMix mix;
+    private long nextOrderId = 1;
+    private long nextRequestId = 1;
+
+    public Market(int depth, OrderMix mix) {
+        this.depth = depth;
+        this.levels = Math.max(1, depth / 4);
+        this.mix = mix;
+        security = Security.builder().isin(ISIN).build();
+        broker = Broker.builder().brokerId(1).credit(Long.MAX_VALUE / 2).build();
+        shareholder = Shareholder.builder().shareholderId(1).build();
+        shareholder.incPosition(security, Integer.MAX_VALUE / 2);
+
+        OrderBook orderBook = security.getOrderBook();
+        for (int i = 0; i < depth; i++) {
+            orderBook.enqueue(restingOrder(Side.BUY, BEST_BUY - i % levels));
+            orderBook.enqueue(restingOrder(Side.SELL, BEST_SELL + i % levels));
+        }
+        if (mix == OrderMix.STOP) {
+            for (int i = 0; i < depth; i++) {
+                orderBook.enqueue(stopOrder(Side.BUY, BEST_SELL + levels + i % levels));
+                orderBook.enqueue(stopOrder(Side.SELL, BEST_BUY - levels - i % levels));
+            }
+        }
+        security.setLastTransactionPrice(BEST_BUY);
+    }
+
+    public void registerIn(SecurityRepository securityRepository, BrokerRepository brokerRepository,
+                           ShareholderRepository shareholderRepository) {
+        securityRepository.addSecurity(security);
+        brokerRepository.addBroker(broker);
+        shareholderRepository.addShareholder(shareholder);
+    }
+
+    public Order restingOrder(Side side, int price) {
+        if (mix == OrderMix.ICEBERG)
+            return new IcebergOrder(nextOrderId++, security, side, RESTING_QUANTITY, price, broker, shareholder,
+                    LocalDateTime.now(), RESTING_QUANTITY / 5);
+        return new Order(nextOrderId++, security, side, RESTING_QUANTITY, price, broker, shareholder, LocalDateTime.now());
+    }
+
+    public StopOrder stopOrder(Side side, int stopPrice) {
+        int price = side == Side.BUY ? stopPrice + levels : stopPrice - levels;
+        return new StopOrder(nextOrderId++, security, side, RESTING_QUANTITY, price, broker, shareholder,
+                LocalDateTime.now(), stopPrice);
+    }
+
+    /**
+     * An order that crosses the whole opposite side and is big enough to take a quarter of it.
+     * Stop orders are triggered by the current last price and already activated.
+     */
+    public Order incomingOrder(Side side) {
+        int quantity = incomingQuantity();
+        int price = aggressivePrice(side);
+        return switch (mix) {
+            case PLAIN, MIN_EXEC -> new Order(nextOrderId++, security, side, quantity, price, broker, shareholder, LocalDateTime.now());
+            case ICEBERG -> new IcebergOrder(nextOrderId++, security, side, quantity, price, broker, shareholder,
+                    LocalDateTime.now(), quantity / 10);
+            case STOP -> {
+                StopOrder order = new StopOrder(nextOrderId++, security, side, quantity, price, broker, shareholder,
+                        LocalDateTime.now(), triggeredStopPrice());
+                security.tryActivate(order);
+                yield order;
+            }
+        };
+    }
+
+    public EnterOrderRq incomingRequest(Side side) {
+        int quantity = incomingQuantity();
+        return EnterOrderRq.createNewOrderRq(nextRequestId++, ISIN, nextOrderId++, LocalDateTime.now(), side,
+                quantity, aggressivePrice(side), broker.getBrokerId(), shareholder.getShareholderId(),
+                mix == OrderMix.ICEBERG ? quantity / 10 : 0,
+                minimumExecutionQuantity(quantity),
+                mix == OrderMix.STOP ? triggeredStopPrice() : 0);
+    }
+
+    public int minimumExecutionQuantity(int quantity) {
+        return mix == OrderMix.MIN_EXEC ? quantity / 2 : 0;
+    }
+
+    private int incomingQuantity() {
+        return Math.max(1, depth / 4) * RESTING_QUANTITY;
+    }
+
+    private int aggressivePrice(Side side) {
+        return side == Side.BUY ? BEST_SELL + levels : BEST_BUY - levels;
+    }
+
+    private int triggeredStopPrice() {
+        return security.getOrderBook().getLastTransactionPrice();
+    }
+}
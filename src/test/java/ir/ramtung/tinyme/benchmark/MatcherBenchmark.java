@@ -0,0 +1,48 @@
+package ir.ramtung.tinyme.benchmark;
+
+import ir.ramtung.tinyme.domain.entity.MatchResult;
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.service.Matcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches an aggressive buy order that takes a quarter of the sell side. The book is rebuilt
+ * before every invocation, so each call sees the same depth.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatcherBenchmark {
+    @Param({"10", "100", "1000"})
+    private int depth;
+
+    @Param({"PLAIN", "ICEBERG", "STOP", "MIN_EXEC"})
+    private OrderMix mix;
+
+    private final Matcher matcher = new Matcher();
+    private Market market;
+    private Order incoming;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        market = new Market(depth, mix);
+        incoming = market.incomingOrder(Side.BUY);
+    }
+
+    @Benchmark
+    public MatchResult match() {
+        return matcher.match(incoming);
+    }
+
+    @Benchmark
+    public MatchResult execute() {
+        return matcher.executeWithMinimumQuantityCondition(incoming,
+                market.minimumExecutionQuantity(incoming.getQuantity()));
+    }
+}
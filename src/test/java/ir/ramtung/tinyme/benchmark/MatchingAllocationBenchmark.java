@@ -0,0 +1,75 @@
+package ir.ramtung.tinyme.benchmark;
+
+import com.sun.management.ThreadMXBean;
+import ir.ramtung.tinyme.domain.entity.MatchResult;
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.service.Matcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the garbage left by matching one aggressive order with and without
+ * {@code matching.allocationFree}. The book is rebuilt before every invocation, which would
+ * swamp the GC profiler, so the bytes allocated by the matching thread are read around the
+ * {@code match} call alone and reported as aux counters: {@code allocatedBytes / orders} is the
+ * garbage per order and {@code allocatedBytes / fills} the garbage per fill.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchingAllocationBenchmark {
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Param({"100", "800"})
+    private int depth;
+
+    @Param({"PLAIN", "ICEBERG"})
+    private OrderMix mix;
+
+    @Param({"false", "true"})
+    private boolean allocationFree;
+
+    private Matcher matcher;
+    private Order incoming;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Allocation {
+        public long allocatedBytes;
+        public long orders;
+        public long fills;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            allocatedBytes = 0;
+            orders = 0;
+            fills = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createMatcher() {
+        matcher = new Matcher(allocationFree);
+    }
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        incoming = new Market(depth, mix).incomingOrder(Side.BUY);
+    }
+
+    @Benchmark
+    public MatchResult match(Allocation allocation) {
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        MatchResult result = matcher.match(incoming);
+        allocation.allocatedBytes += THREADS.getCurrentThreadAllocatedBytes() - before;
+        allocation.orders++;
+        allocation.fills += result.fills() != null ? result.fills().size() : result.trades().size();
+        return result;
+    }
+}
@@ -0,0 +1,16 @@
+package ir.ramtung.tinyme.benchmark;
+
+import ir.ramtung.tinyme.messaging.EventPublisher;
+import ir.ramtung.tinyme.messaging.event.Event;
+
+import java.util.Optional;
+
+class NoOpEventPublisher extends EventPublisher {
+    NoOpEventPublisher() {
+        super(null, Optional.empty(), Optional.empty());
+    }
+
+    @Override
+    public void publish(Event event) {
+    }
+}
@@ -0,0 +1,115 @@
+package ir.ramtung.tinyme.benchmark;
+
+import ir.ramtung.tinyme.domain.entity.*;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways of finding the auction opening state: the original scan over every price in
+ * the book's range, the batch solver used for untracked books and the incrementally maintained
+ * auction depth. The tracked variant re-files one order per invocation so that it pays for an
+ * update as well as for the query, like it does while an auction is collecting orders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpeningStateBenchmark {
+    @Param({"100", "1000"})
+    private int orderCount;
+
+    @Param({"1000", "50000"})
+    private int priceRange;
+
+    private OrderBook untrackedOrderBook;
+    private OrderBook trackedOrderBook;
+    private List<Order> orders;
+    private int nextRefiled;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        Security security = Security.builder().isin("BENCH").build();
+        Broker broker = Broker.builder().brokerId(1).build();
+        Shareholder shareholder = Shareholder.builder().shareholderId(1).build();
+        untrackedOrderBook = new OrderBook();
+        trackedOrderBook = new OrderBook();
+        trackedOrderBook.trackAuctionDepth();
+        orders = new ArrayList<>();
+        for (int i = 0; i < orderCount; i++) {
+            Order order = new Order(i + 1, security, random.nextBoolean() ? Side.BUY : Side.SELL,
+                    1 + random.nextInt(1000), 1000 + random.nextInt(priceRange), broker, shareholder);
+            orders.add(order);
+            untrackedOrderBook.enqueue(order);
+            trackedOrderBook.enqueue(order);
+        }
+        untrackedOrderBook.setLastTransactionPrice(1000 + priceRange / 2);
+        trackedOrderBook.setLastTransactionPrice(1000 + priceRange / 2);
+    }
+
+    @Benchmark
+    public OpeningState scanEveryPrice() {
+        return openingStateByScanningEveryPrice(untrackedOrderBook);
+    }
+
+    @Benchmark
+    public OpeningState batchSolver() {
+        return untrackedOrderBook.calculateOpeningState();
+    }
+
+    @Benchmark
+    public OpeningState trackedAuctionDepth() {
+        Order order = orders.get(nextRefiled);
+        nextRefiled = (nextRefiled + 1) % orders.size();
+        trackedOrderBook.removeByOrderId(order.getSide(), order.getOrderId());
+        trackedOrderBook.enqueue(order);
+        return trackedOrderBook.calculateOpeningState();
+    }
+
+    private static OpeningState openingStateByScanningEveryPrice(OrderBook orderBook) {
+        var buyOrders = orderBook.getBuyQueue().stream().toList();
+        var sellOrders = orderBook.getSellQueue().stream().toList();
+        Integer lastTransactionPrice = orderBook.getLastTransactionPrice();
+        if (buyOrders.isEmpty() || sellOrders.isEmpty())
+            return new OpeningState(0, null);
+
+        int minPrice = Math.min(buyOrders.stream().mapToInt(Order::getPrice).min().getAsInt(),
+                sellOrders.stream().mapToInt(Order::getPrice).min().getAsInt());
+        int maxPrice = Math.max(buyOrders.stream().mapToInt(Order::getPrice).max().getAsInt(),
+                sellOrders.stream().mapToInt(Order::getPrice).max().getAsInt());
+        List<Integer> candidateList = new ArrayList<>();
+        int maxTradableQuantity = 0;
+        for (int price = minPrice; price <= maxPrice; price++) {
+            int candidatePrice = price;
+            int buyQuantity = (int) buyOrders.stream()
+                    .filter(order -> order.getPrice() >= candidatePrice)
+                    .mapToLong(Order::getTotalQuantity)
+                    .sum();
+            int sellQuantity = (int) sellOrders.stream()
+                    .filter(order -> order.getPrice() <= candidatePrice)
+                    .mapToLong(Order::getTotalQuantity)
+                    .sum();
+            int tradedQuantity = Math.min(buyQuantity, sellQuantity);
+            if (tradedQuantity > maxTradableQuantity) {
+                maxTradableQuantity = tradedQuantity;
+                candidateList.clear();
+                candidateList.add(candidatePrice);
+            } else if (tradedQuantity == maxTradableQuantity) {
+                candidateList.add(candidatePrice);
+            }
+        }
+        if (lastTransactionPrice == null)
+            return new OpeningState(maxTradableQuantity, candidateList.get(0));
+        var bestPrice = candidateList.stream()
+                .min((o1, o2) -> Math.abs(o1 - lastTransactionPrice) - Math.abs(o2 - lastTransactionPrice))
+                .get();
+        return new OpeningState(maxTradableQuantity, bestPrice);
+    }
+}
@@ -0,0 +1,59 @@
+package ir.ramtung.tinyme.benchmark;
+
+import ir.ramtung.tinyme.domain.entity.OrderBook;
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enqueues passive orders at random levels of a book of the given depth. Each order is removed
+ * again right after, so the depth stays the same across iterations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderBookBenchmark {
+    private static final int PREPARED_ORDERS = 1024;
+
+    @Param({"10", "100", "1000", "10000"})
+    private int depth;
+
+    @Param({"PLAIN", "ICEBERG", "STOP"})
+    private OrderMix mix;
+
+    private OrderBook orderBook;
+    private final List<Order> prepared = new ArrayList<>();
+    private int next;
+
+    @Setup
+    public void setup() {
+        Market market = new Market(depth, mix);
+        orderBook = market.getSecurity().getOrderBook();
+        Random random = new Random(7);
+        for (int i = 0; i < PREPARED_ORDERS; i++) {
+            Side side = random.nextBoolean() ? Side.BUY : Side.SELL;
+            int offset = random.nextInt(market.getLevels());
+            Order order = mix == OrderMix.STOP
+                    ? market.stopOrder(side, side == Side.BUY ? Market.BEST_SELL + offset : Market.BEST_BUY - offset)
+                    : market.restingOrder(side, side == Side.BUY ? Market.BEST_BUY - offset : Market.BEST_SELL + offset);
+            prepared.add(order);
+        }
+    }
+
+    @Benchmark
+    public Order enqueue() {
+        Order order = prepared.get(next);
+        next = (next + 1) % PREPARED_ORDERS;
+        orderBook.enqueue(order);
+        orderBook.removeByOrderId(order.getSide(), order.getOrderId());
+        return order;
+    }
+}
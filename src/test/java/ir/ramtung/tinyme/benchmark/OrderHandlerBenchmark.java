@@ -0,0 +1,65 @@
+package ir.ramtung.tinyme.benchmark;
+
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.domain.service.AuctionMatchingStrategy;
+import ir.ramtung.tinyme.domain.service.ContinuousMatchingStrategy;
+import ir.ramtung.tinyme.domain.service.Matcher;
+import ir.ramtung.tinyme.domain.service.OrderHandler;
+import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
+import ir.ramtung.tinyme.messaging.request.MatchingState;
+import ir.ramtung.tinyme.repository.BrokerRepository;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import ir.ramtung.tinyme.repository.ShareholderRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a new order request through the whole {@link OrderHandler} path: validation, position
+ * checks, matching, stop activation and event creation. Events go to a publisher that drops them,
+ * so messaging is not part of the measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderHandlerBenchmark {
+    @Param({"10", "100", "1000"})
+    private int depth;
+
+    @Param({"PLAIN", "ICEBERG", "STOP", "MIN_EXEC"})
+    private OrderMix mix;
+
+    @Param({"BUY", "SELL"})
+    private Side side;
+
+    private final SecurityRepository securityRepository = new SecurityRepository();
+    private final BrokerRepository brokerRepository = new BrokerRepository();
+    private final ShareholderRepository shareholderRepository = new ShareholderRepository();
+    private OrderHandler orderHandler;
+    private EnterOrderRq request;
+
+    @Setup
+    public void createHandler() {
+        Matcher matcher = new Matcher();
+        orderHandler = new OrderHandler(securityRepository, brokerRepository, shareholderRepository,
+                new NoOpEventPublisher(), matcher, Map.of(
+                        MatchingState.CONTINUOUS, new ContinuousMatchingStrategy(matcher),
+                        MatchingState.AUCTION, new AuctionMatchingStrategy(matcher)));
+    }
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        Market market = new Market(depth, mix);
+        market.registerIn(securityRepository, brokerRepository, shareholderRepository);
+        request = market.incomingRequest(side);
+    }
+
+    @Benchmark
+    public void handleEnterOrder() {
+        orderHandler.handleEnterOrder(request);
+    }
+}
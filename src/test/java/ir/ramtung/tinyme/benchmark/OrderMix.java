@@ -0,0 +1,8 @@
+package ir.ramtung.tinyme.benchmark;
+
+public enum OrderMix {
+    PLAIN,
+    ICEBERG,
+    STOP,
+    MIN_EXEC
+}
@@ -0,0 +1,101 @@
+package ir.ramtung.tinyme.benchmark;
+
+import ir.ramtung.tinyme.domain.entity.Security;
+import ir.ramtung.tinyme.domain.entity.Shareholder;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The heap retained by the positions of a shareholder population, with each shareholder holding
+ * a few of the listed securities. {@code HASH_MAP} is the former layout, one map from security to
+ * boxed quantity per shareholder; {@code LEDGER} keeps them in the per-security position ledgers.
+ * Both build the same shareholders, so the difference is the position storage alone.
+ * <p>
+ * Each invocation builds the population once; the {@code retainedBytesPerPosition} aux counter is
+ * the heap in use after a full collection, minus the heap before, divided by the positions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-XX:+UseParallelGC"})
+public class PositionFootprintBenchmark {
+    public enum Layout { HASH_MAP, LEDGER }
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    @Param({"100000", "1000000"})
+    private int shareholderCount;
+
+    @Param({"200"})
+    private int securityCount;
+
+    @Param({"4"})
+    private int positionsPerShareholder;
+
+    @Param({"HASH_MAP", "LEDGER"})
+    private Layout layout;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long retainedBytesPerPosition;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytesPerPosition = 0;
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    @Benchmark
+    public Object build(Footprint footprint) {
+        Security[] securities = new Security[securityCount];
+        for (int i = 0; i < securityCount; i++)
+            securities[i] = Security.builder().isin("S" + i).build();
+        Shareholder[] shareholders = new Shareholder[shareholderCount];
+        Random random = new Random(shareholderCount);
+
+        long before = usedHeapAfterGc();
+        Object positions = layout == Layout.HASH_MAP
+                ? buildHashMaps(shareholders, securities, random)
+                : buildLedger(shareholders, securities, random);
+        long retained = usedHeapAfterGc() - before;
+
+        footprint.retainedBytesPerPosition = retained / ((long) shareholderCount * positionsPerShareholder);
+        return new Object[]{securities, shareholders, positions};
+    }
+
+    private Object buildHashMaps(Shareholder[] shareholders, Security[] securities, Random random) {
+        @SuppressWarnings("unchecked")
+        Map<Security, Integer>[] positions = new Map[shareholders.length];
+        for (int i = 0; i < shareholders.length; i++) {
+            shareholders[i] = Shareholder.builder().shareholderId(i).build();
+            positions[i] = new HashMap<>();
+            for (int j = 0; j < positionsPerShareholder; j++)
+                positions[i].merge(securities[random.nextInt(securities.length)], 100 + j, Integer::sum);
+        }
+        return positions;
+    }
+
+    private Object buildLedger(Shareholder[] shareholders, Security[] securities, Random random) {
+        for (int i = 0; i < shareholders.length; i++) {
+            shareholders[i] = Shareholder.builder().shareholderId(i).build();
+            for (int j = 0; j < positionsPerShareholder; j++)
+                shareholders[i].incPosition(securities[random.nextInt(securities.length)], 100 + j);
+        }
+        return null;
+    }
+}
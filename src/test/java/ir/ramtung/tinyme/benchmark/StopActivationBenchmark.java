@@ -0,0 +1,41 @@
+package ir.ramtung.tinyme.benchmark;
+
+import ir.ramtung.tinyme.domain.entity.Security;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link Security#tryActivateAll()} after the last price has moved far enough to trigger the
+ * given share of the parked buy stop orders.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StopActivationBenchmark {
+    @Param({"10", "100", "1000"})
+    private int depth;
+
+    @Param({"0", "10", "100"})
+    private int activatedPercent;
+
+    private Security security;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        Market market = new Market(depth, OrderMix.STOP);
+        security = market.getSecurity();
+        int triggeredLevels = market.getLevels() * activatedPercent / 100;
+        security.setLastTransactionPrice(Market.BEST_SELL + market.getLevels() + triggeredLevels - 1);
+    }
+
+    @Benchmark
+    public List<Order> tryActivateAll() {
+        return security.tryActivateAll();
+    }
+}
@@ -0,0 +1,118 @@
+package ir.ramtung.tinyme.domain;
+
+import ir.ramtung.tinyme.domain.entity.*;
+import ir.ramtung.tinyme.domain.entity.order.IcebergOrder;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.service.Matcher;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static ir.ramtung.tinyme.domain.entity.Side.BUY;
+import static ir.ramtung.tinyme.domain.entity.Side.SELL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AllocationFreeMatcherTest {
+    private record Fill(long buyOrderId, long sellOrderId, int price, int quantity) {
+    }
+
+    private record Outcome(MatchingOutcome outcome, List<Fill> fills, List<String> book,
+                           long buyerCredit, long sellerCredit, int buyerPosition, int sellerPosition) {
+    }
+
+    private static class Scenario {
+        final Security security = Security.builder().isin("ABC").build();
+        final Broker seller = Broker.builder().brokerId(1).credit(0).build();
+        final Broker buyer;
+        final Shareholder buyingShareholder = Shareholder.builder().shareholderId(1).build();
+        final Shareholder sellingShareholder = Shareholder.builder().shareholderId(2).build();
+
+        Scenario(long buyerCredit) {
+            buyer = Broker.builder().brokerId(2).credit(buyerCredit).build();
+            sellingShareholder.incPosition(security, 100_000);
+            OrderBook orderBook = security.getOrderBook();
+            orderBook.enqueue(new Order(1, security, SELL, 300, 15800, seller, sellingShareholder));
+            orderBook.enqueue(new IcebergOrder(2, security, SELL, 450, 15810, seller, sellingShareholder, 200));
+            orderBook.enqueue(new Order(3, security, SELL, 70, 15810, seller, sellingShareholder));
+            orderBook.enqueue(new Order(4, security, SELL, 500, 15820, seller, sellingShareholder));
+            orderBook.enqueue(new Order(5, security, BUY, 100, 15700, buyer, buyingShareholder));
+        }
+
+        Order incomingBuy(int quantity, int price) {
+            return new Order(10, security, BUY, quantity, price, buyer, buyingShareholder);
+        }
+
+        Outcome outcomeOf(MatchResult result) {
+            List<Fill> fills = new ArrayList<>();
+            if (result.fills() != null) {
+                for (int i = 0; i < result.fills().size(); i++)
+                    fills.add(new Fill(result.fills().buyOrderId(i), result.fills().sellOrderId(i),
+                            result.fills().price(i), result.fills().quantity(i)));
+            } else {
+                for (Trade trade : result.trades())
+                    fills.add(new Fill(trade.getBuy().getOrderId(), trade.getSell().getOrderId(),
+                            trade.getPrice(), trade.getQuantity()));
+            }
+            List<String> book = new ArrayList<>();
+            for (Order order : security.getOrderBook().getSellQueue())
+                book.add(order.getOrderId() + ":" + order.getQuantity() + "/" + order.getTotalQuantity());
+            for (Order order : security.getOrderBook().getBuyQueue())
+                book.add(order.getOrderId() + ":" + order.getQuantity() + "/" + order.getTotalQuantity());
+            return new Outcome(result.outcome(), fills, book, buyer.getCredit(), seller.getCredit(),
+                    buyingShareholder.getPosition(security), sellingShareholder.getPosition(security));
+        }
+    }
+
+    private void assertModesAgree(long buyerCredit, Function<Scenario, Order> incoming,
+                                  MatchingOutcome expected, boolean execute) {
+        List<Outcome> outcomes = new ArrayList<>();
+        for (boolean allocationFree : new boolean[]{false, true}) {
+            Matcher matcher = new Matcher(allocationFree);
+            Scenario scenario = new Scenario(buyerCredit);
+            Order order = incoming.apply(scenario);
+            MatchResult result = execute
+                    ? matcher.executeWithMinimumQuantityCondition(order, order.getQuantity())
+                    : matcher.execute(order);
+            assertThat(result.fills() != null).isEqualTo(allocationFree && result.outcome() == MatchingOutcome.EXECUTED);
+            outcomes.add(scenario.outcomeOf(result));
+        }
+        assertThat(outcomes.get(0).outcome()).isEqualTo(expected);
+        assertThat(outcomes.get(1)).isEqualTo(outcomes.get(0));
+    }
+
+    @Test
+    void fills_match_the_trades_when_an_order_walks_the_book_through_an_iceberg() {
+        assertModesAgree(100_000_000L, scenario -> scenario.incomingBuy(1200, 15820),
+                MatchingOutcome.EXECUTED, false);
+    }
+
+    @Test
+    void running_out_of_credit_restores_the_book_the_same_way() {
+        assertModesAgree(10_000_000L, scenario -> scenario.incomingBuy(1200, 15820),
+                MatchingOutcome.NOT_ENOUGH_CREDIT, false);
+    }
+
+    @Test
+    void failed_minimum_execution_restores_the_book_the_same_way() {
+        assertModesAgree(100_000_000L, scenario -> scenario.incomingBuy(2000, 15810),
+                MatchingOutcome.MINIMUM_QUANTITY_CONDITION_FAILED, true);
+    }
+
+    @Test
+    void fills_are_reused_by_the_next_match_on_the_same_thread() {
+        Matcher matcher = new Matcher(true);
+        Scenario scenario = new Scenario(100_000_000L);
+
+        Fills first = matcher.match(scenario.incomingBuy(100, 15800)).fills();
+        Fills second = matcher.match(scenario.incomingBuy(300, 15810)).fills();
+
+        assertThat(second).isSameAs(first);
+        assertThat(second.size()).isEqualTo(2);
+        assertThat(second.sellOrderId(0)).isEqualTo(1);
+        assertThat(second.quantity(0)).isEqualTo(200);
+        assertThat(second.sellOrderId(1)).isEqualTo(2);
+        assertThat(second.quantity(1)).isEqualTo(100);
+    }
+}
@@ -0,0 +1,74 @@
+package ir.ramtung.tinyme.domain;
+
+import ir.ramtung.tinyme.domain.entity.Broker;
+import ir.ramtung.tinyme.domain.entity.CreditDecisions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BrokerCreditTest {
+    @Test
+    void reserve_fails_without_touching_the_credit_when_it_is_not_enough() {
+        Broker broker = Broker.builder().credit(100).build();
+
+        assertThat(broker.reserveCredit(60)).isTrue();
+        assertThat(broker.reserveCredit(60)).isFalse();
+        assertThat(broker.getCredit()).isEqualTo(40);
+        broker.releaseCredit(60);
+        assertThat(broker.getCredit()).isEqualTo(100);
+    }
+
+    @Test
+    void concurrent_reservations_never_spend_more_than_the_credit() throws Exception {
+        Broker broker = Broker.builder().credit(10_000).build();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Callable<Integer>> shards = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            shards.add(() -> {
+                int reserved = 0;
+                for (int j = 0; j < 10_000; j++) {
+                    if (broker.reserveCredit(3))
+                        reserved++;
+                }
+                return reserved;
+            });
+        }
+
+        int reserved = 0;
+        for (Future<Integer> result : executor.invokeAll(shards))
+            reserved += result.get();
+        executor.shutdown();
+
+        assertThat(reserved).isEqualTo(3333);
+        assertThat(broker.getCredit()).isEqualTo(1);
+    }
+
+    @Test
+    void replayed_reservations_follow_the_recorded_answers() {
+        Broker broker = Broker.builder().credit(100).build();
+        CreditDecisions recorded = CreditDecisions.record();
+        broker.reserveCredit(30);
+        broker.reserveCredit(200);
+        CreditDecisions.stop();
+        assertThat(recorded.count()).isEqualTo(2);
+
+        Broker replayed = Broker.builder().credit(40).build();
+        CreditDecisions.replay(CreditDecisions.of(recorded.count(), recorded.toLongArray()));
+        try {
+            assertThat(replayed.reserveCredit(50)).isTrue();
+            assertThat(replayed.reserveCredit(5)).isFalse();
+            replayed.increaseCreditBy(20);
+            assertThat(replayed.reserveCredit(5)).isTrue();
+        } finally {
+            CreditDecisions.stop();
+        }
+        assertThat(replayed.getCredit()).isEqualTo(5);
+    }
+}
@@ -1,12 +1,26 @@
 package ir.ramtung.tinyme.domain;
 
 import ir.ramtung.tinyme.domain.entity.*;
+import ir.ramtung.tinyme.domain.entity.order.IcebergOrder;
 import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.entity.order.StopOrder;
+import ir.ramtung.tinyme.domain.service.ContinuousMatchingStrategy;
+import ir.ramtung.tinyme.domain.service.Matcher;
+import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -77,4 +91,332 @@ class OrderBookTest {
         orderBook.removeByOrderId(Side.SELL, 10);
         assertThat(orderBook.getSellQueue()).isEqualTo(orders.subList(5, 9));
     }
-}
\ No newline at end of file
+
+    @Test
+    void opening_state_picks_the_price_closest_to_the_last_transaction_price() {
+        OrderBook orderBook = new OrderBook();
+        Broker broker = Broker.builder().build();
+        Shareholder shareholder = Shareholder.builder().build();
+        orderBook.enqueue(new Order(1, security, Side.BUY, 60, 1300, broker, shareholder));
+        orderBook.enqueue(new Order(2, security, Side.SELL, 50, 1400, broker, shareholder));
+        orderBook.enqueue(new Order(3, security, Side.SELL, 20, 1500, broker, shareholder));
+        orderBook.enqueue(new Order(4, security, Side.BUY, 12, 1450, broker, shareholder));
+        orderBook.enqueue(new Order(5, security, Side.SELL, 60, 1420, broker, shareholder));
+
+        assertThat(orderBook.calculateOpeningState()).isEqualTo(new OpeningState(12, 1400));
+        orderBook.setLastTransactionPrice(1430);
+        assertThat(orderBook.calculateOpeningState()).isEqualTo(new OpeningState(12, 1430));
+        orderBook.setLastTransactionPrice(1600);
+        assertThat(orderBook.calculateOpeningState()).isEqualTo(new OpeningState(12, 1450));
+    }
+
+    @Test
+    void opening_state_without_orders_on_both_sides_has_no_price() {
+        OrderBook orderBook = new OrderBook();
+        orderBook.enqueue(new Order(1, security, Side.BUY, 60, 1300, Broker.builder().build(), Shareholder.builder().build()));
+
+        assertThat(orderBook.calculateOpeningState()).isEqualTo(new OpeningState(0, null));
+    }
+
+    @Test
+    void tracked_auction_depth_agrees_with_a_full_scan_of_every_price() {
+        assertOpeningStateAgreesWithAFullScan(true);
+    }
+
+    @Test
+    void untracked_opening_state_agrees_with_a_full_scan_of_every_price() {
+        assertOpeningStateAgreesWithAFullScan(false);
+    }
+
+    private void assertOpeningStateAgreesWithAFullScan(boolean trackAuctionDepth) {
+        Random random = new Random(29);
+        Broker broker = Broker.builder().build();
+        Shareholder shareholder = Shareholder.builder().build();
+        for (int round = 0; round < 200; round++) {
+            OrderBook orderBook = new OrderBook();
+            if (trackAuctionDepth)
+                orderBook.trackAuctionDepth();
+            List<Order> resting = new ArrayList<>();
+            for (int step = 0; step < 30; step++) {
+                if (!resting.isEmpty() && random.nextInt(4) == 0) {
+                    Order order = resting.remove(random.nextInt(resting.size()));
+                    orderBook.removeByOrderId(order.getSide(), order.getOrderId());
+                } else {
+                    Order order = new Order(step + 1, security, random.nextBoolean() ? Side.BUY : Side.SELL,
+                            1 + random.nextInt(20), 100 + random.nextInt(40), broker, shareholder);
+                    orderBook.enqueue(order);
+                    resting.add(order);
+                }
+                orderBook.setLastTransactionPrice(random.nextInt(3) == 0 ? null : 90 + random.nextInt(60));
+                assertThat(orderBook.calculateOpeningState())
+                        .isEqualTo(openingStateByScanningEveryPrice(resting, orderBook.getLastTransactionPrice()));
+            }
+        }
+    }
+
+    @Test
+    void enqueue_all_builds_the_same_book_as_enqueueing_one_by_one() {
+        Random random = new Random(37);
+        Broker broker = Broker.builder().build();
+        List<Shareholder> shareholders = List.of(Shareholder.builder().shareholderId(1).build(),
+                Shareholder.builder().shareholderId(2).build());
+        for (int round = 0; round < 50; round++) {
+            List<Order> one = new ArrayList<>();
+            List<Order> all = new ArrayList<>();
+            for (int step = 0; step < 200; step++) {
+                Side side = random.nextBoolean() ? Side.BUY : Side.SELL;
+                int quantity = 10 + random.nextInt(90);
+                int price = 100 + random.nextInt(15);
+                int stopPrice = price + random.nextInt(3);
+                Shareholder shareholder = shareholders.get(random.nextInt(shareholders.size()));
+                for (List<Order> orders : List.of(one, all)) {
+                    orders.add(switch (step % 4) {
+                        case 0 -> new IcebergOrder(step + 1, security, side, quantity, price, broker, shareholder, 15);
+                        case 1 -> new StopOrder(step + 1, security, side, quantity, price, broker, shareholder,
+                                LocalDateTime.now(), stopPrice);
+                        default -> new Order(step + 1, security, side, quantity, price, broker, shareholder);
+                    });
+                }
+            }
+            OrderBook enqueuedOneByOne = new OrderBook();
+            one.forEach(enqueuedOneByOne::enqueue);
+            OrderBook enqueuedAll = new OrderBook();
+            enqueuedAll.trackAuctionDepth();
+            enqueuedAll.enqueueAll(all);
+
+            for (Side side : Side.values()) {
+                assertThat(describe(enqueuedAll.getStopQueue(side))).isEqualTo(describe(enqueuedOneByOne.getStopQueue(side)));
+                enqueuedAll.getStopQueue(side).verifyConsistency();
+            }
+            assertThat(describe(enqueuedAll.getBuyQueue())).isEqualTo(describe(enqueuedOneByOne.getBuyQueue()));
+            assertThat(describe(enqueuedAll.getSellQueue())).isEqualTo(describe(enqueuedOneByOne.getSellQueue()));
+            enqueuedAll.getBuyQueue().verifyConsistency();
+            enqueuedAll.getSellQueue().verifyConsistency();
+            enqueuedAll.verifyCommittedSellQuantities();
+            assertThat(enqueuedAll.calculateOpeningState()).isEqualTo(enqueuedOneByOne.calculateOpeningState());
+        }
+    }
+
+    private static List<String> describe(List<Order> queue) {
+        return queue.stream().map(order -> order.getOrderId() + ":" + order.getQuantity() + "@" + order.getPrice()).toList();
+    }
+
+    @Test
+    void committed_sell_quantities_follow_enqueues_fills_updates_and_deletes() {
+        assertCommittedSellQuantitiesAgreeWithAScan(new Matcher(false));
+        assertCommittedSellQuantitiesAgreeWithAScan(new Matcher(true));
+    }
+
+    private void assertCommittedSellQuantitiesAgreeWithAScan(Matcher matcher) {
+        Random random = new Random(31);
+        var strategy = new ContinuousMatchingStrategy(matcher);
+        for (int round = 0; round < 100; round++) {
+            Security security = Security.builder().isin("ABC").build();
+            OrderBook orderBook = security.getOrderBook();
+            List<Shareholder> shareholders = List.of(Shareholder.builder().shareholderId(1).build(),
+                    Shareholder.builder().shareholderId(2).build(), Shareholder.builder().shareholderId(2).build());
+            shareholders.forEach(shareholder -> shareholder.incPosition(security, 1_000_000));
+            Broker richBroker = Broker.builder().credit(Long.MAX_VALUE / 4).build();
+            Broker poorBroker = Broker.builder().credit(3_000).build();
+            List<Order> placed = new ArrayList<>();
+            for (int step = 0; step < 60; step++) {
+                Shareholder shareholder = shareholders.get(random.nextInt(shareholders.size()));
+                Side side = random.nextBoolean() ? Side.BUY : Side.SELL;
+                int quantity = 10 + random.nextInt(90);
+                int price = 100 + random.nextInt(20);
+                Broker broker = random.nextInt(5) == 0 ? poorBroker : richBroker;
+                Order order = switch (random.nextInt(5)) {
+                    case 0 -> new IcebergOrder(step + 1, security, side, quantity, price, broker, shareholder, 15);
+                    case 1 -> new StopOrder(step + 1, security, side, quantity, price, broker, shareholder,
+                            LocalDateTime.now(), price + (side == Side.BUY ? -5 : 5));
+                    default -> new Order(step + 1, security, side, quantity, price, broker, shareholder);
+                };
+                Order existing = placed.isEmpty() ? null : placed.get(random.nextInt(placed.size()));
+                existing = existing == null ? null : orderBook.findByOrderId(existing.getSide(), existing.getOrderId());
+                MatchResult result = null;
+                switch (random.nextInt(4)) {
+                    case 0 -> {
+                        if (existing != null)
+                            orderBook.removeByOrderId(existing.getSide(), existing.getOrderId());
+                    }
+                    case 1 -> {
+                        if (existing != null && existing.isActive())
+                            result = strategy.handleUpdateOrder(existing, EnterOrderRq.createUpdateOrderRq(step, "ABC",
+                                    existing.getOrderId(), LocalDateTime.now(), existing.getSide(), 20 + random.nextInt(80),
+                                    random.nextBoolean() ? existing.getPrice() : price, 0, 0,
+                                    existing instanceof IcebergOrder ? 15 : 0));
+                    }
+                    case 2 -> result = matcher.executeWithMinimumQuantityCondition(order, order.isActive() ? quantity : 0);
+                    default -> result = matcher.execute(order);
+                }
+                placed.add(order);
+                if (result != null)
+                    security.updateLastTransactionPrice(result);
+                security.tryActivateAll();
+
+                orderBook.verifyCommittedSellQuantities();
+                for (Shareholder holder : shareholders)
+                    assertThat(orderBook.totalSellQuantityByShareholder(holder)).isEqualTo(
+                            Stream.concat(orderBook.getSellQueue().stream(), orderBook.getSellStopQueue().stream())
+                                    .filter(resting -> resting.getShareholder().equals(holder))
+                                    .mapToInt(Order::getTotalQuantity).sum());
+            }
+        }
+    }
+
+    @Test
+    void depth_listener_follows_the_displayed_quantity_through_fills_updates_and_deletes() {
+        Matcher matcher = new Matcher(true);
+        var strategy = new ContinuousMatchingStrategy(matcher);
+        Random random = new Random(41);
+        for (int round = 0; round < 100; round++) {
+            Security security = Security.builder().isin("ABC").build();
+            OrderBook orderBook = security.getOrderBook();
+            Shareholder shareholder = Shareholder.builder().build();
+            shareholder.incPosition(security, 1_000_000);
+            Broker broker = Broker.builder().credit(Long.MAX_VALUE / 4).build();
+            Map<Side, Map<Integer, Long>> depth = Map.of(Side.BUY, new TreeMap<>(), Side.SELL, new TreeMap<>());
+            orderBook.enqueue(new IcebergOrder(1000, security, Side.BUY, 40, 100, broker, shareholder, 15));
+            orderBook.setDepthListener((side, price, previousQuantity, quantity) -> {
+                assertThat(depth.get(side).getOrDefault(price, 0L)).isEqualTo(previousQuantity);
+                if (quantity == 0)
+                    depth.get(side).remove(price);
+                else
+                    depth.get(side).put(price, quantity);
+            });
+            List<Order> placed = new ArrayList<>();
+            for (int step = 0; step < 60; step++) {
+                Side side = random.nextBoolean() ? Side.BUY : Side.SELL;
+                int quantity = 10 + random.nextInt(90);
+                int price = 100 + random.nextInt(10);
+                Order order = random.nextInt(3) == 0
+                        ? new IcebergOrder(step + 1, security, side, quantity, price, broker, shareholder, 15)
+                        : new Order(step + 1, security, side, quantity, price, broker, shareholder);
+                Order existing = placed.isEmpty() ? null : placed.get(random.nextInt(placed.size()));
+                existing = existing == null ? null : orderBook.findByOrderId(existing.getSide(), existing.getOrderId());
+                switch (random.nextInt(4)) {
+                    case 0 -> {
+                        if (existing != null)
+                            orderBook.removeByOrderId(existing.getSide(), existing.getOrderId());
+                    }
+                    case 1 -> {
+                        if (existing != null)
+                            strategy.handleUpdateOrder(existing, EnterOrderRq.createUpdateOrderRq(step, "ABC",
+                                    existing.getOrderId(), LocalDateTime.now(), existing.getSide(), 20 + random.nextInt(80),
+                                    random.nextBoolean() ? existing.getPrice() : price, 0, 0,
+                                    existing instanceof IcebergOrder ? 5 + random.nextInt(20) : 0));
+                    }
+                    default -> matcher.execute(order);
+                }
+                placed.add(order);
+
+                for (Side queueSide : Side.values()) {
+                    Map<Integer, Long> scanned = new TreeMap<>();
+                    (queueSide == Side.BUY ? orderBook.getBuyQueue() : orderBook.getSellQueue())
+                            .forEach(resting -> scanned.merge(resting.getPrice(), (long) resting.getQuantity(), Long::sum));
+                    assertThat(depth.get(queueSide)).isEqualTo(scanned);
+                    scanned.forEach((levelPrice, levelQuantity) ->
+                            assertThat(orderBook.quantityAt(queueSide, levelPrice)).isEqualTo(levelQuantity));
+                }
+                BestBidOffer.Quote quote = security.getBestBidOffer().read();
+                List<Order> buys = orderBook.getBuyQueue();
+                List<Order> sells = orderBook.getSellQueue();
+                assertThat(quote.bidPrice()).isEqualTo(buys.isEmpty() ? 0 : buys.get(0).getPrice());
+                assertThat(quote.bidQuantity()).isEqualTo(buys.isEmpty() ? 0 : depth.get(Side.BUY).get(quote.bidPrice()));
+                assertThat(quote.bidOrders()).isEqualTo((int) buys.stream().filter(buy -> buy.getPrice() == quote.bidPrice()).count());
+                assertThat(quote.askPrice()).isEqualTo(sells.isEmpty() ? 0 : sells.get(0).getPrice());
+                assertThat(quote.askQuantity()).isEqualTo(sells.isEmpty() ? 0 : depth.get(Side.SELL).get(quote.askPrice()));
+                assertThat(quote.askOrders()).isEqualTo((int) sells.stream().filter(sell -> sell.getPrice() == quote.askPrice()).count());
+            }
+        }
+    }
+
+    @Test
+    void best_bid_offer_follows_the_best_levels() {
+        BestBidOffer.Quote quote = security.getBestBidOffer().read();
+        assertThat(quote.bidPrice()).isEqualTo(15700);
+        assertThat(quote.bidQuantity()).isEqualTo(304);
+        assertThat(quote.bidOrders()).isEqualTo(1);
+        assertThat(quote.askPrice()).isEqualTo(15800);
+        assertThat(quote.askQuantity()).isEqualTo(350);
+        assertThat(quote.askOrders()).isEqualTo(1);
+
+        OrderBook orderBook = security.getOrderBook();
+        orderBook.removeByOrderId(Side.BUY, 1);
+        orderBook.removeByOrderId(Side.BUY, 2);
+        orderBook.removeFirst(Side.SELL);
+        BestBidOffer.Quote changed = security.getBestBidOffer().read();
+        assertThat(changed.bidPrice()).isEqualTo(15450);
+        assertThat(changed.bidQuantity()).isEqualTo(445 + 526);
+        assertThat(changed.bidOrders()).isEqualTo(2);
+        assertThat(changed.askPrice()).isEqualTo(15810);
+        assertThat(changed.askQuantity()).isEqualTo(285 + 800);
+        assertThat(changed.askOrders()).isEqualTo(2);
+        assertThat(changed.version()).isGreaterThan(quote.version());
+
+        List.of(3L, 4L, 5L).forEach(orderId -> orderBook.removeByOrderId(Side.BUY, orderId));
+        assertThat(security.getBestBidOffer().read().hasBid()).isFalse();
+        assertThat(security.getBestBidOffer().read().bidPrice()).isZero();
+    }
+
+    @Test
+    void best_bid_offer_is_never_read_half_written() throws InterruptedException {
+        Broker broker = Broker.builder().build();
+        Shareholder shareholder = Shareholder.builder().build();
+        OrderBook orderBook = new OrderBook();
+        BestBidOffer bestBidOffer = orderBook.getBestBidOffer();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        List<String> torn = new CopyOnWriteArrayList<>();
+        Thread reader = new Thread(() -> {
+            while (writing.get()) {
+                BestBidOffer.Quote quote = bestBidOffer.read();
+                if (quote.bidQuantity() != 10L * quote.bidOrders() || quote.hasBid() != (quote.bidPrice() != 0))
+                    torn.add(quote.toString());
+                reads.incrementAndGet();
+            }
+        });
+        reader.start();
+        Random random = new Random(43);
+        List<Order> resting = new ArrayList<>();
+        for (int step = 0; step < 200_000; step++) {
+            if (!resting.isEmpty() && random.nextInt(2) == 0) {
+                Order order = resting.remove(random.nextInt(resting.size()));
+                orderBook.removeByOrderId(Side.BUY, order.getOrderId());
+            } else {
+                Order order = new Order(step + 1, security, Side.BUY, 10, 100 + random.nextInt(5), broker, shareholder);
+                orderBook.enqueue(order);
+                resting.add(order);
+            }
+        }
+        writing.set(false);
+        reader.join();
+
+        assertThat(torn).isEmpty();
+        assertThat(reads.get()).isPositive();
+    }
+
+    private static OpeningState openingStateByScanningEveryPrice(List<Order> orders, Integer lastTransactionPrice) {
+        var buyOrders = orders.stream().filter(order -> order.getSide() == Side.BUY).toList();
+        var sellOrders = orders.stream().filter(order -> order.getSide() == Side.SELL).toList();
+        if (buyOrders.isEmpty() || sellOrders.isEmpty())
+            return new OpeningState(0, null);
+        int minPrice = orders.stream().mapToInt(Order::getPrice).min().getAsInt();
+        int maxPrice = orders.stream().mapToInt(Order::getPrice).max().getAsInt();
+        int maxTradableQuantity = 0;
+        Integer bestPrice = null;
+        for (int price = minPrice; price <= maxPrice; price++) {
+            int candidatePrice = price;
+            int buyQuantity = buyOrders.stream().filter(order -> order.getPrice() >= candidatePrice).mapToInt(Order::getTotalQuantity).sum();
+            int sellQuantity = sellOrders.stream().filter(order -> order.getPrice() <= candidatePrice).mapToInt(Order::getTotalQuantity).sum();
+            int tradableQuantity = Math.min(buyQuantity, sellQuantity);
+            boolean closer = bestPrice != null && lastTransactionPrice != null
+                    && Math.abs(price - lastTransactionPrice) < Math.abs(bestPrice - lastTransactionPrice);
+            if (bestPrice == null || tradableQuantity > maxTradableQuantity || (tradableQuantity == maxTradableQuantity && closer)) {
+                maxTradableQuantity = tradableQuantity;
+                bestPrice = price;
+            }
+        }
+        return new OpeningState(maxTradableQuantity, bestPrice);
+    }
+}
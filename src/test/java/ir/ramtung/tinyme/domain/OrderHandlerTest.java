@@ -182,6 +182,19 @@ public class OrderHandlerTest {
         );
     }
 
+    @Test
+    void new_order_with_the_id_of_a_queued_order_is_rejected() {
+        Order queuedOrder = new Order(200, security, Side.SELL, 500, 15450, broker1, shareholder);
+        security.getOrderBook().enqueue(queuedOrder);
+
+        orderHandler.handleEnterOrder(EnterOrderRq.createNewOrderRq(1, "ABC", 200, LocalDateTime.now(), Side.SELL, 300, 15500, broker1.getBrokerId(), shareholder.getShareholderId(), 0));
+
+        ArgumentCaptor<OrderRejectedEvent> orderRejectedCaptor = ArgumentCaptor.forClass(OrderRejectedEvent.class);
+        verify(eventPublisher).publish(orderRejectedCaptor.capture());
+        assertThat(orderRejectedCaptor.getValue().getErrors()).containsExactly(Message.ORDER_ID_ALREADY_EXISTS);
+        assertThat(security.getOrderBook().getSellQueue()).containsExactly(queuedOrder);
+    }
+
     @Test
     void update_order_causing_no_trades() {
         Order queuedOrder = new Order(200, security, Side.SELL, 500, 15450, broker1, shareholder);
@@ -565,7 +578,7 @@ public class OrderHandlerTest {
         shareholder.decPosition(security, 99_500);
         broker3.increaseCreditBy(100_000_000);
 
-        orderHandler.handleEnterOrder(EnterOrderRq.createNewOrderRq(1, "ABC", 3, LocalDateTime.now(), Side.BUY, 500, 545, broker3.getBrokerId(), shareholder1.getShareholderId(), 0));
+        orderHandler.handleEnterOrder(EnterOrderRq.createNewOrderRq(1, "ABC", 8, LocalDateTime.now(), Side.BUY, 500, 545, broker3.getBrokerId(), shareholder1.getShareholderId(), 0));
 
         verify(eventPublisher).publish(any(OrderAcceptedEvent.class));
         assertThat(shareholder1.hasEnoughPositionsOn(security, 100_000)).isTrue();
@@ -0,0 +1,72 @@
+package ir.ramtung.tinyme.domain;
+
+import ir.ramtung.tinyme.domain.entity.PositionLedger;
+import ir.ramtung.tinyme.domain.entity.Security;
+import ir.ramtung.tinyme.domain.entity.Shareholder;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+class PositionLedgerTest {
+    @Test
+    void keeps_every_holder_apart_while_growing() {
+        PositionLedger ledger = new PositionLedger();
+        for (int holder = 0; holder < 50_000; holder++)
+            assertThat(ledger.add(holder * 31, holder)).isTrue();
+        for (int holder = 0; holder < 50_000; holder += 2)
+            assertThat(ledger.add(holder * 31, -holder)).isFalse();
+
+        assertThat(ledger.holderCount()).isEqualTo(50_000);
+        for (int holder = 0; holder < 50_000; holder++)
+            assertThat(ledger.get(holder * 31)).isEqualTo(holder % 2 == 0 ? 0 : holder);
+        assertThat(ledger.get(-5)).isZero();
+    }
+
+    @Test
+    void holders_spread_over_the_whole_table_beyond_65536_slots() {
+        PositionLedger ledger = new PositionLedger();
+        for (int holder = 0; holder < 300_000; holder++)
+            ledger.add(holder, 1);
+
+        assertThat(ledger.holderCount()).isEqualTo(300_000);
+        assertThat(ledger.get(299_999)).isEqualTo(1);
+        assertThat(ledger.longestProbe()).isLessThan(64);
+    }
+
+    @Test
+    void shareholders_with_the_same_id_hold_separate_positions() {
+        Security security = Security.builder().isin("ABC").build();
+        Shareholder first = Shareholder.builder().build();
+        Shareholder second = Shareholder.builder().build();
+
+        first.incPosition(security, 100);
+        second.incPosition(security, 30);
+        first.decPosition(security, 40);
+
+        assertThat(first.getPosition(security)).isEqualTo(60);
+        assertThat(second.getPosition(security)).isEqualTo(30);
+        assertThatThrownBy(() -> second.decPosition(security, 31)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(second.getPosition(security)).isEqualTo(30);
+    }
+
+    @Test
+    void positions_are_listed_for_the_securities_held() {
+        Security abc = Security.builder().isin("ABC").build();
+        Security xyz = Security.builder().isin("XYZ").build();
+        Security unheld = Security.builder().isin("NOP").build();
+        Shareholder shareholder = Shareholder.builder().shareholderId(1).build();
+
+        shareholder.incPosition(xyz, 5);
+        shareholder.incPosition(abc, 7);
+        shareholder.incPosition(xyz, 5);
+
+        assertThat(shareholder.getPositions()).containsOnly(entry(xyz, 10), entry(abc, 7));
+        assertThat(List.copyOf(shareholder.getPositions().keySet())).containsExactly(xyz, abc);
+        assertThat(shareholder.hasEnoughPositionsOn(unheld, 1)).isFalse();
+        assertThat(shareholder.hasEnoughPositionsOn(unheld, 0)).isTrue();
+    }
+}
@@ -0,0 +1,194 @@
+package ir.ramtung.tinyme.domain;
+
+import ir.ramtung.tinyme.domain.entity.*;
+import ir.ramtung.tinyme.domain.entity.order.IcebergOrder;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.entity.order.StopOrder;
+import ir.ramtung.tinyme.domain.entity.queues.LevelListener;
+import ir.ramtung.tinyme.domain.entity.queues.PriceLevelQueue;
+import ir.ramtung.tinyme.domain.entity.queues.StopOrderQueue;
+import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PriceLevelQueueTest {
+    private Security security;
+    private Broker broker;
+    private Shareholder shareholder;
+
+    @BeforeEach
+    void setup() {
+        security = Security.builder().build();
+        broker = Broker.builder().build();
+        shareholder = Shareholder.builder().build();
+    }
+
+    @Test
+    void buy_queue_orders_by_descending_price_then_arrival() {
+        PriceLevelQueue queue = new PriceLevelQueue(Side.BUY);
+        Order o1 = new Order(1, security, Side.BUY, 10, 100, broker, shareholder);
+        Order o2 = new Order(2, security, Side.BUY, 10, 120, broker, shareholder);
+        Order o3 = new Order(3, security, Side.BUY, 10, 100, broker, shareholder);
+        Order o4 = new Order(4, security, Side.BUY, 10, 110, broker, shareholder);
+        List.of(o1, o2, o3, o4).forEach(queue::enqueue);
+
+        assertThat(queue).containsExactly(o2, o4, o1, o3);
+        assertThat(queue.levelCount()).isEqualTo(3);
+        assertThat(queue.getFirst()).isEqualTo(o2);
+    }
+
+    @Test
+    void sell_queue_orders_by_ascending_price_then_arrival() {
+        PriceLevelQueue queue = new PriceLevelQueue(Side.SELL);
+        Order o1 = new Order(1, security, Side.SELL, 10, 100, broker, shareholder);
+        Order o2 = new Order(2, security, Side.SELL, 10, 90, broker, shareholder);
+        Order o3 = new Order(3, security, Side.SELL, 10, 100, broker, shareholder);
+        List.of(o1, o2, o3).forEach(queue::enqueue);
+
+        assertThat(queue).containsExactly(o2, o1, o3);
+        assertThat(queue.removeFirst()).isEqualTo(o2);
+        assertThat(queue).containsExactly(o1, o3);
+        assertThat(queue.levelCount()).isEqualTo(1);
+    }
+
+    @Test
+    void add_first_goes_to_the_front_of_its_level() {
+        PriceLevelQueue queue = new PriceLevelQueue(Side.BUY);
+        Order o1 = new Order(1, security, Side.BUY, 10, 100, broker, shareholder);
+        Order o2 = new Order(2, security, Side.BUY, 10, 100, broker, shareholder);
+        queue.enqueue(o1);
+        queue.addFirst(o2);
+
+        assertThat(queue).containsExactly(o2, o1);
+    }
+
+    @Test
+    void stop_queue_puts_the_order_closest_to_its_trigger_first() {
+        StopOrderQueue buyStops = new StopOrderQueue(Side.BUY);
+        StopOrder b1 = new StopOrder(1, security, Side.BUY, 10, 120, broker, shareholder, LocalDateTime.now(), 130);
+        StopOrder b2 = new StopOrder(2, security, Side.BUY, 10, 100, broker, shareholder, LocalDateTime.now(), 110);
+        buyStops.enqueue(b1);
+        buyStops.enqueue(b2);
+        StopOrderQueue sellStops = new StopOrderQueue(Side.SELL);
+        StopOrder s1 = new StopOrder(3, security, Side.SELL, 10, 80, broker, shareholder, LocalDateTime.now(), 90);
+        StopOrder s2 = new StopOrder(4, security, Side.SELL, 10, 90, broker, shareholder, LocalDateTime.now(), 95);
+        sellStops.enqueue(s1);
+        sellStops.enqueue(s2);
+
+        assertThat(buyStops).containsExactly(b2, b1);
+        assertThat(buyStops.getFirst()).isEqualTo(b2);
+        assertThat(sellStops).containsExactly(s2, s1);
+        assertThat(sellStops.getFirst()).isEqualTo(s2);
+    }
+
+    @Test
+    void removing_the_best_level_exposes_the_next_one() {
+        PriceLevelQueue queue = new PriceLevelQueue(Side.BUY);
+        Order o1 = new Order(1, security, Side.BUY, 10, 120, broker, shareholder);
+        Order o2 = new Order(2, security, Side.BUY, 10, 100, broker, shareholder);
+        queue.enqueue(o2);
+        queue.enqueue(o1);
+
+        assertThat(queue.removeFirst()).isEqualTo(o1);
+        assertThat(queue.getFirst()).isEqualTo(o2);
+        assertThat(queue.removeFirst()).isEqualTo(o2);
+        assertThatThrownBy(queue::getFirst).isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    void iterator_removal_drops_empty_levels() {
+        PriceLevelQueue queue = new PriceLevelQueue(Side.SELL);
+        Order o1 = new Order(1, security, Side.SELL, 10, 100, broker, shareholder);
+        Order o2 = new Order(2, security, Side.SELL, 10, 110, broker, shareholder);
+        queue.enqueue(o1);
+        queue.enqueue(o2);
+
+        queue.removeIf(order -> order.getOrderId() == 1);
+
+        assertThat(queue).containsExactly(o2);
+        assertThat(queue.levelCount()).isEqualTo(1);
+        assertThat(queue.get(0)).isEqualTo(o2);
+    }
+
+    @Test
+    void queueing_a_second_order_with_the_same_id_is_rejected() {
+        PriceLevelQueue queue = new PriceLevelQueue(Side.BUY);
+        Order o1 = new Order(1, security, Side.BUY, 10, 100, broker, shareholder);
+        Order duplicate = new Order(1, security, Side.BUY, 10, 110, broker, shareholder);
+        queue.enqueue(o1);
+
+        assertThatThrownBy(() -> queue.enqueue(duplicate)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> queue.enqueueAll(List.of(duplicate))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(queue).containsExactly(o1);
+        assertThat(queue.levelCount()).isEqualTo(1);
+        queue.verifyConsistency();
+    }
+
+    @Test
+    void finds_and_removes_by_order_id_even_after_the_price_changed() {
+        PriceLevelQueue queue = new PriceLevelQueue(Side.BUY);
+        Order o1 = new Order(1, security, Side.BUY, 10, 100, broker, shareholder);
+        Order o2 = new Order(2, security, Side.BUY, 10, 100, broker, shareholder);
+        queue.enqueue(o1);
+        queue.enqueue(o2);
+
+        o1.updateFromRequest(EnterOrderRq.builder().quantity(10).price(150).build());
+
+        assertThat(queue.findByOrderId(1)).isEqualTo(o1);
+        assertThat(queue.removeByOrderId(1)).isTrue();
+        assertThat(queue.findByOrderId(1)).isNull();
+        assertThat(queue.removeByOrderId(1)).isFalse();
+        assertThat(queue).containsExactly(o2);
+        queue.verifyConsistency();
+    }
+
+    @Test
+    void levels_sum_the_displayed_quantity_of_icebergs() {
+        PriceLevelQueue queue = new PriceLevelQueue(Side.SELL);
+        queue.enqueue(new Order(1, security, Side.SELL, 10, 100, broker, shareholder));
+        IcebergOrder iceberg = new IcebergOrder(2, security, Side.SELL, 50, 100, broker, shareholder,
+                LocalDateTime.now(), 20, OrderStatus.QUEUED);
+        queue.enqueue(iceberg);
+
+        assertThat(queue.quantityAt(100)).isEqualTo(30);
+        assertThat(queue.quantityAt(110)).isZero();
+
+        iceberg.decreaseQuantity(5);
+        queue.quantityChanged(iceberg);
+        assertThat(queue.quantityAt(100)).isEqualTo(25);
+        queue.verifyConsistency();
+    }
+
+    @Test
+    void level_listener_hears_levels_added_changed_and_removed() {
+        PriceLevelQueue queue = new PriceLevelQueue(Side.BUY);
+        Order o1 = new Order(1, security, Side.BUY, 10, 100, broker, shareholder);
+        Order o2 = new Order(2, security, Side.BUY, 15, 110, broker, shareholder);
+        Order o3 = new Order(3, security, Side.BUY, 5, 100, broker, shareholder);
+        queue.enqueue(o1);
+        queue.enqueue(o2);
+        List<String> changes = new ArrayList<>();
+        LevelListener listener = (price, previousQuantity, quantity) -> changes.add(price + ":" + previousQuantity + "->" + quantity);
+        queue.reportLevels(listener);
+        queue.setLevelListener(listener);
+
+        queue.enqueue(o3);
+        o3.decreaseQuantity(2);
+        queue.quantityChanged(o3);
+        queue.removeFirst();
+        queue.removeByOrderId(1);
+        queue.enqueueAll(List.of(new Order(4, security, Side.BUY, 7, 90, broker, shareholder),
+                new Order(5, security, Side.BUY, 8, 90, broker, shareholder)));
+
+        assertThat(changes).containsExactly("110:0->15", "100:0->10", "100:10->15", "100:15->13",
+                "110:15->0", "100:13->3", "90:0->15");
+    }
+}
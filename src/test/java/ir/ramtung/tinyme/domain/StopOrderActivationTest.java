@@ -0,0 +1,74 @@
+package ir.ramtung.tinyme.domain;
+
+import ir.ramtung.tinyme.domain.entity.*;
+import ir.ramtung.tinyme.domain.entity.order.StopOrder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StopOrderActivationTest {
+    private Security security;
+    private Broker broker;
+    private Shareholder shareholder;
+
+    @BeforeEach
+    void setup() {
+        security = Security.builder().isin("TEST").build();
+        broker = Broker.builder().brokerId(1).credit(100_000_000L).build();
+        shareholder = Shareholder.builder().shareholderId(1).build();
+    }
+
+    private StopOrder stopOrder(long orderId, Side side, int price, int stopPrice) {
+        StopOrder order = new StopOrder(orderId, security, side, 10, price, broker, shareholder, LocalDateTime.now(), stopPrice);
+        security.getOrderBook().enqueue(order);
+        return order;
+    }
+
+    @Test
+    void nothing_is_activated_before_the_first_trade() {
+        stopOrder(1, Side.BUY, 100, 90);
+        stopOrder(2, Side.SELL, 100, 110);
+
+        assertThat(security.tryActivateAll()).isEmpty();
+        assertThat(security.getOrderBook().getBuyStopQueue()).hasSize(1);
+        assertThat(security.getOrderBook().getSellStopQueue()).hasSize(1);
+    }
+
+    @Test
+    void only_buy_stops_at_or_below_the_last_price_are_activated() {
+        StopOrder o1 = stopOrder(1, Side.BUY, 100, 120);
+        StopOrder o2 = stopOrder(2, Side.BUY, 100, 95);
+        StopOrder o3 = stopOrder(3, Side.BUY, 100, 100);
+        security.setLastTransactionPrice(100);
+
+        assertThat(security.tryActivateAll()).containsExactly(o2, o3);
+        assertThat(o2.isActive()).isTrue();
+        assertThat(o3.isActive()).isTrue();
+        assertThat(security.getOrderBook().getBuyQueue()).containsExactly(o2, o3);
+        assertThat(security.getOrderBook().getBuyStopQueue()).containsExactly(o1);
+    }
+
+    @Test
+    void sell_stops_at_or_above_the_last_price_are_activated() {
+        StopOrder o1 = stopOrder(1, Side.SELL, 100, 80);
+        StopOrder o2 = stopOrder(2, Side.SELL, 100, 105);
+        security.setLastTransactionPrice(100);
+
+        assertThat(security.tryActivateAll()).containsExactly(o2);
+        assertThat(security.getOrderBook().getSellQueue()).containsExactly(o2);
+        assertThat(security.getOrderBook().getSellStopQueue()).containsExactly(o1);
+    }
+
+    @Test
+    void activated_orders_are_found_by_id_in_the_matching_queue() {
+        stopOrder(1, Side.BUY, 100, 90);
+        security.setLastTransactionPrice(90);
+        security.tryActivateAll();
+
+        assertThat(security.getOrderBook().findByOrderId(Side.BUY, 1).isActive()).isTrue();
+        assertThat(security.getOrderBook().getBuyStopQueue()).isEmpty();
+    }
+}
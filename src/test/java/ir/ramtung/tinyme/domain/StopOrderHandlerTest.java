@@ -267,8 +267,8 @@ public class StopOrderHandlerTest {
 
         verify(eventPublisher).publish(any(OrderAcceptedEvent.class));
         assertThat(security.getOrderBook().getSellQueue()).hasSize(1);
-        assertThat(security.getOrderBook().getBuyQueue()).hasSize(1);
-        assertThat(security.getOrderBook().getBuyQueue().get(0).getQuantity()).isEqualTo(120);
+        assertThat(security.getOrderBook().getBuyStopQueue()).hasSize(1);
+        assertThat(security.getOrderBook().getBuyStopQueue().get(0).getQuantity()).isEqualTo(120);
         assertThat(broker2.getCredit()).isEqualTo(100_000_000L - 120 * 10L);
 
     }
@@ -295,9 +295,9 @@ public class StopOrderHandlerTest {
         ));
 
         verify(eventPublisher).publish(any(OrderAcceptedEvent.class));
-        assertThat(security.getOrderBook().getSellQueue()).hasSize(1);
+        assertThat(security.getOrderBook().getSellStopQueue()).hasSize(1);
         assertThat(security.getOrderBook().getBuyQueue()).hasSize(1);
-        assertThat(security.getOrderBook().getSellQueue().get(0).getQuantity()).isEqualTo(120);
+        assertThat(security.getOrderBook().getSellStopQueue().get(0).getQuantity()).isEqualTo(120);
         assertThat(broker2.getCredit()).isEqualTo(100_000_000L);
 
     }
@@ -427,8 +427,8 @@ public class StopOrderHandlerTest {
 
         verify(eventPublisher).publish(any(OrderAcceptedEvent.class));
         assertThat(security.getOrderBook().getSellQueue()).hasSize(1);
-        assertThat(security.getOrderBook().getBuyQueue()).hasSize(1);
-        assertThat(security.getOrderBook().getBuyQueue().get(0).getQuantity()).isEqualTo(120);
+        assertThat(security.getOrderBook().getBuyStopQueue()).hasSize(1);
+        assertThat(security.getOrderBook().getBuyStopQueue().get(0).getQuantity()).isEqualTo(120);
         assertThat(broker2.getCredit()).isEqualTo(100_000_000L - 120 * 20L);
 
     }
@@ -469,9 +469,9 @@ public class StopOrderHandlerTest {
         ));
 
         verify(eventPublisher).publish(any(OrderAcceptedEvent.class));
-        assertThat(security.getOrderBook().getSellQueue()).hasSize(1);
+        assertThat(security.getOrderBook().getSellStopQueue()).hasSize(1);
         assertThat(security.getOrderBook().getBuyQueue()).hasSize(1);
-        assertThat(security.getOrderBook().getSellQueue().get(0).getQuantity()).isEqualTo(90);
+        assertThat(security.getOrderBook().getSellStopQueue().get(0).getQuantity()).isEqualTo(90);
         assertThat(broker2.getCredit()).isEqualTo(100_000_000L);
 
     }
@@ -515,7 +515,7 @@ public class StopOrderHandlerTest {
 
         verify(eventPublisher, times(2)).publish(any(OrderAcceptedEvent.class));
         assertThat(security.getOrderBook().getSellQueue()).hasSize(1);
-        assertThat(security.getOrderBook().getBuyQueue()).hasSize(1);
+        assertThat(security.getOrderBook().getBuyStopQueue()).hasSize(1);
 
         orderHandler.handleEnterOrder(EnterOrderRq.createUpdateOrderRq(
                 3,
@@ -580,7 +580,7 @@ public class StopOrderHandlerTest {
         ));
 
         verify(eventPublisher, times(2)).publish(any(OrderAcceptedEvent.class));
-        assertThat(security.getOrderBook().getSellQueue()).hasSize(1);
+        assertThat(security.getOrderBook().getSellStopQueue()).hasSize(1);
         assertThat(security.getOrderBook().getBuyQueue()).hasSize(1);
 
         orderHandler.handleEnterOrder(EnterOrderRq.createUpdateOrderRq(
@@ -0,0 +1,167 @@
+package ir.ramtung.tinyme.journal;
+
+import ir.ramtung.tinyme.domain.entity.*;
+import ir.ramtung.tinyme.domain.entity.order.IcebergOrder;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.entity.order.StopOrder;
+import ir.ramtung.tinyme.domain.service.Matcher;
+import ir.ramtung.tinyme.messaging.RequestDispatcher;
+import ir.ramtung.tinyme.messaging.ShardedExecutor;
+import ir.ramtung.tinyme.messaging.request.MatchingState;
+import ir.ramtung.tinyme.repository.BrokerRepository;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import ir.ramtung.tinyme.repository.ShareholderRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static ir.ramtung.tinyme.domain.entity.Side.BUY;
+import static ir.ramtung.tinyme.domain.entity.Side.SELL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BinarySnapshotTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 2, 23, 10, 0, 0, 123_456_789);
+
+    @TempDir
+    Path directory;
+    private SecurityRepository securityRepository;
+    private BrokerRepository brokerRepository;
+    private ShareholderRepository shareholderRepository;
+
+    @BeforeEach
+    void setupMarket() {
+        securityRepository = new SecurityRepository();
+        brokerRepository = new BrokerRepository();
+        shareholderRepository = new ShareholderRepository();
+        Broker buyer = Broker.builder().brokerId(1).name("buyer").credit(10_000_000).build();
+        Broker seller = Broker.builder().brokerId(2).credit(0).build();
+        Shareholder shareholder = Shareholder.builder().shareholderId(7).name("holder").build();
+        Shareholder other = Shareholder.builder().shareholderId(8).build();
+        brokerRepository.addBroker(buyer);
+        brokerRepository.addBroker(seller);
+        shareholderRepository.addShareholder(shareholder);
+        shareholderRepository.addShareholder(other);
+
+        Security abc = Security.builder().isin("ABC").tickSize(5).lotSize(10).build();
+        Security xyz = Security.builder().isin("XYZ").build();
+        securityRepository.addSecurity(abc);
+        securityRepository.addSecurity(xyz);
+        shareholder.incPosition(abc, 5_000);
+        other.incPosition(abc, 300);
+        other.incPosition(xyz, 0);
+
+        OrderBook book = abc.getOrderBook();
+        book.enqueue(new IcebergOrder(1, abc, SELL, 1_000, 15_800, seller, shareholder, TIME, 200));
+        book.enqueue(new Order(2, abc, SELL, 40, 15_900, seller, other, TIME.plusSeconds(1)));
+        book.enqueue(new Order(3, abc, BUY, 60, 15_500, buyer, other, TIME.plusSeconds(2)));
+        book.enqueue(new StopOrder(4, abc, BUY, 30, 16_500, buyer, other, TIME.plusSeconds(3), 16_400));
+        book.enqueue(new StopOrder(5, abc, SELL, 20, 15_000, seller, shareholder, TIME.plusSeconds(4), 15_100));
+        StopOrder activated = new StopOrder(6, abc, BUY, 25, 15_400, buyer, other, TIME.plusSeconds(5), 15_300);
+        activated.activate();
+        book.enqueue(activated);
+        new Matcher().execute(new Order(9, abc, BUY, 150, 15_800, buyer, other, TIME.plusSeconds(6)));
+        abc.setLastTransactionPrice(15_800);
+        abc.setMatchingState(MatchingState.AUCTION);
+    }
+
+    private static List<String> describe(SecurityRepository securities, BrokerRepository brokers,
+                                         ShareholderRepository shareholders) {
+        List<String> state = new ArrayList<>();
+        for (long id = 1; id <= 2; id++) {
+            Broker broker = brokers.findBrokerById(id);
+            state.add("broker " + id + " " + broker.getName() + " " + broker.getCredit());
+        }
+        for (long id = 7; id <= 8; id++) {
+            Shareholder shareholder = shareholders.findShareholderById(id);
+            state.add("shareholder " + id + " " + shareholder.getName());
+            shareholder.getPositions().entrySet().stream()
+                    .map(position -> "  " + position.getKey().getIsin() + " " + position.getValue())
+                    .sorted()
+                    .forEach(state::add);
+        }
+        for (String isin : List.of("ABC", "XYZ")) {
+            Security security = securities.findSecurityByIsin(isin);
+            OrderBook book = security.getOrderBook();
+            state.add(isin + " " + security.getTickSize() + "/" + security.getLotSize() + " "
+                    + security.getMatchingState() + " last " + book.getLastTransactionPrice());
+            for (List<Order> queue : List.of(book.getBuyQueue(), book.getSellQueue(), book.getBuyStopQueue(), book.getSellStopQueue()))
+                for (Order order : queue)
+                    state.add("  " + describe(order));
+            if (security.getMatchingState() == MatchingState.AUCTION)
+                state.add("  opening " + security.openingState());
+        }
+        return state;
+    }
+
+    private static String describe(Order order) {
+        String description = order.getClass().getSimpleName() + " " + order.getOrderId() + " " + order.getSide()
+                + " " + order.getQuantity() + "/" + order.getTotalQuantity() + " @" + order.getPrice()
+                + " broker " + order.getBroker().getBrokerId() + " shareholder " + order.getShareholder().getShareholderId()
+                + " " + order.getEntryTime() + " " + order.getStatus();
+        if (order instanceof IcebergOrder iceberg)
+            description += " peak " + iceberg.getPeakSize() + " displayed " + iceberg.getDisplayedQuantity();
+        if (order instanceof StopOrder stop)
+            description += " stop " + stop.getStopPrice() + (stop.isActive() ? " active" : "");
+        return description;
+    }
+
+    private long readInto(SecurityRepository securities, BrokerRepository brokers, ShareholderRepository shareholders,
+                          Path file) throws Exception {
+        long sequence = BinarySnapshot.read(file, securities, brokers, shareholders);
+        for (String isin : List.of("ABC", "XYZ"))
+            securities.findSecurityByIsin(isin).getOrderBook().verifyCommittedSellQuantities();
+        return sequence;
+    }
+
+    @Test
+    void a_snapshot_restores_what_the_csv_files_lose() throws Exception {
+        Path file = directory.resolve("offline.snapshot");
+        SnapshotService service = new SnapshotService(securityRepository, brokerRepository, shareholderRepository,
+                null, null, Optional.empty(), file.toString(), 0);
+        assertThat(service.exists()).isFalse();
+        assertThat(service.takeOffline()).isZero();
+        assertThat(service.exists()).isTrue();
+
+        SecurityRepository securities = new SecurityRepository();
+        BrokerRepository brokers = new BrokerRepository();
+        ShareholderRepository shareholders = new ShareholderRepository();
+        readInto(securities, brokers, shareholders, file);
+
+        assertThat(describe(securities, brokers, shareholders))
+                .isEqualTo(describe(securityRepository, brokerRepository, shareholderRepository));
+        IcebergOrder iceberg = (IcebergOrder) securities.findSecurityByIsin("ABC").getOrderBook().findByOrderId(SELL, 1);
+        assertThat(iceberg.getDisplayedQuantity()).isEqualTo(50);
+        assertThat(iceberg.getTotalQuantity()).isEqualTo(850);
+        assertThat(iceberg.getEntryTime()).isEqualTo(TIME);
+    }
+
+    @Test
+    void a_snapshot_taken_between_requests_matches_one_taken_offline() throws Exception {
+        ShardedExecutor shardedExecutor = new ShardedExecutor(3);
+        RequestJournal journal = new RequestJournal(directory.resolve("journal"), 1 << 16, 1);
+        journal.open();
+        try {
+            RequestDispatcher dispatcher = new RequestDispatcher(null, null, shardedExecutor, null, Optional.of(journal), Optional.empty(), Optional.empty());
+            Path file = directory.resolve("online.snapshot");
+            SnapshotService service = new SnapshotService(securityRepository, brokerRepository, shareholderRepository,
+                    dispatcher, shardedExecutor, Optional.of(journal), file.toString(), 0);
+            assertThat(service.takeOnline()).isZero();
+
+            SecurityRepository securities = new SecurityRepository();
+            BrokerRepository brokers = new BrokerRepository();
+            ShareholderRepository shareholders = new ShareholderRepository();
+            assertThat(readInto(securities, brokers, shareholders, file)).isZero();
+            assertThat(describe(securities, brokers, shareholders))
+                    .isEqualTo(describe(securityRepository, brokerRepository, shareholderRepository));
+        } finally {
+            shardedExecutor.shutdown();
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ir.ramtung.tinyme.journal;
+
+import ir.ramtung.tinyme.domain.entity.Broker;
+import ir.ramtung.tinyme.domain.entity.CreditDecisions;
+import ir.ramtung.tinyme.domain.entity.OrderBook;
+import ir.ramtung.tinyme.domain.entity.Security;
+import ir.ramtung.tinyme.domain.entity.Shareholder;
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.service.*;
+import ir.ramtung.tinyme.messaging.EventPublisher;
+import ir.ramtung.tinyme.messaging.event.Event;
+import ir.ramtung.tinyme.messaging.request.ChangeMatchingStateRq;
+import ir.ramtung.tinyme.messaging.request.DeleteOrderRq;
+import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
+import ir.ramtung.tinyme.messaging.request.MatchingState;
+import ir.ramtung.tinyme.repository.BrokerRepository;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import ir.ramtung.tinyme.repository.ShareholderRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JournalReplayerTest {
+    private static final String[] ISINS = {"ABC", "XYZ"};
+    private static final int BROKERS = 3;
+    private static final int SHAREHOLDERS = 4;
+
+    @TempDir
+    Path directory;
+
+    private static class Exchange {
+        final SecurityRepository securityRepository = new SecurityRepository();
+        final BrokerRepository brokerRepository = new BrokerRepository();
+        final ShareholderRepository shareholderRepository = new ShareholderRepository();
+        final Matcher matcher;
+        final Map<MatchingState, MatchingStrategy> matchingStrategies;
+
+        Exchange(boolean allocationFree) {
+            matcher = new Matcher(allocationFree);
+            matchingStrategies = Map.of(
+                    MatchingState.CONTINUOUS, new ContinuousMatchingStrategy(matcher),
+                    MatchingState.AUCTION, new AuctionMatchingStrategy(matcher));
+            for (String isin : ISINS)
+                securityRepository.addSecurity(Security.builder().isin(isin).build());
+            for (int id = 1; id <= BROKERS; id++)
+                brokerRepository.addBroker(Broker.builder().brokerId(id).credit(20_000_000).build());
+            for (int id = 1; id <= SHAREHOLDERS; id++) {
+                Shareholder shareholder = Shareholder.builder().shareholderId(id).build();
+                for (String isin : ISINS)
+                    shareholder.incPosition(securityRepository.findSecurityByIsin(isin), 5_000);
+                shareholderRepository.addShareholder(shareholder);
+            }
+        }
+
+        List<String> state() {
+            List<String> state = new ArrayList<>();
+            for (int id = 1; id <= BROKERS; id++)
+                state.add("broker " + id + ": " + brokerRepository.findBrokerById(id).getCredit());
+            for (String isin : ISINS) {
+                Security security = securityRepository.findSecurityByIsin(isin);
+                OrderBook orderBook = security.getOrderBook();
+                state.add(isin + " " + security.getMatchingState() + " last " + orderBook.getLastTransactionPrice());
+                for (int id = 1; id <= SHAREHOLDERS; id++)
+                    state.add(isin + " shareholder " + id + ": "
+                            + shareholderRepository.findShareholderById(id).getPosition(security));
+                describe(state, "buy", orderBook.getBuyQueue());
+                describe(state, "sell", orderBook.getSellQueue());
+                describe(state, "buy stop", orderBook.getBuyStopQueue());
+                describe(state, "sell stop", orderBook.getSellStopQueue());
+            }
+            return state;
+        }
+
+        private static void describe(List<String> state, String queue, Iterable<? extends Order> orders) {
+            for (Order order : orders)
+                state.add(queue + " " + order.getOrderId() + " " + order.getPrice() + " "
+                        + order.getQuantity() + "/" + order.getTotalQuantity());
+        }
+    }
+
+    private static class SilentEventPublisher extends EventPublisher {
+        SilentEventPublisher() {
+            super(null, Optional.empty(), Optional.empty());
+        }
+
+        @Override
+        public void publish(Event event) {
+        }
+    }
+
+    private void runAndJournal(Exchange exchange, RequestJournal journal, long seed) {
+        EventPublisher eventPublisher = new SilentEventPublisher();
+        OrderHandler orderHandler = new OrderHandler(exchange.securityRepository, exchange.brokerRepository,
+                exchange.shareholderRepository, eventPublisher, exchange.matcher, exchange.matchingStrategies);
+        SecurityConfigurationHandler securityConfigurationHandler =
+                new SecurityConfigurationHandler(orderHandler, exchange.securityRepository, eventPublisher);
+        Random random = new Random(seed);
+        LocalDateTime time = LocalDateTime.of(2024, 2, 23, 9, 0);
+        for (long requestId = 1; requestId <= 2_000; requestId++) {
+            time = time.plusSeconds(1);
+            String isin = ISINS[random.nextInt(ISINS.length)];
+            Side side = random.nextBoolean() ? Side.BUY : Side.SELL;
+            long orderId = 1 + random.nextInt((int) requestId);
+            int choice = random.nextInt(100);
+            if (choice < 3) {
+                MatchingState target = random.nextBoolean() ? MatchingState.AUCTION : MatchingState.CONTINUOUS;
+                ChangeMatchingStateRq rq = ChangeMatchingStateRq.builder().requestId(requestId).entryTime(time)
+                        .securityIsin(isin).targetState(target).build();
+                journal.append(rq);
+                securityConfigurationHandler.handleMatchingStateRq(rq);
+            } else if (choice < 15) {
+                DeleteOrderRq rq = DeleteOrderRq.builder().requestId(requestId).entryTime(time)
+                        .securityIsin(isin).side(side).orderId(orderId).build();
+                journal.append(rq);
+                orderHandler.handleDeleteOrder(rq);
+            } else {
+                int quantity = 10 + random.nextInt(300);
+                int price = 1_000 + random.nextInt(40);
+                int peakSize = random.nextInt(4) == 0 ? quantity / 3 : 0;
+                int stopPrice = peakSize == 0 && random.nextInt(8) == 0 ? price + (side == Side.BUY ? 5 : -5) : 0;
+                long brokerId = 1 + random.nextInt(BROKERS);
+                long shareholderId = 1 + random.nextInt(SHAREHOLDERS);
+                EnterOrderRq rq = choice < 30
+                        ? EnterOrderRq.createUpdateOrderRq(requestId, isin, orderId, time, side, quantity, price,
+                                brokerId, shareholderId, peakSize, 0, stopPrice)
+                        : EnterOrderRq.createNewOrderRq(requestId, isin, requestId, time, side, quantity, price,
+                                brokerId, shareholderId, peakSize, 0, stopPrice);
+                journal.append(rq);
+                orderHandler.handleEnterOrder(rq);
+            }
+        }
+    }
+
+    @Test
+    void replaying_the_journal_rebuilds_the_same_state() throws InterruptedException {
+        for (boolean allocationFree : new boolean[]{false, true}) {
+            Path journalDirectory = directory.resolve(allocationFree ? "allocation-free" : "default");
+            RequestJournal journal = new RequestJournal(journalDirectory, 1 << 16, 1);
+            journal.open();
+            Exchange live = new Exchange(allocationFree);
+            runAndJournal(live, journal, 17);
+            journal.close();
+
+            RequestJournal reopened = new RequestJournal(journalDirectory, 1 << 16, 1);
+            reopened.open();
+            Exchange recovered = new Exchange(allocationFree);
+            long replayed = new JournalReplayer(reopened, recovered.securityRepository, recovered.brokerRepository,
+                    recovered.shareholderRepository, recovered.matcher, recovered.matchingStrategies).replay();
+            reopened.close();
+
+            assertThat(replayed).isEqualTo(2_000);
+            assertThat(recovered.state()).isEqualTo(live.state());
+        }
+    }
+
+    @Test
+    void credit_is_granted_as_it_was_even_when_the_shards_ran_in_another_order() throws InterruptedException {
+        RequestJournal journal = new RequestJournal(directory, 1 << 16, 1);
+        journal.open();
+        Exchange live = new Exchange(false);
+        Broker broker = live.brokerRepository.findBrokerById(1);
+        broker.decreaseCreditBy(broker.getCredit() - 1_000_000);
+        OrderHandler orderHandler = new OrderHandler(live.securityRepository, live.brokerRepository,
+                live.shareholderRepository, new SilentEventPublisher(), live.matcher, live.matchingStrategies);
+        LocalDateTime time = LocalDateTime.of(2024, 2, 23, 9, 0);
+        EnterOrderRq onAbc = EnterOrderRq.createNewOrderRq(1, "ABC", 1, time, Side.BUY, 100, 10_000, 1, 1, 0);
+        EnterOrderRq onXyz = EnterOrderRq.createNewOrderRq(2, "XYZ", 2, time, Side.BUY, 100, 10_000, 1, 1, 0);
+        long abcSequence = journal.append(onAbc);
+        long xyzSequence = journal.append(onXyz);
+        for (long sequence : new long[]{xyzSequence, abcSequence}) {
+            CreditDecisions decisions = CreditDecisions.record();
+            orderHandler.handleEnterOrder(sequence == abcSequence ? onAbc : onXyz);
+            CreditDecisions.stop();
+            journal.appendCreditDecisions(sequence, decisions);
+        }
+        journal.close();
+
+        RequestJournal reopened = new RequestJournal(directory, 1 << 16, 1);
+        reopened.open();
+        Exchange recovered = new Exchange(false);
+        Broker recoveredBroker = recovered.brokerRepository.findBrokerById(1);
+        recoveredBroker.decreaseCreditBy(recoveredBroker.getCredit() - 1_000_000);
+        long replayed = new JournalReplayer(reopened, recovered.securityRepository, recovered.brokerRepository,
+                recovered.shareholderRepository, recovered.matcher, recovered.matchingStrategies).replay();
+        reopened.close();
+
+        assertThat(replayed).isEqualTo(2);
+        assertThat(live.securityRepository.findSecurityByIsin("ABC").getOrderBook().getBuyQueue()).isEmpty();
+        assertThat(recovered.state()).isEqualTo(live.state());
+    }
+}
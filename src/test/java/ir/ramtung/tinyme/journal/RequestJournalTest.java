@@ -0,0 +1,218 @@
+package ir.ramtung.tinyme.journal;
+
+import ir.ramtung.tinyme.domain.entity.Broker;
+import ir.ramtung.tinyme.domain.entity.CreditDecisions;
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.messaging.request.ChangeMatchingStateRq;
+import ir.ramtung.tinyme.messaging.request.DeleteOrderRq;
+import ir.ramtung.tinyme.messaging.request.EnterOrderRq;
+import ir.ramtung.tinyme.messaging.request.MatchingState;
+import ir.ramtung.tinyme.messaging.request.Request;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestJournalTest {
+    @TempDir
+    Path directory;
+    private final List<RequestJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeJournals() throws InterruptedException {
+        for (RequestJournal journal : opened)
+            journal.close();
+    }
+
+    private RequestJournal open(int segmentBytes) {
+        RequestJournal journal = new RequestJournal(directory, segmentBytes, 1);
+        journal.open();
+        opened.add(journal);
+        return journal;
+    }
+
+    private static EnterOrderRq newOrderRq(long requestId) {
+        return EnterOrderRq.createNewOrderRq(requestId, "ABC", requestId, LocalDateTime.of(2024, 2, 23, 10, 0),
+                Side.BUY, 100, 15000, 1, 1, 0);
+    }
+
+    private static List<Request> requests(int count) {
+        List<Request> requests = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            requests.add(switch (i % 3) {
+                case 0 -> newOrderRq(i);
+                case 1 -> DeleteOrderRq.builder().requestId(i).securityIsin("ABC").side(Side.SELL).orderId(i)
+                        .entryTime(LocalDateTime.of(2024, 2, 23, 10, 1)).build();
+                default -> ChangeMatchingStateRq.builder().requestId(i).securityIsin("ABC")
+                        .entryTime(LocalDateTime.of(2024, 2, 23, 10, 2)).targetState(MatchingState.AUCTION).build();
+            });
+        }
+        return requests;
+    }
+
+    private static List<Request> readBack(RequestJournal journal, List<Long> sequences) {
+        List<Request> read = new ArrayList<>();
+        journal.readAll((request, sequence) -> {
+            read.add(request);
+            sequences.add(sequence);
+        });
+        return read;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    @Test
+    void requests_are_read_back_in_order_after_reopening() throws InterruptedException {
+        RequestJournal journal = open(1 << 16);
+        List<Request> requests = requests(30);
+        for (int i = 0; i < requests.size(); i++)
+            assertThat(journal.append(requests.get(i))).isEqualTo(i + 1);
+        journal.close();
+
+        RequestJournal reopened = open(1 << 16);
+        List<Long> sequences = new ArrayList<>();
+        assertThat(readBack(reopened, sequences)).isEqualTo(requests);
+        assertThat(sequences).first().isEqualTo(1L);
+        assertThat(sequences).last().isEqualTo(30L);
+        assertThat(reopened.append(newOrderRq(31))).isEqualTo(31);
+    }
+
+    @Test
+    void appends_roll_over_to_new_segments() throws IOException {
+        RequestJournal journal = open(256);
+        List<Request> requests = requests(40);
+        requests.forEach(journal::append);
+
+        assertThat(segmentFiles()).hasSizeGreaterThan(1);
+        assertThat(readBack(journal, new ArrayList<>())).isEqualTo(requests);
+    }
+
+    @Test
+    void segments_up_to_a_snapshot_are_discarded() throws IOException {
+        RequestJournal journal = open(256);
+        requests(40).forEach(journal::append);
+        int segments = segmentFiles().size();
+
+        journal.discardUpTo(20);
+
+        List<Long> sequences = new ArrayList<>();
+        readBack(journal, sequences);
+        assertThat(segmentFiles()).hasSizeLessThan(segments);
+        assertThat(sequences.get(0)).isLessThanOrEqualTo(21L);
+        assertThat(sequences).endsWith(40L).doesNotHaveDuplicates();
+        assertThat((long) sequences.size()).isEqualTo(41 - sequences.get(0));
+    }
+
+    @Test
+    void a_torn_record_ends_the_journal_and_is_overwritten() throws Exception {
+        RequestJournal journal = open(1 << 16);
+        requests(5).forEach(journal::append);
+        journal.close();
+
+        Path segment = segmentFiles().get(0);
+        int end;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer lengths = ByteBuffer.allocate(Integer.BYTES).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+            int position = 0;
+            for (int i = 0; i < 4; i++) {
+                lengths.clear();
+                channel.read(lengths, position);
+                position += RequestJournal.HEADER_BYTES + lengths.getInt(0);
+            }
+            end = position;
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF, 0x01, 0x02}), end + 20);
+        }
+
+        RequestJournal reopened = open(1 << 16);
+        List<Request> expected = new ArrayList<>(requests(4));
+        assertThat(readBack(reopened, new ArrayList<>())).isEqualTo(expected);
+        Request appended = newOrderRq(99);
+        assertThat(reopened.append(appended)).isEqualTo(5);
+        expected.add(appended);
+        assertThat(readBack(reopened, new ArrayList<>())).isEqualTo(expected);
+    }
+
+    @Test
+    void appended_requests_become_durable() throws InterruptedException {
+        RequestJournal journal = open(1 << 16);
+        long last = 0;
+        for (Request request : requests(10))
+            last = journal.append(request);
+        journal.awaitDurable(last);
+    }
+
+    @Test
+    void checkpoint_drops_the_journaled_requests_but_keeps_the_sequence() throws InterruptedException {
+        RequestJournal journal = open(1 << 16);
+        requests(7).forEach(journal::append);
+        journal.checkpoint(7);
+
+        assertThat(readBack(journal, new ArrayList<>())).isEmpty();
+        assertThat(journal.append(newOrderRq(8))).isEqualTo(8);
+        journal.close();
+
+        List<Long> sequences = new ArrayList<>();
+        assertThat(readBack(open(1 << 16), sequences)).containsExactly(newOrderRq(8));
+        assertThat(sequences).containsExactly(8L);
+    }
+
+    @Test
+    void checkpoint_keeps_the_records_appended_after_the_saved_state() throws InterruptedException {
+        RequestJournal journal = open(256);
+        List<Request> requests = requests(40);
+        requests.forEach(journal::append);
+        journal.checkpoint(25);
+
+        List<Long> sequences = new ArrayList<>();
+        assertThat(readBack(journal, sequences)).isEqualTo(requests.subList(25, 40));
+        assertThat(sequences.get(0)).isEqualTo(26L);
+        assertThat(journal.append(newOrderRq(41))).isEqualTo(41);
+        journal.close();
+
+        sequences.clear();
+        assertThat(readBack(open(256), sequences)).hasSize(16).endsWith(newOrderRq(41));
+        assertThat(sequences).startsWith(26L).endsWith(41L).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void credit_decisions_are_read_back_for_their_request() throws InterruptedException {
+        RequestJournal journal = open(1 << 16);
+        Broker broker = Broker.builder().credit(100).build();
+        long first = journal.append(newOrderRq(1));
+        long second = journal.append(newOrderRq(2));
+        CreditDecisions decisions = CreditDecisions.record();
+        for (int i = 0; i < 70; i++)
+            broker.reserveCredit(i % 3 == 0 ? 1 : 1_000);
+        CreditDecisions.stop();
+        long record = journal.appendCreditDecisions(first, decisions);
+        journal.close();
+
+        Map<Long, CreditDecisions> read = new TreeMap<>();
+        List<Long> sequences = new ArrayList<>();
+        open(1 << 16).readAll((request, sequence) -> sequences.add(sequence), (readDecisions, requestSequence) -> read.put(requestSequence, readDecisions));
+
+        assertThat(record).isEqualTo(second + 1);
+        assertThat(sequences).containsExactly(first, second);
+        assertThat(read).containsOnlyKeys(first);
+        assertThat(read.get(first).count()).isEqualTo(70);
+        assertThat(read.get(first).toLongArray()).isEqualTo(decisions.toLongArray());
+    }
+}
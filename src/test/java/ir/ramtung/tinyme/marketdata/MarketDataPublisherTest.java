@@ -0,0 +1,130 @@
+package ir.ramtung.tinyme.marketdata;
+
+import ir.ramtung.tinyme.domain.entity.*;
+import ir.ramtung.tinyme.domain.entity.order.IcebergOrder;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.journal.RequestJournal;
+import ir.ramtung.tinyme.messaging.ShardedExecutor;
+import ir.ramtung.tinyme.messaging.event.DepthUpdateEvent;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jms.core.JmsTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static ir.ramtung.tinyme.messaging.event.DepthUpdateEvent.Action.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class MarketDataPublisherTest {
+    private Security security;
+    private Broker broker;
+    private Shareholder shareholder;
+    private SecurityRepository securityRepository;
+    private ShardedExecutor shardedExecutor;
+    private JmsTemplate jmsTemplate;
+    private List<Object> sent;
+
+    @BeforeEach
+    void setup() {
+        security = Security.builder().isin("ABC").build();
+        broker = Broker.builder().credit(100_000_000L).build();
+        shareholder = Shareholder.builder().build();
+        shareholder.incPosition(security, 100_000);
+        securityRepository = new SecurityRepository();
+        securityRepository.addSecurity(security);
+        shardedExecutor = mock(ShardedExecutor.class);
+        when(shardedExecutor.shardCount()).thenReturn(1);
+        sent = new ArrayList<>();
+        jmsTemplate = mock(JmsTemplate.class);
+        doAnswer(invocation -> sent.add(invocation.getArgument(1))).when(jmsTemplate).convertAndSend(anyString(), any(Object.class));
+    }
+
+    private Order order(long orderId, Side side, int quantity, int price) {
+        return new Order(orderId, security, side, quantity, price, broker, shareholder);
+    }
+
+    @Test
+    void sends_the_loaded_levels_and_then_the_changes_of_every_request_in_sequence() throws InterruptedException {
+        OrderBook orderBook = security.getOrderBook();
+        orderBook.enqueue(order(1, Side.BUY, 10, 100));
+        orderBook.enqueue(new IcebergOrder(2, security, Side.SELL, 50, 110, broker, shareholder, 20));
+        MarketDataPublisher publisher = new MarketDataPublisher(jmsTemplate, securityRepository, shardedExecutor, Optional.empty(), "MD", 0);
+        publisher.afterSingletonsInstantiated();
+
+        orderBook.enqueue(order(3, Side.BUY, 5, 100));
+        publisher.afterRequest(0, 0);
+        orderBook.removeByOrderId(Side.SELL, 2);
+        publisher.afterRequest(0, 0);
+        publisher.stop();
+
+        assertThat(sent).containsExactly(
+                new DepthUpdateEvent("ABC", 1, Side.BUY, 100, 10, ADDED),
+                new DepthUpdateEvent("ABC", 2, Side.SELL, 110, 20, ADDED),
+                new DepthUpdateEvent("ABC", 3, Side.BUY, 100, 15, CHANGED),
+                new DepthUpdateEvent("ABC", 4, Side.SELL, 110, 0, REMOVED));
+    }
+
+    @Test
+    void conflation_merges_the_changes_to_a_level_until_the_shard_flushes() throws InterruptedException {
+        OrderBook orderBook = security.getOrderBook();
+        orderBook.enqueue(order(1, Side.BUY, 10, 100));
+        MarketDataPublisher publisher = new MarketDataPublisher(jmsTemplate, securityRepository, shardedExecutor, Optional.empty(), "MD", 60_000);
+        publisher.afterSingletonsInstantiated();
+        publisher.flush(0);
+
+        orderBook.enqueue(order(2, Side.SELL, 5, 120));
+        orderBook.removeByOrderId(Side.SELL, 2);
+        orderBook.removeByOrderId(Side.BUY, 1);
+        orderBook.enqueue(order(3, Side.BUY, 7, 100));
+        orderBook.enqueue(order(4, Side.BUY, 3, 90));
+        orderBook.enqueue(order(5, Side.BUY, 1, 90));
+        publisher.afterRequest(0, 0);
+
+        publisher.flush(0);
+        publisher.stop();
+
+        assertThat(sent).containsExactly(
+                new DepthUpdateEvent("ABC", 1, Side.BUY, 100, 10, ADDED),
+                new DepthUpdateEvent("ABC", 2, Side.BUY, 100, 7, CHANGED),
+                new DepthUpdateEvent("ABC", 3, Side.BUY, 90, 4, ADDED));
+    }
+
+    @Test
+    void changes_undone_within_a_request_are_not_sent() throws InterruptedException {
+        OrderBook orderBook = security.getOrderBook();
+        orderBook.enqueue(order(1, Side.BUY, 10, 100));
+        MarketDataPublisher publisher = new MarketDataPublisher(jmsTemplate, securityRepository, shardedExecutor, Optional.empty(), "MD", 0);
+        publisher.afterSingletonsInstantiated();
+
+        orderBook.enqueue(order(2, Side.BUY, 5, 100));
+        orderBook.enqueue(order(3, Side.SELL, 5, 120));
+        orderBook.removeByOrderId(Side.SELL, 3);
+        orderBook.removeByOrderId(Side.BUY, 2);
+        publisher.afterRequest(0, 0);
+        publisher.stop();
+
+        assertThat(sent).containsExactly(new DepthUpdateEvent("ABC", 1, Side.BUY, 100, 10, ADDED));
+    }
+
+    @Test
+    void changes_are_sent_once_the_journal_is_durable_up_to_their_request() throws InterruptedException {
+        RequestJournal journal = mock(RequestJournal.class);
+        MarketDataPublisher publisher = new MarketDataPublisher(jmsTemplate, securityRepository, shardedExecutor, Optional.of(journal), "MD", 0);
+        publisher.afterSingletonsInstantiated();
+
+        security.getOrderBook().enqueue(order(1, Side.BUY, 10, 100));
+        publisher.afterRequest(0, 7);
+        publisher.stop();
+
+        InOrder inOrder = inOrder(journal, jmsTemplate);
+        inOrder.verify(journal).awaitDurable(7);
+        inOrder.verify(jmsTemplate).convertAndSend("MD", new DepthUpdateEvent("ABC", 1, Side.BUY, 100, 10, ADDED));
+    }
+}
@@ -0,0 +1,85 @@
+package ir.ramtung.tinyme.messaging;
+
+import ir.ramtung.tinyme.domain.entity.Side;
+import ir.ramtung.tinyme.messaging.codec.BinaryCodec;
+import ir.ramtung.tinyme.messaging.event.*;
+import ir.ramtung.tinyme.messaging.request.*;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryCodecTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 3, 1, 9, 30, 15, 123_456_789);
+
+    private Object roundTrip(Object message) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        BinaryCodec.encode(message, buffer);
+        buffer.flip();
+        Object decoded = BinaryCodec.decode(BinaryCodec.typeNamed(message.getClass().getName()), buffer);
+        assertThat(buffer.hasRemaining()).isFalse();
+        return decoded;
+    }
+
+    @Test
+    void requests_survive_a_round_trip() {
+        var enterOrderRq = EnterOrderRq.createUpdateOrderRq(1, "ABC", 200, TIME, Side.SELL, 300, 15450, 2, 3, 50, 10, 0);
+        var deleteOrderRq = DeleteOrderRq.builder().requestId(4).securityIsin("ABC").side(Side.BUY).orderId(5).entryTime(TIME).build();
+        var changeMatchingStateRq = ChangeMatchingStateRq.builder().requestId(6).securityIsin("ABC")
+                .entryTime(TIME).targetState(MatchingState.AUCTION).build();
+
+        assertThat(roundTrip(enterOrderRq)).isEqualTo(enterOrderRq);
+        assertThat(roundTrip(deleteOrderRq)).isEqualTo(deleteOrderRq);
+        assertThat(roundTrip(changeMatchingStateRq)).isEqualTo(changeMatchingStateRq);
+    }
+
+    @Test
+    void events_survive_a_round_trip_with_their_time() {
+        List<Event> events = List.of(
+                new OrderAcceptedEvent(1, 2),
+                new OrderActivatedEvent(1, 2),
+                new OrderDeletedEvent(1, 2),
+                new OrderUpdatedEvent(1, 2),
+                new OrderExecutedEvent(1, 2, List.of(new TradeDTO("ABC", 100, 10, 2, 3), new TradeDTO("ABC", 101, 5, 2, 4))),
+                new OrderRejectedEvent(1, 2, List.of("first error", "خطای دوم")),
+                new OpeningPriceEvent("ABC", 15450, 300),
+                new OpeningPriceEvent("ABC", null, 0),
+                new SecurityStateChangedEvent("ABC", MatchingState.CONTINUOUS),
+                new TradeEvent("ABC", 100, 10, 2, 3),
+                new DepthUpdateEvent("ABC", 7, Side.SELL, 15450, 300, DepthUpdateEvent.Action.CHANGED));
+
+        for (Event event : events) {
+            Event decoded = (Event) roundTrip(event);
+            assertThat(decoded).isEqualTo(event);
+            assertThat(decoded.getTime()).isEqualTo(event.getTime());
+        }
+    }
+
+    @Test
+    void strings_are_read_from_buffers_without_a_backing_array() {
+        var rq = DeleteOrderRq.builder().requestId(4).securityIsin("ABC").side(Side.BUY).orderId(5).entryTime(TIME).build();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        BinaryCodec.encode(rq, buffer);
+        buffer.flip();
+
+        assertThat(BinaryCodec.decode(DeleteOrderRq.class, buffer.asReadOnlyBuffer())).isEqualTo(rq);
+    }
+
+    @Test
+    void nulls_are_kept() {
+        var rq = EnterOrderRq.builder().requestType(OrderEntryType.NEW_ORDER).requestId(1).entryTime(null).build();
+
+        assertThat(roundTrip(rq)).isEqualTo(rq);
+    }
+
+    @Test
+    void unknown_types_are_rejected() {
+        assertThat(BinaryCodec.typeNamed("java.lang.Runtime")).isNull();
+        assertThatThrownBy(() -> BinaryCodec.encode("text", ByteBuffer.allocate(16)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
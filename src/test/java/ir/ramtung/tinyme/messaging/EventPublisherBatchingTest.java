@@ -0,0 +1,140 @@
+package ir.ramtung.tinyme.messaging;
+
+import ir.ramtung.tinyme.messaging.event.OrderAcceptedEvent;
+import ir.ramtung.tinyme.messaging.event.OrderDeletedEvent;
+import jakarta.jms.*;
+import jakarta.jms.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.support.converter.MessageConverter;
+import org.springframework.jms.support.destination.DynamicDestinationResolver;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.*;
+
+class EventPublisherBatchingTest {
+    private Session session;
+    private MessageProducer producer;
+    private MessageConverter converter;
+    private EventPublisher eventPublisher;
+
+    @BeforeEach
+    void setup() throws JMSException {
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        Connection connection = mock(Connection.class);
+        session = mock(Session.class);
+        producer = mock(MessageProducer.class);
+        converter = mock(MessageConverter.class);
+        when(connectionFactory.createConnection()).thenReturn(connection);
+        when(connection.createSession(anyBoolean(), anyInt())).thenReturn(session);
+        when(session.getTransacted()).thenReturn(true);
+        when(session.createProducer(any())).thenReturn(producer);
+        when(converter.toMessage(any(), any())).thenAnswer(invocation -> mock(Message.class));
+
+        JmsTemplate jmsTemplate = mock(JmsTemplate.class);
+        when(jmsTemplate.getConnectionFactory()).thenReturn(connectionFactory);
+        when(jmsTemplate.getMessageConverter()).thenReturn(converter);
+        when(jmsTemplate.getDestinationResolver()).thenReturn(new DynamicDestinationResolver());
+
+        eventPublisher = new EventPublisher(jmsTemplate, Optional.empty(), Optional.empty());
+        ReflectionTestUtils.setField(eventPublisher, "responseQueue", "RS");
+        ReflectionTestUtils.setField(eventPublisher, "maxBatchEvents", 256);
+        ReflectionTestUtils.setField(eventPublisher, "maxBatchDelayMillis", 200L);
+        ReflectionTestUtils.setField(eventPublisher, "ringCapacity", 64);
+        eventPublisher.startSender();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        eventPublisher.stopSender();
+    }
+
+    @Test
+    void events_are_held_until_the_request_is_flushed() throws Exception {
+        eventPublisher.beginRequest();
+        eventPublisher.publish(new OrderAcceptedEvent(1, 10));
+        eventPublisher.publish(new OrderDeletedEvent(1, 10));
+        Thread.sleep(100);
+        verifyNoInteractions(producer);
+
+        eventPublisher.flush(0);
+        eventPublisher.stopSender();
+
+        verify(producer, times(2)).send(any(Message.class));
+        verify(session).commit();
+    }
+
+    @Test
+    void flushed_requests_are_sent_in_order_in_one_transaction() throws Exception {
+        var accepted = new OrderAcceptedEvent(1, 10);
+        var deleted = new OrderDeletedEvent(2, 10);
+        eventPublisher.beginRequest();
+        eventPublisher.publish(accepted);
+        eventPublisher.flush(0);
+        eventPublisher.beginRequest();
+        eventPublisher.publish(deleted);
+        eventPublisher.flush(0);
+        eventPublisher.stopSender();
+
+        InOrder inOrder = inOrder(converter);
+        inOrder.verify(converter).toMessage(accepted, session);
+        inOrder.verify(converter).toMessage(deleted, session);
+        verify(session).commit();
+        verify(producer, times(2)).send(any(Message.class));
+    }
+
+    @Test
+    void stats_show_what_is_waiting_in_the_publish_stage_and_what_was_sent() throws Exception {
+        eventPublisher.beginRequest();
+        eventPublisher.publish(new OrderAcceptedEvent(1, 10));
+        eventPublisher.publish(new OrderDeletedEvent(1, 10));
+        assertThat(eventPublisher.stats().depth()).isZero();
+        eventPublisher.flush(0);
+        eventPublisher.stopSender();
+
+        EventPublisher.PublisherStats stats = eventPublisher.stats();
+        assertThat(stats.depth()).isZero();
+        assertThat(stats.events()).isEqualTo(2);
+        assertThat(stats.batches()).isEqualTo(1);
+    }
+
+    @Test
+    void a_batch_that_fails_is_sent_again_instead_of_dropped() throws Exception {
+        doThrow(new JMSException("broker is down")).doNothing().when(producer).send(any(Message.class));
+        eventPublisher.beginRequest();
+        eventPublisher.publish(new OrderAcceptedEvent(1, 10));
+        eventPublisher.flush(0);
+        eventPublisher.stopSender();
+
+        verify(producer, times(2)).send(any(Message.class));
+        verify(session).commit();
+        assertThat(eventPublisher.stats().failedSends()).isEqualTo(1);
+        assertThat(eventPublisher.stats().events()).isEqualTo(1);
+    }
+
+    @Test
+    void events_published_outside_a_request_are_rejected() throws Exception {
+        assertThatThrownBy(() -> eventPublisher.publish(new OrderAcceptedEvent(1, 10)))
+                .isInstanceOf(java.lang.IllegalStateException.class);
+        eventPublisher.beginRequest();
+        eventPublisher.flush(0);
+        assertThatThrownBy(() -> eventPublisher.publish(new OrderAcceptedEvent(1, 10)))
+                .isInstanceOf(java.lang.IllegalStateException.class);
+    }
+
+    @Test
+    void requests_cannot_begin_before_the_sender_is_started() throws Exception {
+        EventPublisher notStarted = new EventPublisher(mock(JmsTemplate.class), Optional.empty(), Optional.empty());
+        assertThatThrownBy(notStarted::beginRequest).isInstanceOf(java.lang.IllegalStateException.class);
+    }
+}
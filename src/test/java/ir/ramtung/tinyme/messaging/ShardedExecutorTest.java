@@ -0,0 +1,104 @@
+package ir.ramtung.tinyme.messaging;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ShardedExecutorTest {
+    private ShardedExecutor executor;
+
+    @BeforeEach
+    void setup() {
+        executor = new ShardedExecutor(4);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdown();
+    }
+
+    @Test
+    void requests_of_one_security_run_in_order_on_one_thread() throws InterruptedException {
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 100; i++) {
+            int request = i;
+            executor.execute("ABC", () -> {
+                executed.add(request);
+                threads.add(Thread.currentThread().getName());
+            });
+        }
+        executor.shutdown();
+
+        assertThat(executed).containsExactlyElementsOf(IntStream.range(0, 100).boxed().toList());
+        assertThat(threads).containsOnly("shard-" + executor.shardOf("ABC"));
+    }
+
+    @Test
+    void securities_on_different_shards_run_in_parallel() throws InterruptedException {
+        String first = "ABC";
+        String second = IntStream.range(0, 100).mapToObj(i -> "ISIN" + i)
+                .filter(isin -> executor.shardOf(isin) != executor.shardOf(first))
+                .findFirst().orElseThrow();
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        CountDownLatch bothFinished = new CountDownLatch(2);
+        Runnable waitForTheOther = () -> {
+            bothStarted.countDown();
+            try {
+                if (bothStarted.await(5, TimeUnit.SECONDS))
+                    bothFinished.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        };
+
+        executor.execute(first, waitForTheOther);
+        executor.execute(second, waitForTheOther);
+
+        assertThat(bothFinished.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void a_failing_request_does_not_stop_its_shard() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute("ABC", () -> {
+            throw new IllegalStateException("boom");
+        });
+        executor.execute("ABC", done::countDown);
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void stats_count_every_request_and_drain_to_zero_depth() throws InterruptedException {
+        executor.shutdown();
+        executor = new ShardedExecutor(2, 8);
+        for (int i = 0; i < 100; i++)
+            executor.execute("ABC", () -> {
+            });
+        executor.shutdown();
+
+        var stats = executor.stats().get(executor.shardOf("ABC"));
+        assertThat(stats.processed()).isEqualTo(100);
+        assertThat(stats.depth()).isZero();
+        assertThat(stats.batches()).isBetween(1L, 100L);
+    }
+
+    @Test
+    void requests_are_rejected_after_shutdown() throws InterruptedException {
+        executor.shutdown();
+
+        assertThatThrownBy(() -> executor.execute("ABC", () -> {
+        })).isInstanceOf(RejectedExecutionException.class);
+    }
+}
@@ -0,0 +1,124 @@
+package ir.ramtung.tinyme.monitoring;
+
+import ir.ramtung.tinyme.domain.entity.MatchingOutcome;
+import ir.ramtung.tinyme.messaging.request.MatchingState;
+import ir.ramtung.tinyme.messaging.request.OrderEntryType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class LatencyHistogramTest {
+    @Test
+    void buckets_are_contiguous_and_never_wider_than_a_sixty_fourth_of_their_values() {
+        for (int index = 1; index <= LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE); index++) {
+            long lowest = LatencyHistogram.highestValueAt(index - 1) + 1;
+            long highest = LatencyHistogram.highestValueAt(index);
+            assertThat(LatencyHistogram.indexOf(lowest)).isEqualTo(index);
+            assertThat(LatencyHistogram.indexOf(highest)).isEqualTo(index);
+            assertThat(highest - lowest).isLessThanOrEqualTo(Math.max(0, lowest / 64));
+        }
+    }
+
+    @Test
+    void percentiles_are_within_the_precision_of_the_exact_ones() {
+        Random random = new Random(21);
+        long[] values = new long[100_000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertThat(histogram.count()).isEqualTo(values.length);
+        assertThat(histogram.max()).isEqualTo(values[values.length - 1]);
+        for (double percentile : List.of(1.0, 50.0, 90.0, 99.0, 99.9, 99.99, 100.0)) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            assertThat(histogram.valueAtPercentile(percentile)).isBetween(exact, exact + exact / 64);
+        }
+        double exactMean = Arrays.stream(values).average().orElseThrow();
+        assertThat(histogram.mean()).isCloseTo(exactMean, within(exactMean / 64));
+    }
+
+    @Test
+    void out_of_range_values_are_clamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertThat(histogram.valueAtPercentile(50)).isZero();
+        assertThat(histogram.max()).isEqualTo(LatencyHistogram.MAX_VALUE);
+        assertThat(histogram.valueAtPercentile(100)).isEqualTo(LatencyHistogram.MAX_VALUE);
+    }
+
+    @Test
+    void an_empty_histogram_reports_zeros() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.count()).isZero();
+        assertThat(histogram.valueAtPercentile(99.9)).isZero();
+        assertThat(histogram.mean()).isZero();
+    }
+
+    @Test
+    void added_histograms_count_both() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++)
+            first.record(i);
+        for (int i = 101; i <= 200; i++)
+            second.record(i);
+
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.add(first);
+        merged.add(second);
+
+        assertThat(merged.count()).isEqualTo(200);
+        assertThat(merged.max()).isEqualTo(200);
+        assertThat(merged.valueAtPercentile(50)).isEqualTo(100);
+    }
+
+    @Test
+    void latency_recorded_on_several_threads_is_merged_by_combination() throws InterruptedException {
+        String key = "MATCHING/UPDATE_ORDER/AUCTION/NOT_ENOUGH_CREDIT";
+        long countBefore = countOf(key);
+        long matchingCountBefore = Latency.histogramOf(LatencyStage.MATCHING).count();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    Latency.record(LatencyStage.MATCHING, OrderEntryType.UPDATE_ORDER, MatchingState.AUCTION,
+                            MatchingOutcome.NOT_ENOUGH_CREDIT, System.nanoTime());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        LatencySummary summary = summaryOf(key).orElseThrow();
+        assertThat(summary.count() - countBefore).isEqualTo(4_000);
+        assertThat(summary.p50()).isLessThanOrEqualTo(summary.p999());
+        assertThat(Latency.histogramOf(LatencyStage.MATCHING).count() - matchingCountBefore).isGreaterThanOrEqualTo(4_000);
+    }
+
+    /**
+     * Latency is recorded process-wide, so other tests in the same run may have recorded the same
+     * key; only the change made by a test is meaningful.
+     */
+    private static long countOf(String key) {
+        return summaryOf(key).map(LatencySummary::count).orElse(0L);
+    }
+
+    private static Optional<LatencySummary> summaryOf(String key) {
+        return Latency.summaries().stream().filter(recorded -> recorded.key().equals(key)).findFirst();
+    }
+}
@@ -0,0 +1,30 @@
+package ir.ramtung.tinyme.monitoring;
+
+import ir.ramtung.tinyme.messaging.EventPublisher;
+import ir.ramtung.tinyme.messaging.ShardedExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LatencyReporterTest {
+    @Test
+    void reports_every_shard_and_the_publish_stage() {
+        ShardedExecutor shardedExecutor = mock(ShardedExecutor.class);
+        EventPublisher eventPublisher = mock(EventPublisher.class);
+        ShardedExecutor.ShardStats first = new ShardedExecutor.ShardStats(0, 3, 100, 40, 2_000, 9_000, 5_000);
+        ShardedExecutor.ShardStats second = new ShardedExecutor.ShardStats(1, 0, 80, 80, 1_000, 4_000, 6_000);
+        EventPublisher.PublisherStats publisherStats = new EventPublisher.PublisherStats(2, 500, 30, 7_000, 20_000, 1);
+        when(shardedExecutor.stats()).thenReturn(List.of(first, second));
+        when(eventPublisher.stats()).thenReturn(publisherStats);
+        LatencyReporter reporter = new LatencyReporter(0, 0, shardedExecutor, eventPublisher);
+
+        assertThat(reporter.getPipelineStages())
+                .containsExactly(first.toString(), second.toString(), publisherStats.toString());
+        assertThat(reporter.getPublishStageDepth()).isEqualTo(2);
+        assertThat(reporter.report()).contains(first.toString(), second.toString(), publisherStats.toString());
+    }
+}
@@ -0,0 +1,108 @@
+package ir.ramtung.tinyme.query;
+
+import ir.ramtung.tinyme.domain.entity.*;
+import ir.ramtung.tinyme.domain.entity.order.IcebergOrder;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.messaging.ShardedExecutor;
+import ir.ramtung.tinyme.repository.SecurityRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BookQueryServiceTest {
+    private Security security;
+    private Broker broker;
+    private Shareholder shareholder;
+    private ShardedExecutor shardedExecutor;
+    private BookQueryService bookQueryService;
+
+    @BeforeEach
+    void setup() {
+        security = Security.builder().isin("ABC").build();
+        broker = Broker.builder().credit(100_000_000L).build();
+        shareholder = Shareholder.builder().build();
+        shareholder.incPosition(security, 100_000);
+        SecurityRepository securityRepository = new SecurityRepository();
+        securityRepository.addSecurity(security);
+        shardedExecutor = new ShardedExecutor(1);
+        bookQueryService = new BookQueryService(securityRepository, shardedExecutor, 2, 0, 0);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        bookQueryService.stop();
+        shardedExecutor.shutdown();
+    }
+
+    private Order order(long orderId, Side side, int quantity, int price) {
+        return new Order(orderId, security, side, quantity, price, broker, shareholder);
+    }
+
+    /**
+     * Changes the book on its shard, the way requests do, and waits for the change to be made.
+     */
+    private void onShard(Runnable change) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        shardedExecutor.executeOn(shardedExecutor.shardOf("ABC"), () -> {
+            change.run();
+            done.complete(null);
+        });
+        done.join();
+    }
+
+    @Test
+    void depth_lists_the_levels_of_both_sides_best_first() {
+        onShard(() -> {
+            OrderBook orderBook = security.getOrderBook();
+            orderBook.enqueue(order(1, Side.BUY, 10, 100));
+            orderBook.enqueue(order(2, Side.BUY, 5, 100));
+            orderBook.enqueue(order(3, Side.BUY, 7, 110));
+            orderBook.enqueue(new IcebergOrder(4, security, Side.SELL, 50, 120, broker, shareholder, 20));
+        });
+
+        DepthSnapshot depth = bookQueryService.depth("ABC").join();
+
+        assertThat(depth.securityIsin()).isEqualTo("ABC");
+        assertThat(depth.bids()).containsExactly(new DepthSnapshot.Level(110, 7, 1), new DepthSnapshot.Level(100, 15, 2));
+        assertThat(depth.asks()).containsExactly(new DepthSnapshot.Level(120, 20, 1));
+    }
+
+    @Test
+    void an_unchanged_book_is_answered_from_the_kept_snapshot() {
+        onShard(() -> security.getOrderBook().enqueue(order(1, Side.BUY, 10, 100)));
+        DepthSnapshot first = bookQueryService.depth("ABC").join();
+
+        assertThat(bookQueryService.depth("ABC").join()).isSameAs(first);
+
+        onShard(() -> security.getOrderBook().removeByOrderId(Side.BUY, 1));
+        DepthSnapshot changed = bookQueryService.depth("ABC").join();
+
+        assertThat(changed.version()).isGreaterThan(first.version());
+        assertThat(changed.bids()).isEmpty();
+        assertThat(first.bids()).containsExactly(new DepthSnapshot.Level(100, 10, 1));
+    }
+
+    @Test
+    void order_shows_the_order_as_it_rests_in_the_book() {
+        onShard(() -> security.getOrderBook().enqueue(new IcebergOrder(4, security, Side.SELL, 50, 120, broker, shareholder, 20)));
+
+        Optional<OrderView> view = bookQueryService.order("ABC", Side.SELL, 4).join();
+
+        assertThat(view).isPresent();
+        assertThat(view.get().price()).isEqualTo(120);
+        assertThat(view.get().totalQuantity()).isEqualTo(50);
+        assertThat(view.get().displayedQuantity()).isEqualTo(20);
+        assertThat(bookQueryService.order("ABC", Side.BUY, 4).join()).isEmpty();
+    }
+
+    @Test
+    void unknown_securities_have_no_depth_and_no_orders() {
+        assertThat(bookQueryService.depth("XYZ").join()).isNull();
+        assertThat(bookQueryService.order("XYZ", Side.BUY, 1).join()).isEmpty();
+    }
+}
@@ -0,0 +1,83 @@
+package ir.ramtung.tinyme.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvFilesTest {
+    @TempDir
+    Path directory;
+
+    private Path fileWith(String content) throws Exception {
+        Path file = directory.resolve("rows.csv");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    @Test
+    void rows_come_back_in_file_order_whatever_the_segment_size() throws Exception {
+        StringBuilder content = new StringBuilder("id,name\n");
+        IntStream.range(0, 1_000).forEach(i -> content.append(i).append(",name").append(i).append('\n'));
+        Path file = fileWith(content.toString());
+
+        for (int segmentBytes : List.of(1, 7, 64, 1 << 20)) {
+            List<String> rows = CsvFiles.parse(file, line -> line[0] + "/" + line[1], segmentBytes);
+            assertThat(rows).hasSize(1_000);
+            assertThat(rows).containsExactlyElementsOf(IntStream.range(0, 1_000).mapToObj(i -> i + "/name" + i).toList());
+        }
+    }
+
+    @Test
+    void carriage_returns_empty_fields_and_a_missing_final_newline_are_handled() throws Exception {
+        Path file = fileWith("a,b,c\r\n1,,3\r\n\r\n4,5,");
+
+        List<String[]> rows = CsvFiles.parse(file, line -> line, 3);
+
+        assertThat(rows).hasSize(2);
+        assertThat(rows.get(0)).containsExactly("1", "", "3");
+        assertThat(rows.get(1)).containsExactly("4", "5", "");
+    }
+
+    @Test
+    void a_file_with_only_a_header_has_no_rows() throws Exception {
+        assertThat(CsvFiles.parse(fileWith("a,b\n"), line -> line)).isEmpty();
+        assertThat(CsvFiles.parse(fileWith("a,b"), line -> line)).isEmpty();
+    }
+
+    @Test
+    void written_rows_parse_back_in_item_order() throws Exception {
+        Path file = directory.resolve("written.csv");
+        List<Integer> items = IntStream.range(0, 10_000).boxed().toList();
+
+        CsvFiles.write(file, "value,square", items, 37,
+                (Integer item, StringBuilder rows) -> rows.append(item).append(',').append(item * item).append(System.lineSeparator()));
+
+        assertThat(Files.readAllLines(file).get(0)).isEqualTo("value,square");
+        List<Integer> values = CsvFiles.parse(file, line -> {
+            int value = Integer.parseInt(line[0]);
+            assertThat(Integer.parseInt(line[1])).isEqualTo(value * value);
+            return value;
+        }, 1 << 10);
+        assertThat(values).containsExactlyElementsOf(items);
+    }
+
+    @Test
+    void items_may_render_no_rows_or_several() throws Exception {
+        Path file = directory.resolve("written.csv");
+
+        CsvFiles.write(file, "n", List.of(0, 2, 0, 1), 1,
+                (Integer item, StringBuilder rows) -> {
+                    for (int i = 0; i < item; i++)
+                        rows.append(item).append(System.lineSeparator());
+                });
+
+        assertThat(CsvFiles.parse(file, line -> line[0])).containsExactly("2", "2", "1");
+    }
+}
@@ -0,0 +1,185 @@
+package ir.ramtung.tinyme.repository;
+
+import ir.ramtung.tinyme.domain.entity.*;
+import ir.ramtung.tinyme.domain.entity.order.IcebergOrder;
+import ir.ramtung.tinyme.domain.entity.order.Order;
+import ir.ramtung.tinyme.domain.entity.order.StopOrder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+import static ir.ramtung.tinyme.domain.entity.Side.BUY;
+import static ir.ramtung.tinyme.domain.entity.Side.SELL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DataLoaderTest {
+    private static final List<String> FILES = List.of("broker.csv", "shareholder.csv", "security.csv", "position.csv", "orderbook.csv",
+            "stoporder.csv");
+
+    @TempDir
+    Path directory;
+    private SecurityRepository securityRepository;
+    private BrokerRepository brokerRepository;
+    private ShareholderRepository shareholderRepository;
+
+    @BeforeEach
+    void setupMarket() {
+        securityRepository = new SecurityRepository();
+        brokerRepository = new BrokerRepository();
+        shareholderRepository = new ShareholderRepository();
+        for (int i = 1; i <= 20; i++)
+            brokerRepository.addBroker(Broker.builder().brokerId(i).name("broker" + i).credit(1_000_000L * i).build());
+        for (int i = 1; i <= 50; i++)
+            shareholderRepository.addShareholder(Shareholder.builder().shareholderId(i).name("holder" + i).build());
+        LocalDateTime time = LocalDateTime.of(2024, 2, 23, 10, 0, 0, 500_000_000);
+        long orderId = 1;
+        for (int s = 0; s < 12; s++) {
+            Security security = Security.builder().isin("IR" + s).tickSize(1 + s % 3).lotSize(1).build();
+            securityRepository.addSecurity(security);
+            for (int i = 1; i <= 50; i += 1 + s % 4)
+                shareholderRepository.findShareholderById(i).incPosition(security, 10_000 + i);
+            for (int i = 0; i < 30; i++) {
+                Side side = i % 2 == 0 ? BUY : SELL;
+                int price = side == BUY ? 15_000 - 10 * (i % 5) : 15_100 + 10 * (i % 7);
+                Broker broker = brokerRepository.findBrokerById(1 + i % 20);
+                Shareholder shareholder = shareholderRepository.findShareholderById(1 + (i * 7) % 50);
+                Order order = i % 3 == 0
+                        ? new IcebergOrder(orderId++, security, side, 100 + i, price, broker, shareholder, time.plusSeconds(i), 40)
+                        : new Order(orderId++, security, side, 100 + i, price, broker, shareholder, time.plusSeconds(i));
+                security.getOrderBook().enqueue(order);
+            }
+            Broker broker = brokerRepository.findBrokerById(1 + s);
+            Shareholder shareholder = shareholderRepository.findShareholderById(1 + s);
+            security.getOrderBook().enqueue(new StopOrder(orderId++, security, BUY, 50, 15_200, broker, shareholder,
+                    time.plusMinutes(1), 15_150));
+            security.getOrderBook().enqueue(new StopOrder(orderId++, security, SELL, 60, 14_900, broker, shareholder,
+                    time.plusMinutes(2), 14_950));
+        }
+    }
+
+    private DataLoader dataLoaderOver(SecurityRepository securities, BrokerRepository brokers, ShareholderRepository shareholders) {
+        DataLoader dataLoader = new DataLoader(brokers, shareholders, securities, Optional.empty(), Optional.empty(), Optional.empty());
+        ReflectionTestUtils.setField(dataLoader, "brokerCsvResource", new FileSystemResource(directory.resolve("broker.csv")));
+        ReflectionTestUtils.setField(dataLoader, "shareholderCsvResource", new FileSystemResource(directory.resolve("shareholder.csv")));
+        ReflectionTestUtils.setField(dataLoader, "securityCsvResource", new FileSystemResource(directory.resolve("security.csv")));
+        ReflectionTestUtils.setField(dataLoader, "positionCsvResource", new FileSystemResource(directory.resolve("position.csv")));
+        ReflectionTestUtils.setField(dataLoader, "orderBookCsvResource", new FileSystemResource(directory.resolve("orderbook.csv")));
+        ReflectionTestUtils.setField(dataLoader, "stopOrderCsvResource", new FileSystemResource(directory.resolve("stoporder.csv")));
+        return dataLoader;
+    }
+
+    private static String describe(Order order) {
+        String description = order.getOrderId() + " " + order.getSecurity().getIsin() + " " + order.getSide() + " "
+                + order.getTotalQuantity() + "@" + order.getPrice() + " " + order.getBroker().getBrokerId() + " "
+                + order.getShareholder().getShareholderId() + " " + order.getEntryTime() + " " + order.getStatus();
+        if (order instanceof IcebergOrder icebergOrder)
+            description += " peak " + icebergOrder.getPeakSize() + " shown " + icebergOrder.getDisplayedQuantity();
+        if (order instanceof StopOrder stopOrder)
+            description += " stop " + stopOrder.getStopPrice() + (stopOrder.isActive() ? " active" : " inactive");
+        return description;
+    }
+
+    private static List<String> stateOf(SecurityRepository securities, BrokerRepository brokers, ShareholderRepository shareholders) {
+        List<String> state = new ArrayList<>();
+        brokers.allBrokers().forEach(broker -> state.add("broker " + broker.getBrokerId() + " " + broker.getName() + " " + broker.getCredit()));
+        shareholders.allShareholders().forEach(shareholder -> state.add("shareholder " + shareholder.getShareholderId() + " " + shareholder.getName()));
+        state.sort(null);
+        List<Security> sortedSecurities = new ArrayList<>();
+        securities.allSecurities().forEach(sortedSecurities::add);
+        sortedSecurities.sort(Comparator.comparing(Security::getIsin));
+        for (Security security : sortedSecurities) {
+            state.add("security " + security.getIsin() + " " + security.getTickSize() + " " + security.getLotSize());
+            List<String> positions = new ArrayList<>();
+            shareholders.allShareholders().forEach(shareholder ->
+                    positions.add("position " + shareholder.getShareholderId() + " " + shareholder.getPosition(security)));
+            positions.stream().sorted().forEach(state::add);
+            OrderBook orderBook = security.getOrderBook();
+            for (List<Order> queue : List.of(orderBook.getBuyQueue(), orderBook.getSellQueue(),
+                    orderBook.getBuyStopQueue(), orderBook.getSellStopQueue()))
+                queue.forEach(order -> state.add(queue == orderBook.getBuyQueue() || queue == orderBook.getSellQueue()
+                        ? describe(order) : "stop queue " + describe(order)));
+        }
+        return state;
+    }
+
+    @Test
+    void saved_state_loads_back_the_same() throws Exception {
+        dataLoaderOver(securityRepository, brokerRepository, shareholderRepository).saveAll();
+
+        SecurityRepository loadedSecurities = new SecurityRepository();
+        BrokerRepository loadedBrokers = new BrokerRepository();
+        ShareholderRepository loadedShareholders = new ShareholderRepository();
+        dataLoaderOver(loadedSecurities, loadedBrokers, loadedShareholders).loadAll();
+
+        assertThat(stateOf(loadedSecurities, loadedBrokers, loadedShareholders))
+                .containsExactlyElementsOf(stateOf(securityRepository, brokerRepository, shareholderRepository));
+    }
+
+    @Test
+    void brokers_are_loaded_with_the_credit_of_their_row() throws Exception {
+        Files.writeString(directory.resolve("broker.csv"), "brokerId,name,credit\n1,first,500\n2,second,7000\n");
+        Files.writeString(directory.resolve("shareholder.csv"), "shareholderId,name\n");
+        Files.writeString(directory.resolve("security.csv"), "isin,tickSize,lotSize\n");
+        Files.writeString(directory.resolve("position.csv"), "shareholderId,isin,positions\n");
+        Files.writeString(directory.resolve("orderbook.csv"), "orderId,isin,side,quantity,price,brokerId,shareholderId,entryTime,peakSize,displayedQuantity\n");
+
+        BrokerRepository brokers = new BrokerRepository();
+        dataLoaderOver(new SecurityRepository(), brokers, new ShareholderRepository()).loadAll();
+
+        assertThat(brokers.findBrokerById(1).getCredit()).isEqualTo(500);
+        assertThat(brokers.findBrokerById(2).getCredit()).isEqualTo(7000);
+    }
+
+    @Test
+    void saving_loaded_state_writes_the_same_rows() throws Exception {
+        dataLoaderOver(securityRepository, brokerRepository, shareholderRepository).saveAll();
+        List<List<String>> saved = new ArrayList<>();
+        for (String file : FILES)
+            saved.add(Files.readAllLines(directory.resolve(file)));
+
+        DataLoader reloaded = dataLoaderOver(new SecurityRepository(), new BrokerRepository(), new ShareholderRepository());
+        reloaded.loadAll();
+        reloaded.saveAll();
+
+        for (int i = 0; i < FILES.size(); i++) {
+            assertThat(Files.readAllLines(directory.resolve(FILES.get(i)))).as(FILES.get(i))
+                    .containsExactlyInAnyOrderElementsOf(saved.get(i));
+        }
+    }
+
+    @Test
+    void order_book_rows_keep_their_layout_and_stop_orders_go_to_their_own_file() throws Exception {
+        dataLoaderOver(securityRepository, brokerRepository, shareholderRepository).saveAll();
+
+        List<String> orderBook = Files.readAllLines(directory.resolve("orderbook.csv"));
+        assertThat(orderBook.get(0)).isEqualTo("orderId,isin,side,quantity,price,brokerId,shareholderId,entryTime,peakSize,displayedQuantity");
+        assertThat(orderBook.subList(1, orderBook.size())).hasSize(12 * 30)
+                .allSatisfy(line -> assertThat(line.split(",")).hasSize(10));
+        List<String> stopOrders = Files.readAllLines(directory.resolve("stoporder.csv"));
+        assertThat(stopOrders.get(0)).isEqualTo("orderId,isin,side,quantity,price,brokerId,shareholderId,entryTime,stopPrice");
+        assertThat(stopOrders.subList(1, stopOrders.size())).hasSize(12 * 2)
+                .allSatisfy(line -> assertThat(line.split(",")).hasSize(9));
+    }
+
+    @Test
+    void order_books_load_without_a_stop_order_file() throws Exception {
+        dataLoaderOver(securityRepository, brokerRepository, shareholderRepository).saveAll();
+        Files.delete(directory.resolve("stoporder.csv"));
+
+        SecurityRepository loadedSecurities = new SecurityRepository();
+        dataLoaderOver(loadedSecurities, new BrokerRepository(), new ShareholderRepository()).loadAll();
+
+        assertThat(loadedSecurities.findSecurityByIsin("IR0").getOrderBook().getBuyQueue()).hasSize(15);
+        assertThat(loadedSecurities.findSecurityByIsin("IR0").getOrderBook().getBuyStopQueue()).isEmpty();
+    }
+}
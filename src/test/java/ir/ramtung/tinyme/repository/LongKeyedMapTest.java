@@ -0,0 +1,55 @@
+package ir.ramtung.tinyme.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongKeyedMapTest {
+    @Test
+    void agrees_with_a_hash_map_while_growing() {
+        LongKeyedMap<String> map = new LongKeyedMap<>();
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            long key = i % 3 == 0 ? random.nextLong() : random.nextInt(50_000);
+            map.put(key, "v" + i);
+            expected.put(key, "v" + i);
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        expected.forEach((key, value) -> assertThat(map.get(key)).isEqualTo(value));
+        assertThat(map.values().stream().sorted().toList()).isEqualTo(expected.values().stream().sorted().toList());
+        assertThat(map.get(-1L)).isNull();
+    }
+
+    @Test
+    void keys_that_collide_on_the_low_bits_are_all_kept() {
+        LongKeyedMap<Long> map = new LongKeyedMap<>();
+        for (long i = 0; i < 1_000; i++)
+            map.put(i << 32, i);
+
+        for (long i = 0; i < 1_000; i++)
+            assertThat(map.get(i << 32)).isEqualTo(i);
+        assertThat(map.get(1_000L << 32)).isNull();
+    }
+
+    @Test
+    void clear_empties_the_map_and_it_can_be_refilled() {
+        LongKeyedMap<String> map = new LongKeyedMap<>(4);
+        map.put(0, "zero");
+        map.put(Long.MIN_VALUE, "min");
+        map.clear();
+
+        assertThat(map.size()).isZero();
+        assertThat(map.get(0)).isNull();
+        assertThat(map.values()).isEmpty();
+
+        map.put(0, "again");
+        assertThat(map.get(0)).isEqualTo("again");
+        assertThat(map.size()).isEqualTo(1);
+    }
+}